@@ -0,0 +1,44 @@
+package com.mykhailozinenko.sketchpad;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link ProjectContent#addOperation}: columnar append plus
+ * spatial index insertion for one stroke
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AddOperationBenchmark {
+
+    private ProjectContent content;
+    private StrokeGenerator generator;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        // Start every iteration empty so the store does not grow without bound
+        content = new ProjectContent(PaperSize.A4);
+        generator = new StrokeGenerator(42, PaperSize.A4);
+    }
+
+    @Benchmark
+    public int addStroke() {
+        content.addOperation(generator.nextStroke());
+        return content.getOperationCount();
+    }
+}
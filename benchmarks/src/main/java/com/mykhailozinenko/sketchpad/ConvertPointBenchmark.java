@@ -0,0 +1,50 @@
+package com.mykhailozinenko.sketchpad;
+
+import javafx.geometry.Point2D;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mouse-to-canvas coordinate conversion done for every mouse event, through
+ * the zoomed {@link ViewportCanvas} that {@link CanvasArea} draws on.
+ * Nodes that are not shown need no running toolkit, so this runs headless.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+// Creating a Canvas probes the graphics pipeline; the software one needs no display
+@Fork(value = 1, jvmArgsAppend = "-Dprism.order=sw")
+public class ConvertPointBenchmark {
+
+    @Param({"1.0", "2.5"})
+    public double zoomFactor;
+
+    private ViewportCanvas viewport;
+    private StrokeGenerator generator;
+
+    @Setup
+    public void setUp() {
+        viewport = new ViewportCanvas(new Project("Benchmark", PaperSize.A4));
+        viewport.setZoom(zoomFactor, 0);
+        generator = new StrokeGenerator(42, PaperSize.A4);
+    }
+
+    @Benchmark
+    public Point2D convert() {
+        generator.step();
+        return new Point2D(viewport.toPageX(generator.getX()), viewport.toPageY(generator.getY()));
+    }
+}
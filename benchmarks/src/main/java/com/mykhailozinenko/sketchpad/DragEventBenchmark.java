@@ -0,0 +1,64 @@
+package com.mykhailozinenko.sketchpad;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Model work done for one mouse drag event: extending the gesture's
+ * polyline through {@link Project#extendDrawOperation}. Run with
+ * {@code -prof gc} to see the allocation rate per event
+ * (gc.alloc.rate.norm is bytes per drag event).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DragEventBenchmark {
+
+    private static final int EVENTS_PER_GESTURE = 200;
+
+    private Project project;
+    private StrokeGenerator generator;
+    private DrawOperation.PolylineStrokeOperation gesture;
+    private int events;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        project = new Project("Benchmark", PaperSize.A4);
+        generator = new StrokeGenerator(42, PaperSize.A4);
+        beginGesture();
+    }
+
+    private void beginGesture() {
+        generator.jump();
+        gesture = new DrawOperation.PolylineStrokeOperation(
+                generator.getX(), generator.getY(), generator.nextColor(), generator.nextSize());
+        project.addDrawOperation(gesture);
+        events = 0;
+    }
+
+    @Benchmark
+    public void drag() {
+        generator.step();
+        project.extendDrawOperation(gesture, generator.getX(), generator.getY());
+
+        // Release and press again now and then, as real gestures are short
+        if (++events == EVENTS_PER_GESTURE) {
+            project.sealDrawOperation(gesture);
+            beginGesture();
+        }
+    }
+}
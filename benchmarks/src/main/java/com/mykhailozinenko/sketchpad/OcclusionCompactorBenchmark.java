@@ -0,0 +1,106 @@
+package com.mykhailozinenko.sketchpad;
+
+import javafx.scene.paint.Color;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.BitSet;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Occlusion pass over a drawing where half the strokes colour in the same
+ * area over and over with wide opaque brushes, the FX thread's share of a
+ * pass once the last strokes were drawn, and full-page replay of the
+ * operations before and after the hidden ones are dropped.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class OcclusionCompactorBenchmark {
+
+    private static final Color[] FILL_COLORS = {Color.web("#ff3b30"), Color.web("#ffcc00"), Color.web("#007aff")};
+
+    @Param({"2000", "20000"})
+    public int operationCount;
+
+    @Param({"8"})
+    public int pointsPerStroke;
+
+    private OperationStore operations;
+    private OperationStore compacted;
+    private BitSet everyOperation;
+    private Project project;
+    private SoftwareRasterizer rasterizer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        operations = new OperationStore();
+        new StrokeGenerator(42, PaperSize.A4).fill(operations, operationCount / 2, pointsPerStroke);
+
+        // Colouring in a 300 x 300 square with wide strokes
+        SplittableRandom random = new SplittableRandom(7);
+        for (int i = operations.size(); i < operationCount; i++) {
+            double x = 200 + random.nextDouble(300);
+            double y = 300 + random.nextDouble(300);
+            operations.beginPolyline(x, y, FILL_COLORS[random.nextInt(FILL_COLORS.length)], 12 + random.nextInt(20));
+            for (int p = 1; p < pointsPerStroke; p++) {
+                x = Math.clamp(x + random.nextDouble(-12, 12), 200, 500);
+                y = Math.clamp(y + random.nextDouble(-12, 12), 300, 600);
+                operations.extendPolyline(x, y);
+            }
+            operations.sealPolyline();
+        }
+
+        everyOperation = new BitSet(operationCount);
+        everyOperation.set(0, operationCount);
+        BitSet hidden = findHidden();
+        IntList dropped = new IntList();
+        for (int op = hidden.nextSetBit(0); op >= 0; op = hidden.nextSetBit(op + 1)) {
+            dropped.add(op);
+        }
+        compacted = operations.without(dropped);
+
+        project = new Project("Benchmark", PaperSize.A4);
+        project.getContent().appendOperations(operations, null);
+        rasterizer = new SoftwareRasterizer();
+    }
+
+    @Benchmark
+    public BitSet findHidden() {
+        return OcclusionCompactor.findHidden(operations, everyOperation,
+                PaperSize.A4.getWidthInPixels(), PaperSize.A4.getHeightInPixels());
+    }
+
+    @Benchmark
+    public Object preparePass() {
+        // As if the last strokes had just been drawn
+        project.getContent().setOcclusionChecked(operationCount - OcclusionCompactor.MIN_NEW_OPERATIONS);
+        return OcclusionCompactor.prepare(project);
+    }
+
+    @Benchmark
+    public int[] renderOriginal() {
+        return rasterizer.renderPage(operations, PaperSize.A4,
+                (int) PaperSize.A4.getWidthInPixels(), (int) PaperSize.A4.getHeightInPixels());
+    }
+
+    @Benchmark
+    public int[] renderCompacted() {
+        return rasterizer.renderPage(compacted, PaperSize.A4,
+                (int) PaperSize.A4.getWidthInPixels(), (int) PaperSize.A4.getHeightInPixels());
+    }
+}
@@ -0,0 +1,136 @@
+package com.mykhailozinenko.sketchpad;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding stroke points with {@link PointCodec}, against
+ * reading the raw little-endian float pairs the file format used before.
+ * The points counter gives the throughput in points per second; the
+ * compression ratio of the generated strokes is printed at setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class PointCodecBenchmark {
+
+    private static final ValueLayout.OfFloat FLOAT =
+            ValueLayout.JAVA_FLOAT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    @Param({"10000"})
+    public int strokeCount;
+
+    @Param({"8", "64"})
+    public int pointsPerStroke;
+
+    private OperationStore operations;
+    private int totalPoints;
+    private float[] coords = new float[256];
+
+    private MemorySegment encoded;
+    private long[] encodedOffsets;
+    private MemorySegment raw;
+    private ByteBuffer encodeBuffer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        operations = new OperationStore();
+        new StrokeGenerator(42, PaperSize.A4).fill(operations, strokeCount, pointsPerStroke);
+        totalPoints = operations.getPointCount();
+
+        // Both layouts of the same points, one operation after another
+        ByteBuffer packed = ByteBuffer.allocate(totalPoints * 10).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer floats = ByteBuffer.allocate(totalPoints * 8).order(ByteOrder.LITTLE_ENDIAN);
+        encodedOffsets = new long[strokeCount];
+        for (int op = 0; op < strokeCount; op++) {
+            int count = operations.pointCount(op);
+            coords = operations.points(op, coords);
+            encodedOffsets[op] = packed.position();
+            PointCodec.encode(coords, count, packed);
+            for (int i = 0; i < count * 2; i++) {
+                floats.putFloat(coords[i]);
+            }
+        }
+        encoded = MemorySegment.ofArray(Arrays.copyOf(packed.array(), packed.position()));
+        raw = MemorySegment.ofArray(floats.array());
+        encodeBuffer = ByteBuffer.allocate(packed.capacity()).order(ByteOrder.LITTLE_ENDIAN);
+
+        System.out.printf("%n%d points: %d bytes raw, %d bytes encoded, ratio %.2f (%.2f bytes per point)%n",
+                totalPoints, raw.byteSize(), encoded.byteSize(),
+                (double) raw.byteSize() / encoded.byteSize(), (double) encoded.byteSize() / totalPoints);
+    }
+
+    @Benchmark
+    public int encode(Counters counters) {
+        encodeBuffer.clear();
+        for (int op = 0; op < strokeCount; op++) {
+            coords = operations.points(op, coords);
+            PointCodec.encode(coords, operations.pointCount(op), encodeBuffer);
+        }
+        counters.points += totalPoints;
+        return encodeBuffer.position();
+    }
+
+    @Benchmark
+    public float decode(Counters counters) {
+        float sum = 0;
+        for (int op = 0; op < strokeCount; op++) {
+            int count = operations.pointCount(op);
+            coords = PointCodec.decode(encoded, encodedOffsets[op], count, coords);
+            sum += coords[count * 2 - 1];
+        }
+        counters.points += totalPoints;
+        return sum;
+    }
+
+    @Benchmark
+    public float decodeRaw(Counters counters) {
+        float sum = 0;
+        long offset = 0;
+        for (int op = 0; op < strokeCount; op++) {
+            int count = operations.pointCount(op);
+            for (int i = 0; i < count * 2; i++) {
+                coords[i] = raw.get(FLOAT, offset);
+                offset += 4;
+            }
+            sum += coords[count * 2 - 1];
+        }
+        counters.points += totalPoints;
+        return sum;
+    }
+
+    /**
+     * Points processed, reported as a rate
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long points;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            points = 0;
+        }
+    }
+}
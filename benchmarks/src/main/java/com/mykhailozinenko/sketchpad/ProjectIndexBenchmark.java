@@ -0,0 +1,86 @@
+package com.mykhailozinenko.sketchpad;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the project list operations on {@link ProjectIndex}: one keystroke
+ * of a search including the copy the list is set to, a project being renamed
+ * or saved, and switching the sort order. The search cycles through the
+ * prefixes of the typed text, as typing it does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProjectIndexBenchmark {
+
+    private static final String[] WORDS = {
+            "sketch", "portrait", "landscape", "study", "draft", "city", "night", "tree",
+            "figure", "hands", "still life", "morning", "harbor", "storyboard", "logo", "map"
+    };
+
+    @Param({"50000"})
+    public int projectCount;
+
+    @Param({"storyboard", "night 12"})
+    public String typed;
+
+    private ProjectIndex index;
+    private List<Project> projects;
+    private Random random;
+    private int keystroke;
+
+    @Setup
+    public void setUp() {
+        random = new Random(42);
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 0, 0);
+        projects = new ArrayList<>(projectCount);
+        for (int i = 0; i < projectCount; i++) {
+            String name = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)]
+                    + " " + random.nextInt(1000);
+            projects.add(new Project(UUID.randomUUID().toString(), name, PaperSize.A4,
+                    start.plusMinutes(i), start.plusMinutes(random.nextInt(projectCount)), null));
+        }
+        index = new ProjectIndex();
+        index.setAll(projects);
+    }
+
+    @Benchmark
+    public int searchKeystroke() {
+        keystroke = keystroke % typed.length() + 1;
+        index.setQuery(typed.substring(0, keystroke));
+        return index.getResults().size();
+    }
+
+    @Benchmark
+    public int update() {
+        Project project = projects.get(random.nextInt(projectCount));
+        int from = index.remove(project);
+        return from + index.add(project);
+    }
+
+    @Benchmark
+    public int resort() {
+        index.setSort(index.getSort() == ProjectIndex.Sort.NAME ? ProjectIndex.Sort.LAST_MODIFIED : ProjectIndex.Sort.NAME);
+        return index.getResultCount();
+    }
+}
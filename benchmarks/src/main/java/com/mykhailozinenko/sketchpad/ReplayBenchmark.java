@@ -0,0 +1,70 @@
+package com.mykhailozinenko.sketchpad;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full-page replay of every operation. Canvas rendering needs a running
+ * JavaFX toolkit, so replay is measured through the {@link SoftwareRasterizer},
+ * both tile-parallel and on a single thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ReplayBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int operationCount;
+
+    @Param({"8"})
+    public int pointsPerStroke;
+
+    private OperationStore operations;
+    private SoftwareRasterizer parallel;
+    private SoftwareRasterizer sequential;
+    private ForkJoinPool singleThread;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        operations = new OperationStore();
+        new StrokeGenerator(42, PaperSize.A4).fill(operations, operationCount, pointsPerStroke);
+
+        parallel = new SoftwareRasterizer();
+        singleThread = new ForkJoinPool(1);
+        sequential = new SoftwareRasterizer(singleThread);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        singleThread.shutdown();
+    }
+
+    @Benchmark
+    public int[] renderParallel() {
+        return parallel.renderPage(operations, PaperSize.A4,
+                (int) PaperSize.A4.getWidthInPixels(), (int) PaperSize.A4.getHeightInPixels());
+    }
+
+    @Benchmark
+    public int[] renderSingleThread() {
+        return sequential.renderPage(operations, PaperSize.A4,
+                (int) PaperSize.A4.getWidthInPixels(), (int) PaperSize.A4.getHeightInPixels());
+    }
+}
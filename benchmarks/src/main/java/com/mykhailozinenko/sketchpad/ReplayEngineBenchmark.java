@@ -0,0 +1,127 @@
+package com.mykhailozinenko.sketchpad;
+
+import javafx.scene.paint.Color;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replay through {@link ReplayEngine} with and without run batching.
+ * Commands go to a target that only counts them, so the numbers reflect the
+ * engine and not a graphics pipeline. The stateChanges and pathSubmissions
+ * counters are reported per replay.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ReplayEngineBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int operationCount;
+
+    @Param({"true", "false"})
+    public boolean batching;
+
+    @Param({"8"})
+    public int strokesPerBrush;
+
+    private OperationStore operations;
+    private IntList order;
+    private ReplayEngine engine;
+    private final CountingTarget target = new CountingTarget();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        operations = new OperationStore();
+        new StrokeGenerator(42, PaperSize.A4).fill(operations, operationCount, 8, strokesPerBrush);
+
+        order = new IntList(operationCount);
+        for (int op = 0; op < operationCount; op++) {
+            order.add(op);
+        }
+        engine = new ReplayEngine();
+        engine.setBatching(batching);
+    }
+
+    @Benchmark
+    public long replay(Counters counters) {
+        engine.resetCounters();
+        engine.replay(operations, order, Integer.MAX_VALUE, target);
+        counters.stateChanges = engine.getStateChanges();
+        counters.pathSubmissions = engine.getPathSubmissions();
+        return target.commands;
+    }
+
+    /**
+     * Counts of the last replay, reported next to the timing
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long stateChanges;
+        public long pathSubmissions;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            stateChanges = 0;
+            pathSubmissions = 0;
+        }
+    }
+
+    /**
+     * Target that discards commands, only counting them
+     */
+    private static final class CountingTarget implements RenderTarget {
+        private long commands;
+
+        @Override
+        public void setBrush(Color color, double width) {
+            commands++;
+        }
+
+        @Override
+        public void beginPath() {
+            commands++;
+        }
+
+        @Override
+        public void moveTo(double x, double y) {
+            commands++;
+        }
+
+        @Override
+        public void lineTo(double x, double y) {
+            commands++;
+        }
+
+        @Override
+        public void circle(double centerX, double centerY, double radius) {
+            commands++;
+        }
+
+        @Override
+        public void stroke() {
+            commands++;
+        }
+
+        @Override
+        public void fill() {
+            commands++;
+        }
+    }
+}
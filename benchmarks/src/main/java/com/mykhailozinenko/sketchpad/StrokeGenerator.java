@@ -0,0 +1,100 @@
+package com.mykhailozinenko.sketchpad;
+
+import javafx.scene.paint.Color;
+
+import java.util.SplittableRandom;
+
+/**
+ * Produces reproducible synthetic drawing input: random-walk strokes that
+ * resemble freehand gestures, kept inside the page.
+ */
+public class StrokeGenerator {
+
+    private static final Color[] COLORS = {
+            Color.BLACK, Color.web("#007aff"), Color.web("#ff3b30"), Color.web("#34c759"), Color.rgb(0, 0, 0, 0.5)
+    };
+
+    private final SplittableRandom random;
+    private final double width;
+    private final double height;
+    private double x;
+    private double y;
+
+    public StrokeGenerator(long seed, PaperSize paperSize) {
+        this.random = new SplittableRandom(seed);
+        this.width = paperSize.getWidthInPixels();
+        this.height = paperSize.getHeightInPixels();
+        jump();
+    }
+
+    /**
+     * Moves the pen to a random spot, as when a new gesture starts
+     */
+    public void jump() {
+        x = random.nextDouble(width);
+        y = random.nextDouble(height);
+    }
+
+    /**
+     * Advances the pen by a small step, like one mouse drag event
+     */
+    public void step() {
+        x = Math.clamp(x + random.nextDouble(-6, 6), 0, width);
+        y = Math.clamp(y + random.nextDouble(-6, 6), 0, height);
+    }
+
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+
+    public Color nextColor() {
+        return COLORS[random.nextInt(COLORS.length)];
+    }
+
+    public double nextSize() {
+        return 1 + random.nextInt(12);
+    }
+
+    /**
+     * Creates the next two-point stroke
+     */
+    public DrawOperation.StrokeOperation nextStroke() {
+        double startX = x;
+        double startY = y;
+        step();
+        return new DrawOperation.StrokeOperation(startX, startY, x, y, nextColor(), nextSize());
+    }
+
+    /**
+     * Appends gesture polylines with the given number of points each
+     */
+    public void fill(OperationStore operations, int count, int pointsPerStroke) {
+        fill(operations, count, pointsPerStroke, 1);
+    }
+
+    /**
+     * Appends gesture polylines, switching to a new random brush only every
+     * strokesPerBrush strokes, as users draw several strokes before changing it
+     */
+    public void fill(OperationStore operations, int count, int pointsPerStroke, int strokesPerBrush) {
+        Color color = null;
+        double size = 0;
+        for (int i = 0; i < count; i++) {
+            if (i % strokesPerBrush == 0) {
+                color = nextColor();
+                size = nextSize();
+            }
+            jump();
+            operations.beginPolyline(x, y, color, size);
+            for (int p = 1; p < pointsPerStroke; p++) {
+                step();
+                operations.extendPolyline(x, y);
+            }
+            operations.sealPolyline();
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package com.mykhailozinenko.sketchpad;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind journal of content changes made since a project was last saved.
+ *
+ * After every finished gesture, undo, redo or clear the FX thread encodes
+ * what changed since the last capture into the records of {@link ProjectFile}
+ * and queues them; that is memory work only. A background thread appends
+ * them to a per-project journal next to the project file and group-commits
+ * the fsyncs, forcing every written journal once {@value #SYNC_BYTES} bytes
+ * or {@value #SYNC_INTERVAL_MILLIS} ms have accumulated. Saving the project
+ * deletes its journal. Project files can also be written on that thread,
+ * in order with the records before them.
+ *
+ * A journal starts with the committed log length its project file had when
+ * it was started. On the next launch a journal whose project file still
+ * commits that length is replayed into the content and saved; any other is
+ * stale, e.g. from a crash after a save, and is deleted. A crash during a
+ * save leaves the old length committed, so the journal is replayed then.
+ */
+public class AutosaveJournal implements AutoCloseable {
+
+    public static final String EXTENSION = ".journal";
+
+    static final int MAGIC = 0x4A504B53; // "SKPJ"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int SYNC_BYTES = 256 * 1024;
+    static final long SYNC_INTERVAL_MILLIS = 250;
+
+    /**
+     * Records to append to a journal, a request to delete it if records is
+     * null, or a task to run in order with them
+     */
+    private record Entry(Path file, long baseFileSize, byte[] records, Runnable task) {
+    }
+
+    private static final Entry STOP = new Entry(null, 0, null, null);
+
+    private final ProjectManager projectManager;
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+
+    // Writer thread state
+    private final Map<Path, FileChannel> channels = new HashMap<>();
+    private final Map<Path, FileChannel> unsynced = new HashMap<>();
+    private long unsyncedBytes;
+    private long firstUnsyncedNanos;
+
+    public AutosaveJournal(ProjectManager projectManager) {
+        this.projectManager = projectManager;
+        this.writer = Thread.ofPlatform().name("autosave-journal").daemon().start(this::run);
+    }
+
+    /**
+     * Queues the changes made to a project's content since the last capture.
+     * Must be called on the FX thread; does no I/O.
+     */
+    public void capture(Project project) {
+        if (!project.isContentLoaded()) {
+            return;
+        }
+        OperationStore operations = project.getContent().getOperations();
+        BrushPalette brushes = operations.getBrushes();
+
+        // An open polyline is captured once its gesture is sealed
+        int end = operations.size() - (operations.hasOpenPolyline() ? 1 : 0);
+        int first = Math.min(operations.getJournalUnchangedPrefix(), end);
+        boolean truncate = first < operations.getJournaledSize();
+        int firstBrush = operations.getJournaledBrushCount();
+        if (!truncate && firstBrush == brushes.size() && first == end) {
+            return;
+        }
+
+        ProjectFile.RecordBuffer records = new ProjectFile.RecordBuffer(1024);
+        if (truncate) {
+            records.putTruncate(first);
+        }
+        for (int brush = firstBrush; brush < brushes.size(); brush++) {
+            records.putBrush(brushes.argb(brush), brushes.width(brush));
+        }
+        for (int op = first; op < end; op++) {
+            records.putOperation(operations, op);
+        }
+
+        queue.add(new Entry(getJournalFile(project), operations.getPersistedFileSize(), records.toByteArray(), null));
+        operations.markJournaled(end);
+    }
+
+    /**
+     * Queues the deletion of a project's journal, e.g. once it was saved or deleted
+     */
+    public void reset(Project project) {
+        queue.add(new Entry(getJournalFile(project), 0, null, null));
+    }
+
+    /**
+     * Writes a save snapshot to its project file on the writer thread, after
+     * the records queued before, e.g. to evict content without blocking the
+     * FX thread. Completes with the committed length of the file's log.
+     */
+    CompletableFuture<Long> write(ProjectFile.SaveSnapshot snapshot, Path projectFile) {
+        CompletableFuture<Long> written = new CompletableFuture<>();
+        queue.add(new Entry(null, 0, null, () -> {
+            try {
+                written.complete(ProjectFile.write(snapshot, projectFile));
+            } catch (IOException | RuntimeException e) {
+                written.completeExceptionally(e);
+            }
+        }));
+        return written;
+    }
+
+    /**
+     * Replays the journal a previous session left for a project, saves the
+     * project and deletes the journal. Must be called before the project's
+     * changes are captured. Returns true if any changes were recovered.
+     */
+    public boolean recover(Project project) {
+        Path file = getJournalFile(project);
+        if (!Files.exists(file)) {
+            return false;
+        }
+        try {
+            ByteBuffer journal = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+            Path projectFile = projectManager.getProjectFile(project);
+            if (journal.remaining() < HEADER_SIZE || journal.getInt() != MAGIC || journal.getInt() != VERSION
+                    || journal.getLong() != ProjectFile.readLogEnd(projectFile)) {
+                System.err.println("Discarding stale journal of " + project.getName());
+                Files.delete(file);
+                return false;
+            }
+            int replayed = replay(journal, project.getContent());
+            if (replayed == 0) {
+                Files.delete(file);
+                return false;
+            }
+            System.err.println("Recovered " + replayed + " unsaved changes of " + project.getName());
+            // Saving also queues the deletion of the journal
+            projectManager.saveProject(project);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Failed to recover journal of " + project.getName() + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Applies journal records to content, stopping at a partially written tail.
+     * Returns the number of records applied.
+     */
+    private static int replay(ByteBuffer journal, ProjectContent content) {
+        OperationStore operations = content.getOperations();
+        float[] coords = new float[256];
+        int applied = 0;
+        try {
+            while (journal.remaining() >= ProjectFile.SMALL_RECORD_SIZE) {
+                int start = journal.position();
+                byte type = journal.get(start);
+                switch (type) {
+                    case ProjectFile.RECORD_BRUSH -> {
+                        journal.getInt();
+                        operations.getBrushes().intern(journal.getInt(), journal.getFloat());
+                    }
+                    case ProjectFile.RECORD_TRUNCATE -> {
+                        journal.getInt();
+                        int count = journal.getInt();
+                        if (count == 0) {
+                            content.clear();
+                        } else if (count < operations.size()) {
+                            content.removeOperationsFrom(count, null);
+                        }
+                    }
+                    case ProjectFile.RECORD_OPERATION -> {
+                        journal.get();
+                        byte kind = journal.get();
+                        journal.getShort();
+                        int brushId = journal.getInt();
+                        int points = journal.getInt();
+                        // Bounds are recomputed from the points
+                        int encoded = journal.getInt(start + ProjectFile.OPERATION_HEADER_SIZE - 4);
+                        int end = start + ProjectFile.OPERATION_HEADER_SIZE + encoded;
+                        if (points < 0 || encoded < 0 || end > journal.limit()) {
+                            return applied;
+                        }
+                        coords = PointCodec.decode(MemorySegment.ofArray(journal.array()),
+                                start + ProjectFile.OPERATION_HEADER_SIZE, points, coords);
+                        journal.position(end);
+                        content.appendOperation(kind, brushId, coords, points);
+                    }
+                    default -> {
+                        return applied;
+                    }
+                }
+                applied++;
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            // Truncated by a crash during a write
+        }
+        return applied;
+    }
+
+    /**
+     * Gets the journal file of a project
+     */
+    public Path getJournalFile(Project project) {
+        return projectManager.getStorageDirectory().resolve(project.getId() + EXTENSION);
+    }
+
+    private void run() {
+        while (true) {
+            try {
+                Entry entry = unsynced.isEmpty()
+                        ? queue.take()
+                        : queue.poll(SYNC_INTERVAL_MILLIS - (System.nanoTime() - firstUnsyncedNanos) / 1_000_000,
+                        TimeUnit.MILLISECONDS);
+                if (entry == STOP) {
+                    sync();
+                    closeAll();
+                    return;
+                }
+                if (entry != null && entry.task() != null) {
+                    entry.task().run();
+                } else if (entry != null) {
+                    apply(entry);
+                }
+                if (!unsynced.isEmpty() && (entry == null || unsyncedBytes >= SYNC_BYTES
+                        || System.nanoTime() - firstUnsyncedNanos >= SYNC_INTERVAL_MILLIS * 1_000_000)) {
+                    sync();
+                }
+            } catch (InterruptedException e) {
+                sync();
+                closeAll();
+                return;
+            }
+        }
+    }
+
+    private void apply(Entry entry) {
+        Path file = entry.file();
+        try {
+            if (entry.records() == null) {
+                FileChannel channel = channels.remove(file);
+                unsynced.remove(file);
+                if (channel != null) {
+                    channel.close();
+                }
+                Files.deleteIfExists(file);
+                return;
+            }
+
+            FileChannel channel = channels.get(file);
+            if (channel == null) {
+                channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+                channels.put(file, channel);
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION).putLong(entry.baseFileSize()).flip();
+                write(channel, header);
+            }
+            write(channel, ByteBuffer.wrap(entry.records()));
+
+            if (unsynced.isEmpty()) {
+                firstUnsyncedNanos = System.nanoTime();
+            }
+            unsynced.put(file, channel);
+            unsyncedBytes += entry.records().length;
+        } catch (IOException e) {
+            System.err.println("Failed to write journal " + file + ": " + e.getMessage());
+            close(channels.remove(file));
+            unsynced.remove(file);
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Forces every journal written since the last sync in one go
+     */
+    private void sync() {
+        Iterator<Map.Entry<Path, FileChannel>> iterator = unsynced.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, FileChannel> entry = iterator.next();
+            try {
+                entry.getValue().force(false);
+            } catch (IOException e) {
+                System.err.println("Failed to sync journal " + entry.getKey() + ": " + e.getMessage());
+            }
+            iterator.remove();
+        }
+        unsyncedBytes = 0;
+    }
+
+    private void closeAll() {
+        for (FileChannel channel : channels.values()) {
+            close(channel);
+        }
+        channels.clear();
+    }
+
+    private static void close(FileChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close journal: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes and syncs everything queued so far, then stops the writer thread
+     */
+    @Override
+    public void close() {
+        queue.add(STOP);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
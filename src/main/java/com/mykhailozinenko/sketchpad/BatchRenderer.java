@@ -0,0 +1,152 @@
+package com.mykhailozinenko.sketchpad;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Headless entry point that renders every project file in a directory to PNG.
+ *
+ * Usage: {@code BatchRenderer <projects dir> <output dir> [dpi] [threads]}
+ *
+ * Only the FX-free path is used: files are mapped with {@link MappedOperationLog}
+ * and exported with {@link PngExporter}, so no display or JavaFX toolkit is
+ * needed. Files are handed to a fixed pool of workers through a bounded
+ * queue, so listing a huge directory never queues more than a few files ahead,
+ * and all workers share one {@link ForkJoinPool} sized to the cores for the
+ * strip tiles. Prints the time of each file and the total throughput.
+ */
+public class BatchRenderer {
+
+    private static final double DEFAULT_DPI = 300;
+
+    private final Path outputDirectory;
+    private final double dpi;
+    private final int threads;
+    private final List<Result> results = new ArrayList<>();
+
+    /**
+     * Outcome of rendering one project file
+     */
+    record Result(Path file, long pixels, long nanos, String error) {
+    }
+
+    public BatchRenderer(Path outputDirectory, double dpi, int threads) {
+        this.outputDirectory = outputDirectory;
+        this.dpi = dpi;
+        this.threads = Math.max(1, threads);
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2 || args.length > 4) {
+            System.err.println("Usage: BatchRenderer <projects dir> <output dir> [dpi] [threads]");
+            System.exit(2);
+        }
+        double dpi = DEFAULT_DPI;
+        int threads = Runtime.getRuntime().availableProcessors();
+        try {
+            if (args.length > 2) {
+                dpi = Double.parseDouble(args[2]);
+            }
+            if (args.length > 3) {
+                threads = Integer.parseInt(args[3]);
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid number: " + e.getMessage());
+            System.exit(2);
+        }
+
+        try {
+            BatchRenderer renderer = new BatchRenderer(Paths.get(args[1]), dpi, threads);
+            List<Result> results = renderer.renderAll(Paths.get(args[0]));
+            boolean failed = results.stream().anyMatch(result -> result.error() != null);
+            System.exit(failed ? 1 : 0);
+        } catch (IOException e) {
+            System.err.println("Batch render failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Renders every project file in a directory and prints a report
+     */
+    public List<Result> renderAll(Path projectDirectory) throws IOException {
+        Files.createDirectories(outputDirectory);
+        ForkJoinPool tilePool = new ForkJoinPool(threads);
+        // One strip ahead per worker is enough, the tiles of a strip already use every core
+        PngExporter exporter = new PngExporter(new SoftwareRasterizer(tilePool), 2);
+        // A full queue makes the listing thread render the next file itself
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 2), new ThreadPoolExecutor.CallerRunsPolicy());
+
+        long start = System.nanoTime();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(projectDirectory, "*" + ProjectFile.EXTENSION)) {
+            for (Path file : files) {
+                workers.execute(() -> record(render(exporter, file)));
+            }
+        } finally {
+            workers.shutdown();
+            try {
+                workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                workers.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            tilePool.shutdown();
+        }
+        report(System.nanoTime() - start);
+        return results;
+    }
+
+    private Result render(PngExporter exporter, Path file) {
+        long start = System.nanoTime();
+        String name = file.getFileName().toString();
+        Path target = outputDirectory.resolve(
+                name.substring(0, name.length() - ProjectFile.EXTENSION.length()) + ".png");
+        try (MappedOperationLog log = MappedOperationLog.open(file)) {
+            PaperSize paperSize = ProjectFile.readHeader(file).getPaperSize();
+            exporter.export(new OperationStore(log), paperSize, dpi, target);
+            long pixels = Math.round(paperSize.getWidthInPixels(dpi)) * Math.round(paperSize.getHeightInPixels(dpi));
+            return new Result(file, pixels, System.nanoTime() - start, null);
+        } catch (IOException | RuntimeException e) {
+            return new Result(file, 0, System.nanoTime() - start, e.getMessage());
+        }
+    }
+
+    private void record(Result result) {
+        if (result.error() != null) {
+            System.err.printf(Locale.ROOT, "FAIL %-48s %8.1f ms  %s%n",
+                    result.file().getFileName(), result.nanos() / 1e6, result.error());
+        } else {
+            System.out.printf(Locale.ROOT, "ok   %-48s %8.1f ms  %6.1f MP%n",
+                    result.file().getFileName(), result.nanos() / 1e6, result.pixels() / 1e6);
+        }
+        synchronized (results) {
+            results.add(result);
+        }
+    }
+
+    private void report(long nanos) {
+        int rendered = 0;
+        long pixels = 0;
+        for (Result result : results) {
+            if (result.error() == null) {
+                rendered++;
+                pixels += result.pixels();
+            }
+        }
+        double seconds = nanos / 1e9;
+        System.out.printf(Locale.ROOT, "%d of %d files rendered at %.0f DPI on %d threads in %.2f s: %.2f files/s, %.1f MP/s%n",
+                rendered, results.size(), dpi, threads, seconds,
+                seconds > 0 ? rendered / seconds : 0, seconds > 0 ? pixels / 1e6 / seconds : 0);
+    }
+}
@@ -0,0 +1,72 @@
+package com.mykhailozinenko.sketchpad;
+
+import javafx.scene.paint.Color;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-project table of the brushes (colour and width) operations are drawn with.
+ *
+ * Each distinct brush is interned once and gets a small integer id, so an
+ * operation only stores that id. Two operations drawn with the same brush
+ * have the same id, which lets renderers skip redundant state changes with
+ * an int compare. Ids are assigned in order and never reused.
+ */
+public final class BrushPalette {
+
+    private int[] argb = new int[16];
+    private float[] widths = new float[16];
+    private final List<Color> colors = new ArrayList<>();
+    // Keyed by ARGB in the high and width bits in the low half
+    private final Map<Long, Integer> ids = new HashMap<>();
+
+    /**
+     * Gets the id of a brush, adding it if it is new
+     */
+    public int intern(Color color, double width) {
+        return intern(ProjectFile.toArgb(color), (float) width);
+    }
+
+    /**
+     * Gets the id of a brush given as ARGB and width, adding it if it is new
+     */
+    public int intern(int color, float width) {
+        long key = (long) color << 32 | (Float.floatToIntBits(width) & 0xFFFFFFFFL);
+        Integer id = ids.get(key);
+        if (id == null) {
+            id = colors.size();
+            if (id == argb.length) {
+                argb = Arrays.copyOf(argb, id * 2);
+                widths = Arrays.copyOf(widths, id * 2);
+            }
+            argb[id] = color;
+            widths[id] = width;
+            colors.add(ProjectFile.toColor(color));
+            ids.put(key, id);
+        }
+        return id;
+    }
+
+    public Color color(int brush) {
+        return colors.get(brush);
+    }
+
+    public int argb(int brush) {
+        return argb[brush];
+    }
+
+    public float width(int brush) {
+        return widths[brush];
+    }
+
+    /**
+     * Gets the number of interned brushes
+     */
+    public int size() {
+        return colors.size();
+    }
+}
@@ -1,33 +1,33 @@
 package com.mykhailozinenko.sketchpad;
 
+import javafx.geometry.Bounds;
 import javafx.geometry.Insets;
 import javafx.geometry.Point2D;
-import javafx.scene.canvas.Canvas;
-import javafx.scene.canvas.GraphicsContext;
+import javafx.geometry.Pos;
 import javafx.scene.control.ScrollPane;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.input.ScrollEvent;
 import javafx.scene.layout.Background;
 import javafx.scene.layout.BackgroundFill;
 import javafx.scene.layout.CornerRadii;
-import javafx.scene.layout.Pane;
 import javafx.scene.layout.StackPane;
 import javafx.scene.paint.Color;
-import javafx.scene.transform.Scale;
+
+import java.io.IOException;
+import java.nio.file.Path;
 
 public class CanvasArea extends StackPane {
 
-    private Canvas canvas;
-    private GraphicsContext gc;
+    // The page, drawn on a surface no larger than the scroll pane's viewport
+    private ViewportCanvas viewportCanvas;
+    private int detailLevel = 0;
     private ScrollPane scrollPane;
-    private Pane canvasContainer;
-    private double lastX;
-    private double lastY;
-    private boolean isDrawing = false;
     private Project currentProject;
 
-    // Default brush settings
-    private BrushSettings brushSettings = new BrushSettings(Color.BLACK, 2.0);
+    // Turns pointer input in canvas coordinates into stroke operations
+    private final StrokeInput input;
+    // Frame time, operation count and memory over the top left corner
+    private PerformanceOverlay performanceOverlay;
 
     // Zoom properties
     private double zoomFactor = 1.0;
@@ -37,6 +37,8 @@ public class CanvasArea extends StackPane {
 
     public CanvasArea(Project project) {
         this.currentProject = project;
+        // Default brush settings
+        this.input = new StrokeInput(project, new BrushSettings(Color.BLACK, 2.0), this::drawActiveStroke, true);
         initialize();
     }
 
@@ -45,22 +47,11 @@ public class CanvasArea extends StackPane {
         setPadding(new Insets(0));
         setBackground(new Background(new BackgroundFill(Color.LIGHTGRAY, CornerRadii.EMPTY, Insets.EMPTY)));
 
-        // Create canvas with project's paper size
-        PaperSize paperSize = currentProject.getPaperSize();
-        canvas = new Canvas(paperSize.getWidthInPixels(), paperSize.getHeightInPixels());
-
-        // Create a container for the canvas that we can apply transforms to
-        canvasContainer = new Pane();
-        canvasContainer.getChildren().add(canvas);
-        canvasContainer.setBackground(new Background(new BackgroundFill(Color.WHITE, CornerRadii.EMPTY, Insets.EMPTY)));
-
-        // The container should be exactly the size of the canvas
-        canvasContainer.setPrefSize(canvas.getWidth(), canvas.getHeight());
-        canvasContainer.setMinSize(canvas.getWidth(), canvas.getHeight());
-        canvasContainer.setMaxSize(canvas.getWidth(), canvas.getHeight());
+        // Sized to the page at the current zoom, so the scroll pane scrolls over all of it
+        viewportCanvas = new ViewportCanvas(currentProject);
 
         // Create a scroll pane to handle scrolling
-        scrollPane = new ScrollPane(canvasContainer);
+        scrollPane = new ScrollPane(viewportCanvas);
         scrollPane.setPannable(true); // Allow panning with mouse drag
         scrollPane.setFitToWidth(true);
         scrollPane.setFitToHeight(true);
@@ -68,35 +59,47 @@ public class CanvasArea extends StackPane {
         // Add the scroll pane to this stack pane
         getChildren().add(scrollPane);
 
-        // Get the graphics context for drawing
-        gc = canvas.getGraphicsContext2D();
-
-        // Set default properties
-        gc.setStroke(brushSettings.getColor());
-        gc.setLineWidth(brushSettings.getSize());
-        gc.setLineCap(javafx.scene.shape.StrokeLineCap.ROUND);
+        // Hidden until toggled from the View menu
+        performanceOverlay = new PerformanceOverlay(() -> currentProject);
+        StackPane.setAlignment(performanceOverlay, Pos.TOP_LEFT);
+        StackPane.setMargin(performanceOverlay, new Insets(8));
+        getChildren().add(performanceOverlay);
 
         // Handle mouse/stylus events for drawing
         setupInputHandlers();
+    }
 
-        // Render existing content if any
-        renderProjectContent();
+    /**
+     * Tells the page which part of it the scroll pane shows, which redraws it in the next layout pass
+     */
+    private void updateVisibleArea() {
+        Bounds viewport = scrollPane.getViewportBounds();
+        viewportCanvas.setVisibleArea(scrollPane.getHvalue(), scrollPane.getVvalue(),
+                viewport.getWidth(), viewport.getHeight());
     }
 
     /**
-     * Renders the current project's content to the canvas
+     * Picks the smallest pyramid level that is not magnified at the given zoom,
+     * e.g. the 1/4 level from 25% up to 49%
      */
-    private void renderProjectContent() {
-        if (currentProject != null) {
-            currentProject.getContent().render(canvas);
+    private static int detailLevelFor(double zoom) {
+        int level = 0;
+        while (level < TileCache.LEVELS - 1 && zoom <= 1.0 / (1 << (level + 1)) + 1e-9) {
+            level++;
         }
+        return level;
     }
 
     private void setupInputHandlers() {
-        // Drawing handlers
-        canvas.addEventHandler(MouseEvent.MOUSE_PRESSED, this::handleMousePressed);
-        canvas.addEventHandler(MouseEvent.MOUSE_DRAGGED, this::handleMouseDragged);
-        canvas.addEventHandler(MouseEvent.MOUSE_RELEASED, this::handleMouseReleased);
+        // Drawing handlers; on the page, since its surface only covers the visible part
+        viewportCanvas.addEventHandler(MouseEvent.MOUSE_PRESSED, this::handleMousePressed);
+        viewportCanvas.addEventHandler(MouseEvent.MOUSE_DRAGGED, this::handleMouseDragged);
+        viewportCanvas.addEventHandler(MouseEvent.MOUSE_RELEASED, this::handleMouseReleased);
+
+        // Redraw from the tiles as the page is scrolled or the window resized
+        scrollPane.hvalueProperty().addListener((obs, oldVal, newVal) -> scrolled());
+        scrollPane.vvalueProperty().addListener((obs, oldVal, newVal) -> scrolled());
+        scrollPane.viewportBoundsProperty().addListener((obs, oldVal, newVal) -> updateVisibleArea());
 
         // Zoom handler (works on the scroll pane and propagates to canvas)
         this.addEventHandler(ScrollEvent.SCROLL, event -> {
@@ -107,15 +110,20 @@ public class CanvasArea extends StackPane {
             }
         });
 
-        canvas.addEventHandler(MouseEvent.MOUSE_PRESSED, event -> {
+        viewportCanvas.addEventHandler(MouseEvent.MOUSE_PRESSED, event -> {
             scrollPane.setPannable(false);
         });
 
-        canvas.addEventHandler(MouseEvent.MOUSE_RELEASED, event -> {
+        viewportCanvas.addEventHandler(MouseEvent.MOUSE_RELEASED, event -> {
             scrollPane.setPannable(true);
         });
     }
 
+    private void scrolled() {
+        input.pan(scrollPane.getHvalue(), scrollPane.getVvalue());
+        updateVisibleArea();
+    }
+
     /**
      * Apply zoom at the specified point
      */
@@ -128,32 +136,30 @@ public class CanvasArea extends StackPane {
 
         // If zoom didn't change (at min/max limits), exit
         if (oldZoom == zoomFactor) return;
+        input.setZoomFactor(zoomFactor);
 
         // Calculate scroll position
         double scrollH = scrollPane.getHvalue();
         double scrollV = scrollPane.getVvalue();
 
-        // Apply zoom transform to canvas container
-        Scale scale = new Scale();
-        scale.setX(zoomFactor);
-        scale.setY(zoomFactor);
-
-        // Update the container size to reflect the zoom
-        canvasContainer.setPrefSize(canvas.getWidth() * zoomFactor, canvas.getHeight() * zoomFactor);
-        canvasContainer.getTransforms().setAll(scale);
+        // Resize the page to the zoom; its surface is redrawn from the pyramid level that matches it
+        detailLevel = detailLevelFor(zoomFactor);
+        viewportCanvas.setZoom(zoomFactor, detailLevel);
 
         // Try to maintain the mouse position in the view as we zoom
         Point2D scrollOffset = calculateScrollOffset(mousePoint, oldZoom, zoomFactor);
         scrollPane.setHvalue(scrollH + scrollOffset.getX());
         scrollPane.setVvalue(scrollV + scrollOffset.getY());
+        updateVisibleArea();
     }
 
     /**
      * Helper method to calculate scroll offset when zooming
      */
     private Point2D calculateScrollOffset(Point2D mousePoint, double oldZoom, double newZoom) {
-        double mousePosX = mousePoint.getX() / (canvas.getWidth() * oldZoom);
-        double mousePosY = mousePoint.getY() / (canvas.getHeight() * oldZoom);
+        PaperSize paperSize = currentProject.getPaperSize();
+        double mousePosX = mousePoint.getX() / (paperSize.getWidthInPixels() * oldZoom);
+        double mousePosY = mousePoint.getY() / (paperSize.getHeightInPixels() * oldZoom);
 
         double newX = mousePosX * (newZoom - oldZoom);
         double newY = mousePosY * (newZoom - oldZoom);
@@ -198,84 +204,122 @@ public class CanvasArea extends StackPane {
     private void handleMousePressed(MouseEvent event) {
         // Convert screen coordinates to canvas coordinates (accounting for zoom)
         Point2D canvasPoint = convertToCanvasPoint(event.getX(), event.getY());
-        lastX = canvasPoint.getX();
-        lastY = canvasPoint.getY();
+        input.press(canvasPoint.getX(), canvasPoint.getY());
+    }
 
-        isDrawing = true;
+    private void handleMouseDragged(MouseEvent event) {
+        Point2D canvasPoint = convertToCanvasPoint(event.getX(), event.getY());
+        input.drag(canvasPoint.getX(), canvasPoint.getY());
+    }
 
-        // Store initial point as a dot operation
-        DrawOperation.DotOperation dotOp = new DrawOperation.DotOperation(
-                lastX, lastY,
-                brushSettings.getColor(),
-                brushSettings.getSize()
-        );
+    /**
+     * Draws the gesture in progress from the given point on, over the visible part of the page
+     */
+    private void drawActiveStroke(DrawOperation.PolylineStrokeOperation activeStroke, int firstPoint) {
+        viewportCanvas.paintStroke(activeStroke, firstPoint);
+    }
 
-        // Add to project content
-        currentProject.addDrawOperation(dotOp);
+    /**
+     * Converts mouse coordinates on the zoomed page to canvas coordinates
+     */
+    private Point2D convertToCanvasPoint(double x, double y) {
+        return new Point2D(viewportCanvas.toPageX(x), viewportCanvas.toPageY(y));
+    }
 
-        // Draw immediately on canvas
-        dotOp.draw(gc);
+    private void handleMouseReleased(MouseEvent event) {
+        input.release();
     }
 
-    private void handleMouseDragged(MouseEvent event) {
-        if (!isDrawing) return;
+    public void clear() {
+        // Abandon any gesture in progress and clear the project content
+        input.clear();
 
-        // Convert screen coordinates to canvas coordinates (accounting for zoom)
-        Point2D canvasPoint = convertToCanvasPoint(event.getX(), event.getY());
-        double currentX = canvasPoint.getX();
-        double currentY = canvasPoint.getY();
-
-        // Create a stroke operation
-        DrawOperation.StrokeOperation strokeOp = new DrawOperation.StrokeOperation(
-                lastX, lastY,
-                currentX, currentY,
-                brushSettings.getColor(),
-                brushSettings.getSize()
-        );
-
-        // Add to project content
-        currentProject.addDrawOperation(strokeOp);
-
-        // Draw immediately on canvas
-        strokeOp.draw(gc);
-
-        // Update last position
-        lastX = currentX;
-        lastY = currentY;
+        // Show the now blank page
+        viewportCanvas.requestRedraw();
     }
 
     /**
-     * Converts mouse coordinates to canvas coordinates
+     * Undoes the last gesture and shows the restored tiles
      */
-    private Point2D convertToCanvasPoint(double screenX, double screenY) {
-        // First convert to container coordinates
-        Point2D containerPoint = canvas.sceneToLocal(
-                canvasContainer.localToScene(screenX, screenY));
-
-        // Return adjusted for zoom
-        return new Point2D(
-                containerPoint.getX(),
-                containerPoint.getY());
+    public void undo() {
+        if (input.undo()) {
+            viewportCanvas.requestRedraw();
+        }
     }
 
-    private void handleMouseReleased(MouseEvent event) {
-        isDrawing = false;
+    /**
+     * Redoes the last undone gesture and shows the restored tiles
+     */
+    public void redo() {
+        if (input.redo()) {
+            viewportCanvas.requestRedraw();
+        }
     }
 
-    public void clear() {
-        // Clear the project content
-        currentProject.clearContent();
+    /**
+     * Gets the scheduler that paces drawing to frames, e.g. to read its counters
+     */
+    public FrameScheduler getFrameScheduler() {
+        return input.getFrameScheduler();
+    }
 
-        // Clear the canvas visually
-        gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
-        gc.setFill(Color.WHITE);
-        gc.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
+    /**
+     * Starts recording the input of this canvas to a session file, see {@link InputReplayer}
+     */
+    public void startRecording(Path file) throws IOException {
+        stopRecording();
+        input.setRecorder(new InputRecorder(file, currentProject.getPaperSize()));
+    }
+
+    /**
+     * Stops recording and closes the session file, if recording
+     */
+    public void stopRecording() throws IOException {
+        InputRecorder recorder = input.getRecorder();
+        if (recorder != null) {
+            input.setRecorder(null);
+            recorder.close();
+        }
+    }
+
+    public boolean isRecording() {
+        return input.getRecorder() != null;
+    }
+
+    /**
+     * Shows or hides the performance overlay
+     */
+    public void setPerformanceOverlayVisible(boolean visible) {
+        performanceOverlay.setVisible(visible);
+    }
+
+    public boolean isPerformanceOverlayVisible() {
+        return performanceOverlay.isVisible();
+    }
+
+    /**
+     * Gets the input simplifier, e.g. to adjust its distance and tolerance
+     */
+    public StrokeSimplifier getStrokeSimplifier() {
+        return input.getStrokeSimplifier();
     }
 
     public void setBrushSettings(BrushSettings settings) {
-        this.brushSettings = settings;
-        gc.setStroke(settings.getColor());
-        gc.setLineWidth(settings.getSize());
+        input.setBrushSettings(settings);
+    }
+
+    /**
+     * Changes the brush colour in place, without allocating new settings
+     */
+    public void setBrushColor(Color color) {
+        input.setBrushColor(color);
+    }
+
+    /**
+     * Changes the brush size in place, e.g. on every slider move
+     */
+    public void setBrushSize(double size) {
+        input.setBrushSize(size);
     }
 
     /**
@@ -283,16 +327,9 @@ public class CanvasArea extends StackPane {
      */
     public void setProject(Project project) {
         this.currentProject = project;
+        input.setProject(project);
 
-        // Update canvas size to match the project's paper size
-        PaperSize paperSize = project.getPaperSize();
-        canvas.setWidth(paperSize.getWidthInPixels());
-        canvas.setHeight(paperSize.getHeightInPixels());
-
-        // Update the container size
-        canvasContainer.setPrefSize(canvas.getWidth() * zoomFactor, canvas.getHeight() * zoomFactor);
-
-        // Render the project content
-        renderProjectContent();
+        // Resize the page to the project's paper size and redraw it
+        viewportCanvas.setProject(project);
     }
 }
\ No newline at end of file
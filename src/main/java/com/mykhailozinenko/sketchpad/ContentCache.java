@@ -0,0 +1,280 @@
+package com.mykhailozinenko.sketchpad;
+
+import javafx.application.Platform;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Keeps project content resident under a memory budget.
+ *
+ * Content is loaded from the project file on first access and tracked in
+ * least-recently-used order. When the resident total exceeds the budget,
+ * the least recently used projects are picked under the lock. Content
+ * belongs to the FX thread, so that is where the unsaved changes of each
+ * are encoded; only the file write runs on the {@link AutosaveJournal}
+ * writer thread, so no caller waits for file I/O. Back on the FX thread,
+ * each saved project is compacted in memory with the packed encoding of
+ * {@link PointCodec}, dropping its tiles and undo history, and unloaded if
+ * that is not enough. The current project and content with a gesture in
+ * progress are never evicted, and content changed after its save is kept.
+ * Methods are synchronized, since projects are registered from any thread.
+ */
+public class ContentCache {
+
+    public static final long DEFAULT_MEMORY_BUDGET = 256L * 1024 * 1024;
+
+    private final ProjectManager projectManager;
+    // Access-ordered, so iteration starts at the least recently used project
+    private final Map<Project, Boolean> resident = new LinkedHashMap<>(16, 0.75f, true);
+    // Projects picked for eviction, until they are released
+    private final Set<Project> evicting = new HashSet<>();
+    // Saves being written for eviction
+    private final Map<Project, Save> saving = new HashMap<>();
+    private long memoryBudget;
+
+    /**
+     * A snapshot of a project's unsaved changes and its pending write
+     */
+    private record Save(ProjectFile.SaveSnapshot snapshot, CompletableFuture<Long> written) {
+    }
+
+    public ContentCache(ProjectManager projectManager, long memoryBudget) {
+        this.projectManager = projectManager;
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Loads a project's content from its file and makes it resident
+     */
+    ProjectContent load(Project project) throws IOException {
+        ProjectContent content = ProjectFile.loadContent(
+                projectManager.getProjectFile(project), project.getPaperSize());
+        List<Project> victims;
+        synchronized (this) {
+            resident.put(project, Boolean.TRUE);
+            victims = selectVictims(project);
+        }
+        evict(victims);
+        return content;
+    }
+
+    /**
+     * Registers a project whose content is resident and marks it as most recently used
+     */
+    public void touch(Project project) {
+        if (!project.isContentLoaded()) {
+            return;
+        }
+        List<Project> victims;
+        synchronized (this) {
+            resident.put(project, Boolean.TRUE);
+            victims = selectVictims(project);
+        }
+        evict(victims);
+    }
+
+    /**
+     * Stops tracking a project, e.g. after it was deleted
+     */
+    public synchronized void remove(Project project) {
+        resident.remove(project);
+    }
+
+    /**
+     * Picks least recently used content to evict until the budget would be met
+     *
+     * @param keep project that must stay resident, e.g. the one being loaded
+     */
+    private List<Project> selectVictims(Project keep) {
+        List<Project> victims = new ArrayList<>();
+        long total = getResidentBytes();
+        Iterator<Project> iterator = resident.keySet().iterator();
+
+        while (total > memoryBudget && iterator.hasNext()) {
+            Project project = iterator.next();
+            if (project == keep || project == projectManager.getCurrentProject() || evicting.contains(project)) {
+                continue;
+            }
+            if (!project.isContentLoaded()) {
+                iterator.remove();
+                continue;
+            }
+            if (project.getContent().hasOpenOperation()) {
+                continue;
+            }
+            evicting.add(project);
+            victims.add(project);
+            total -= project.estimateMemoryBytes();
+        }
+        return victims;
+    }
+
+    /**
+     * Saves and releases each victim on the FX thread, writing its file on the journal writer thread
+     */
+    private void evict(List<Project> victims) {
+        for (Project project : victims) {
+            runOnFxThread(() -> save(project));
+        }
+    }
+
+    /**
+     * Encodes a victim's unsaved changes and queues their write, releasing
+     * the content once it is written
+     */
+    private void save(Project project) {
+        if (!isEvictable(project)) {
+            synchronized (this) {
+                evicting.remove(project);
+            }
+            return;
+        }
+        if (project.getContent().isSaved()) {
+            release(project);
+            return;
+        }
+        ProjectFile.SaveSnapshot snapshot = ProjectFile.snapshot(project);
+        Save save = new Save(snapshot, projectManager.getAutosaveJournal()
+                .write(snapshot, projectManager.getProjectFile(project)));
+        synchronized (this) {
+            saving.put(project, save);
+        }
+        save.written().whenComplete((length, failure) -> runOnFxThread(() -> {
+            if (complete(project, save)) {
+                release(project);
+            } else {
+                synchronized (this) {
+                    evicting.remove(project);
+                }
+            }
+        }));
+    }
+
+    /**
+     * Waits for a save still being written for eviction and records it, so
+     * a save that follows starts from it. Must be called on the thread that
+     * owns the content.
+     */
+    void awaitSave(Project project) {
+        Save save;
+        synchronized (this) {
+            save = saving.get(project);
+        }
+        if (save != null) {
+            complete(project, save);
+        }
+    }
+
+    /**
+     * Records an eviction's save once written. Returns false if the write
+     * failed or the save was recorded already.
+     */
+    private boolean complete(Project project, Save save) {
+        synchronized (this) {
+            if (saving.get(project) != save) {
+                return false;
+            }
+            saving.remove(project);
+        }
+        try {
+            projectManager.completeSave(project, save.snapshot(), save.written().join());
+            return true;
+        } catch (CompletionException | CancellationException e) {
+            System.err.println("Failed to save " + project.getName() + " for eviction: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Compacts saved content, and unloads it if the cache is still over budget
+     */
+    private void release(Project project) {
+        try {
+            // The project may have been opened, changed or deleted since it was picked
+            if (!isEvictable(project) || !project.getContent().isSaved()) {
+                return;
+            }
+            long total = getResidentBytes();
+            long before = project.estimateMemoryBytes();
+            if (project.compactContent()) {
+                total -= before - project.estimateMemoryBytes();
+            }
+            if (total > getMemoryBudget()) {
+                project.unloadContent();
+                remove(project);
+            }
+        } finally {
+            synchronized (this) {
+                evicting.remove(project);
+            }
+        }
+    }
+
+    private boolean isEvictable(Project project) {
+        return project != projectManager.getCurrentProject() && project.isContentLoaded()
+                && !project.getContent().hasOpenOperation()
+                && projectManager.getProject(project.getId()).isPresent();
+    }
+
+    /**
+     * Runs a task on the FX thread, which owns project content. Runs it
+     * directly if already there, or if there is no FX toolkit, e.g. in a
+     * headless tool.
+     */
+    private static void runOnFxThread(Runnable task) {
+        if (Platform.isFxApplicationThread()) {
+            task.run();
+            return;
+        }
+        try {
+            Platform.runLater(task);
+        } catch (IllegalStateException e) {
+            task.run();
+        }
+    }
+
+    /**
+     * Gets the memory held by all resident content, in bytes
+     */
+    public synchronized long getResidentBytes() {
+        long total = 0;
+        for (Project project : resident.keySet()) {
+            total += project.estimateMemoryBytes();
+        }
+        return total;
+    }
+
+    /**
+     * Gets the number of projects whose content is resident
+     */
+    public synchronized int getResidentCount() {
+        return resident.size();
+    }
+
+    public synchronized long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Sets the memory budget in bytes, evicting content if needed
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        List<Project> victims;
+        synchronized (this) {
+            this.memoryBudget = memoryBudget;
+            victims = selectVictims(null);
+        }
+        evict(victims);
+    }
+}
@@ -2,6 +2,10 @@ package com.mykhailozinenko.sketchpad;
 
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.paint.Color;
+import javafx.scene.shape.StrokeLineCap;
+import javafx.scene.shape.StrokeLineJoin;
+
+import java.util.Arrays;
 
 /**
  * Represents a drawing operation that can be replayed on a canvas.
@@ -14,6 +18,11 @@ public abstract class DrawOperation {
      */
     public abstract void draw(GraphicsContext gc);
 
+    /**
+     * Appends this operation to columnar storage
+     */
+    abstract void appendTo(OperationStore store);
+
     /**
      * Represents a line stroke drawing operation (like pencil/brush)
      */
@@ -55,6 +64,11 @@ public abstract class DrawOperation {
             gc.setStroke(oldStroke);
             gc.setLineWidth(oldLineWidth);
         }
+
+        @Override
+        void appendTo(OperationStore store) {
+            store.addStroke(startX, startY, endX, endY, color, size);
+        }
     }
 
     /**
@@ -87,6 +101,132 @@ public abstract class DrawOperation {
             // Restore previous state
             gc.setFill(oldFill);
         }
+
+        @Override
+        void appendTo(OperationStore store) {
+            store.addDot(x, y, color, size);
+        }
+    }
+
+    /**
+     * Represents a whole press-drag-release gesture drawn as a single path.
+     * Points are added while the pointer is down and the operation is
+     * sealed once the gesture ends.
+     */
+    public static class PolylineStrokeOperation extends DrawOperation {
+        private double[] points = new double[32];
+        private int pointCount;
+        private Color color;
+        private double size;
+        private boolean sealed;
+
+        public PolylineStrokeOperation(double x, double y, Color color, double size) {
+            this.color = color;
+            this.size = size;
+            addPoint(x, y);
+        }
+
+        /**
+         * Extends the polyline to the given point
+         */
+        public void lineTo(double x, double y) {
+            if (sealed) {
+                throw new IllegalStateException("Polyline is already sealed");
+            }
+            addPoint(x, y);
+        }
+
+        private void addPoint(double x, double y) {
+            if (pointCount * 2 == points.length) {
+                points = Arrays.copyOf(points, points.length * 2);
+            }
+            points[pointCount * 2] = x;
+            points[pointCount * 2 + 1] = y;
+            pointCount++;
+        }
+
+        /**
+         * Replaces the points with those of a stored operation, e.g. after it was simplified
+         */
+        void setPoints(OperationStore store, int op) {
+            float[] stored = store.points(op, new float[store.pointCount(op) * 2]);
+            pointCount = 0;
+            for (int p = 0; p < store.pointCount(op); p++) {
+                addPoint(stored[p * 2], stored[p * 2 + 1]);
+            }
+        }
+
+        /**
+         * Seals the polyline so no more points can be added
+         */
+        public void seal() {
+            sealed = true;
+        }
+
+        public boolean isSealed() {
+            return sealed;
+        }
+
+        public int getPointCount() {
+            return pointCount;
+        }
+
+        @Override
+        public void draw(GraphicsContext gc) {
+            drawFrom(gc, 0);
+        }
+
+        /**
+         * Draws only the most recently added segment, used while the gesture is in progress
+         */
+        public void drawLastSegment(GraphicsContext gc) {
+            drawFrom(gc, pointCount - 2);
+        }
+
+        /**
+         * Draws the segments from the given point to the last one as a single path,
+         * e.g. all points added during one frame
+         */
+        public void drawFrom(GraphicsContext gc, int firstPoint) {
+            if (pointCount == 1) {
+                drawDot(gc);
+                return;
+            }
+            int first = Math.max(0, Math.min(firstPoint, pointCount - 2));
+
+            gc.save();
+            gc.setStroke(color);
+            gc.setLineWidth(size);
+            gc.setLineCap(StrokeLineCap.ROUND);
+            gc.setLineJoin(StrokeLineJoin.ROUND);
+
+            gc.beginPath();
+            gc.moveTo(points[first * 2], points[first * 2 + 1]);
+            for (int i = first + 1; i < pointCount; i++) {
+                gc.lineTo(points[i * 2], points[i * 2 + 1]);
+            }
+            gc.stroke();
+
+            gc.restore();
+        }
+
+        private void drawDot(GraphicsContext gc) {
+            Color oldFill = (Color) gc.getFill();
+            gc.setFill(color);
+            gc.fillOval(points[0] - size/2, points[1] - size/2, size, size);
+            gc.setFill(oldFill);
+        }
+
+        @Override
+        void appendTo(OperationStore store) {
+            store.beginPolyline(points[0], points[1], color, size);
+            for (int i = 1; i < pointCount; i++) {
+                store.extendPolyline(points[i * 2], points[i * 2 + 1]);
+            }
+            if (sealed) {
+                store.sealPolyline();
+            }
+        }
     }
 
     /**
@@ -0,0 +1,231 @@
+package com.mykhailozinenko.sketchpad;
+
+import javafx.animation.AnimationTimer;
+
+import java.util.Arrays;
+
+/**
+ * Paces drawing to the JavaFX pulse.
+ *
+ * Pointer handlers only queue canvas points here. Once per frame the timer
+ * hands everything queued since the previous pulse to a sink in one call,
+ * which also lets the sink draw anything else that became pending,
+ * so a burst of events from a high-rate device is drawn as one path instead
+ * of one draw per event. The timer only runs while a gesture is in
+ * progress; a manual scheduler has no timer and is pulsed by its owner
+ * through {@link #handle}, e.g. to replay input without the JavaFX toolkit.
+ * Counters report how many events arrive per frame and how deep the queue
+ * gets; input-to-paint latency of every drag and the time between frames go
+ * to the {@link PerformanceMonitor} and to Flight Recorder.
+ */
+public class FrameScheduler {
+
+    /**
+     * Receives the points queued during one frame as x, y pairs; count may be zero
+     */
+    @FunctionalInterface
+    public interface Sink {
+        void frame(double[] points, int count);
+    }
+
+    private final Sink sink;
+    // Calls handle on every pulse, or null if the owner pulses
+    private final AnimationTimer timer;
+    private boolean running;
+    private double[] queue = new double[64];
+    private int queued;
+    // Arrival times of the drags not yet drawn
+    private long[] dragTimes = new long[64];
+    private int drags;
+    private long lastPulseNanos;
+
+    private int eventsThisFrame;
+    private int lastEventsPerFrame;
+    private int maxEventsPerFrame;
+    private int maxQueueDepth;
+    private long frames;
+    private long events;
+
+    /**
+     * Creates a scheduler paced by the JavaFX pulse
+     */
+    public FrameScheduler(Sink sink) {
+        this(sink, true);
+    }
+
+    private FrameScheduler(Sink sink, boolean paced) {
+        this.sink = sink;
+        this.timer = paced ? new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                FrameScheduler.this.handle(now);
+            }
+        } : null;
+    }
+
+    /**
+     * Creates a scheduler without a timer, whose owner calls {@link #handle} once per frame
+     */
+    public static FrameScheduler manual(Sink sink) {
+        return new FrameScheduler(sink, false);
+    }
+
+    /**
+     * Starts pulsing, e.g. when a gesture begins
+     */
+    public void start() {
+        running = true;
+        if (timer != null) {
+            timer.start();
+        }
+    }
+
+    /**
+     * Counts a pointer event, whether or not it queued a point
+     */
+    public void countEvent() {
+        eventsThisFrame++;
+        events++;
+    }
+
+    /**
+     * Counts a drag event, whose latency is measured once the next frame is drawn
+     */
+    public void countDrag() {
+        countEvent();
+        if (drags == dragTimes.length) {
+            dragTimes = Arrays.copyOf(dragTimes, drags * 2);
+        }
+        dragTimes[drags++] = System.nanoTime();
+    }
+
+    /**
+     * Queues a point to be drawn on the next pulse
+     */
+    public void queue(double x, double y) {
+        if (queued * 2 == queue.length) {
+            queue = Arrays.copyOf(queue, queue.length * 2);
+        }
+        queue[queued * 2] = x;
+        queue[queued * 2 + 1] = y;
+        queued++;
+        maxQueueDepth = Math.max(maxQueueDepth, queued);
+    }
+
+    /**
+     * Ends a frame at the given time in nanoseconds and draws what it queued
+     */
+    public void handle(long now) {
+        if (lastPulseNanos != 0) {
+            PerformanceMonitor.getInstance().recordFrame(now - lastPulseNanos);
+        }
+        lastPulseNanos = now;
+        frames++;
+        lastEventsPerFrame = eventsThisFrame;
+        maxEventsPerFrame = Math.max(maxEventsPerFrame, eventsThisFrame);
+        eventsThisFrame = 0;
+        flush();
+    }
+
+    /**
+     * Hands the queued points to the sink right away, e.g. before a gesture ends
+     */
+    public void flush() {
+        int count = queued;
+        queued = 0;
+        sink.frame(queue, count);
+        recordLatencies();
+    }
+
+    /**
+     * Records how long each drag drawn by this frame waited for it
+     */
+    private void recordLatencies() {
+        if (drags == 0) {
+            return;
+        }
+        long drawn = System.nanoTime();
+        PerformanceMonitor monitor = PerformanceMonitor.getInstance();
+        for (int i = 0; i < drags; i++) {
+            long latency = drawn - dragTimes[i];
+            monitor.recordInputLatency(latency);
+            PerformanceEvents.InputLatencyEvent event = new PerformanceEvents.InputLatencyEvent();
+            if (event.shouldCommit()) {
+                event.latency = latency;
+                event.eventsInFrame = drags;
+                event.commit();
+            }
+        }
+        drags = 0;
+    }
+
+    /**
+     * Drops the queued points and stops the timer, e.g. when a gesture is abandoned
+     */
+    public void cancel() {
+        queued = 0;
+        drags = 0;
+        eventsThisFrame = 0;
+        stop();
+    }
+
+    /**
+     * Stops pulsing, e.g. once a gesture has ended
+     */
+    public void stop() {
+        running = false;
+        if (timer != null) {
+            timer.stop();
+        }
+        // The gap until the next gesture is not a frame time
+        lastPulseNanos = 0;
+    }
+
+    /**
+     * Returns true between start and stop
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Gets the number of points waiting for the next pulse
+     */
+    public int getQueueDepth() {
+        return queued;
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    /**
+     * Gets the number of pointer events that arrived during the last frame
+     */
+    public int getLastEventsPerFrame() {
+        return lastEventsPerFrame;
+    }
+
+    public int getMaxEventsPerFrame() {
+        return maxEventsPerFrame;
+    }
+
+    /**
+     * Gets the average number of pointer events per frame while drawing
+     */
+    public double getAverageEventsPerFrame() {
+        return frames == 0 ? 0 : (double) events / frames;
+    }
+
+    public long getFrameCount() {
+        return frames;
+    }
+
+    public void resetCounters() {
+        lastEventsPerFrame = 0;
+        maxEventsPerFrame = 0;
+        maxQueueDepth = 0;
+        frames = 0;
+        events = 0;
+    }
+}
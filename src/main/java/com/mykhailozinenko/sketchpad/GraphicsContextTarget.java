@@ -0,0 +1,57 @@
+package com.mykhailozinenko.sketchpad;
+
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+/**
+ * Render target that draws onto a canvas graphics context. Line caps and
+ * joins are expected to be set to round by the caller.
+ */
+public final class GraphicsContextTarget implements RenderTarget {
+
+    private final GraphicsContext gc;
+
+    public GraphicsContextTarget(GraphicsContext gc) {
+        this.gc = gc;
+    }
+
+    @Override
+    public void setBrush(Color color, double width) {
+        gc.setFill(color);
+        gc.setStroke(color);
+        gc.setLineWidth(width);
+    }
+
+    @Override
+    public void beginPath() {
+        gc.beginPath();
+    }
+
+    @Override
+    public void moveTo(double x, double y) {
+        gc.moveTo(x, y);
+    }
+
+    @Override
+    public void lineTo(double x, double y) {
+        gc.lineTo(x, y);
+    }
+
+    @Override
+    public void circle(double centerX, double centerY, double radius) {
+        // Start a new subpath on the circle so no connecting line is added
+        gc.moveTo(centerX + radius, centerY);
+        gc.arc(centerX, centerY, radius, radius, 0, 360);
+        gc.closePath();
+    }
+
+    @Override
+    public void stroke() {
+        gc.stroke();
+    }
+
+    @Override
+    public void fill() {
+        gc.fill();
+    }
+}
@@ -0,0 +1,173 @@
+package com.mykhailozinenko.sketchpad;
+
+import javafx.scene.paint.Color;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Records the input of a drawing session to a compact file that
+ * {@link InputReplayer} can feed back through {@link StrokeInput}.
+ *
+ * The file starts with a header holding the paper size, followed by one
+ * record per input: a type byte, the time since the previous record in
+ * microseconds as a varint, then the payload. Pointer positions are in
+ * canvas coordinates, quantized like stored points and written as zig-zag
+ * varint deltas from the previous position, so a drag usually takes 3 to 5
+ * bytes. Records are collected in a buffer and written in blocks of
+ * {@value #BUFFER_SIZE} bytes.
+ */
+public class InputRecorder implements AutoCloseable {
+
+    public static final String EXTENSION = ".sksession";
+
+    static final int MAGIC = 0x49504B53; // "SKPI"
+    static final int VERSION = 1;
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    static final byte PRESS = 1;
+    static final byte DRAG = 2;
+    static final byte RELEASE = 3;
+    static final byte BRUSH_COLOR = 4;
+    static final byte BRUSH_SIZE = 5;
+    static final byte ZOOM = 6;
+    static final byte PAN = 7;
+    static final byte CLEAR = 8;
+    static final byte UNDO = 9;
+    static final byte REDO = 10;
+
+    // Largest record: type, time, and two varint deltas
+    private static final int MAX_RECORD_SIZE = 1 + 5 + 10;
+
+    private final OutputStream output;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private long lastNanos;
+    private int lastX;
+    private int lastY;
+    private long recordCount;
+    private IOException failure;
+
+    /**
+     * Starts recording a session on a page of the given size
+     */
+    public InputRecorder(Path file, PaperSize paperSize) throws IOException {
+        this.output = Files.newOutputStream(file);
+        byte[] name = paperSize.name().getBytes(StandardCharsets.US_ASCII);
+        buffer.putInt(MAGIC).putInt(VERSION).put((byte) name.length).put(name);
+        lastNanos = System.nanoTime();
+    }
+
+    public void press(double x, double y) {
+        point(PRESS, x, y);
+    }
+
+    public void drag(double x, double y) {
+        point(DRAG, x, y);
+    }
+
+    public void release() {
+        begin(RELEASE);
+    }
+
+    public void brushColor(Color color) {
+        begin(BRUSH_COLOR);
+        buffer.putInt(ProjectFile.toArgb(color));
+    }
+
+    public void brushSize(double size) {
+        begin(BRUSH_SIZE);
+        buffer.putFloat((float) size);
+    }
+
+    public void zoom(double zoomFactor) {
+        begin(ZOOM);
+        buffer.putFloat((float) zoomFactor);
+    }
+
+    public void pan(double hvalue, double vvalue) {
+        begin(PAN);
+        buffer.putFloat((float) hvalue).putFloat((float) vvalue);
+    }
+
+    public void clear() {
+        begin(CLEAR);
+    }
+
+    public void undo() {
+        begin(UNDO);
+    }
+
+    public void redo() {
+        begin(REDO);
+    }
+
+    private void point(byte type, double x, double y) {
+        begin(type);
+        int qx = (int) Math.round(x * PointCodec.SCALE);
+        int qy = (int) Math.round(y * PointCodec.SCALE);
+        PointCodec.putVarint(buffer, PointCodec.zigZag(qx - lastX));
+        PointCodec.putVarint(buffer, PointCodec.zigZag(qy - lastY));
+        lastX = qx;
+        lastY = qy;
+    }
+
+    /**
+     * Starts a record, first writing out the buffer if the record might not fit
+     */
+    private void begin(byte type) {
+        if (buffer.remaining() < MAX_RECORD_SIZE) {
+            writeBuffer();
+        }
+        long now = System.nanoTime();
+        // Pauses beyond about half an hour are shortened
+        long micros = Math.min((now - lastNanos) / 1000, Integer.MAX_VALUE);
+        lastNanos = now;
+        buffer.put(type);
+        PointCodec.putVarint(buffer, (int) micros);
+        recordCount++;
+    }
+
+    private void writeBuffer() {
+        if (failure == null) {
+            try {
+                output.write(buffer.array(), 0, buffer.position());
+            } catch (IOException e) {
+                // Reported once on close, the session goes on without recording
+                failure = e;
+            }
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Gets the number of inputs recorded so far
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Writes what is buffered and closes the file
+     *
+     * @throws IOException if any part of the session could not be written
+     */
+    @Override
+    public void close() throws IOException {
+        writeBuffer();
+        try {
+            output.close();
+        } catch (IOException e) {
+            if (failure == null) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.mykhailozinenko.sketchpad;
+
+import javafx.scene.paint.Color;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Headless entry point that feeds a session recorded by {@link InputRecorder}
+ * back through {@link StrokeInput} and reports what it cost, so recorded
+ * drawing sessions can serve as repeatable regression benchmarks.
+ *
+ * Usage: {@code InputReplayer <session file> [runs] [--realtime]}
+ *
+ * Each run replays into a fresh in-memory project; nothing is saved. Frames
+ * are pulsed at 60 Hz of the session's own clock rather than the wall
+ * clock, so every run batches the same points per frame and produces the
+ * same operations. By default inputs are handled as fast as possible; with
+ * {@code --realtime} each waits for its original time. No JavaFX toolkit is
+ * needed: the gesture in progress is not painted, and the result is
+ * rendered once at the end with {@link SoftwareRasterizer}.
+ */
+public class InputReplayer {
+
+    // 60 Hz, as the JavaFX pulse
+    static final long FRAME_NANOS = 1_000_000_000L / 60;
+
+    /**
+     * A recorded session: the paper size and the records that follow the header
+     */
+    record Session(PaperSize paperSize, ByteBuffer records) {
+    }
+
+    /**
+     * Cost of one replay
+     *
+     * @param inputNanos time spent handling inputs and frames, without waiting
+     * @param inputBytes bytes allocated while handling inputs and frames
+     * @param renderBytes bytes allocated by all threads while rendering the result
+     */
+    record Result(long inputs, long frames, int operations, int points, long sessionNanos,
+                  long inputNanos, LatencyHistogram frameTimes, long inputBytes,
+                  long renderNanos, long renderBytes) {
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 3) {
+            System.err.println("Usage: InputReplayer <session file> [runs] [--realtime]");
+            System.exit(2);
+        }
+        int runs = 1;
+        boolean realtime = false;
+        try {
+            for (int i = 1; i < args.length; i++) {
+                if (args[i].equals("--realtime")) {
+                    realtime = true;
+                } else {
+                    runs = Integer.parseInt(args[i]);
+                }
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid number: " + e.getMessage());
+            System.exit(2);
+        }
+
+        try {
+            Session session = read(Paths.get(args[0]));
+            for (int run = 1; run <= runs; run++) {
+                print(run, replay(session, realtime));
+            }
+        } catch (IOException e) {
+            System.err.println("Replay failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Reads a session file
+     *
+     * @throws IOException if the file cannot be read or is not a session
+     */
+    public static Session read(Path file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (buffer.getInt() != InputRecorder.MAGIC) {
+                throw new IOException("Not a session file: " + file);
+            }
+            int version = buffer.getInt();
+            if (version != InputRecorder.VERSION) {
+                throw new IOException("Unsupported session version " + version + ": " + file);
+            }
+            byte[] name = new byte[buffer.get()];
+            buffer.get(name);
+            PaperSize paperSize = PaperSize.valueOf(new String(name, StandardCharsets.US_ASCII));
+            return new Session(paperSize, buffer.slice().order(ByteOrder.LITTLE_ENDIAN));
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Corrupt session header: " + file);
+        }
+    }
+
+    /**
+     * Replays a session into a new project and renders the result
+     *
+     * @param realtime true to wait for each input's original time
+     */
+    public static Result replay(Session session, boolean realtime) {
+        Project project = new Project("Replay", session.paperSize());
+        StrokeInput input = new StrokeInput(project, new BrushSettings(Color.BLACK, 2.0), (stroke, first) -> {
+        }, false);
+        FrameScheduler frames = input.getFrameScheduler();
+        LatencyHistogram frameTimes = new LatencyHistogram();
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        ByteBuffer records = session.records().duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        long inputs = 0;
+        long pulses = 0;
+        long sessionNanos = 0;
+        long nextPulse = FRAME_NANOS;
+        long busyNanos = 0;
+        int x = 0;
+        int y = 0;
+
+        long startBytes = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        try {
+            while (records.hasRemaining()) {
+                byte type = records.get();
+                sessionNanos += PointCodec.getVarint(records) * 1000L;
+
+                // Pulse every frame that ended before this input
+                for (; nextPulse <= sessionNanos; nextPulse += FRAME_NANOS) {
+                    if (!frames.isRunning()) {
+                        continue;
+                    }
+                    if (realtime) {
+                        waitUntil(start + nextPulse);
+                    }
+                    long pulseStart = System.nanoTime();
+                    frames.handle(nextPulse);
+                    long pulseNanos = System.nanoTime() - pulseStart;
+                    frameTimes.record(pulseNanos);
+                    busyNanos += pulseNanos;
+                    pulses++;
+                }
+                if (realtime) {
+                    waitUntil(start + sessionNanos);
+                }
+
+                long inputStart = System.nanoTime();
+                switch (type) {
+                    case InputRecorder.PRESS, InputRecorder.DRAG -> {
+                        x += PointCodec.unZigZag(PointCodec.getVarint(records));
+                        y += PointCodec.unZigZag(PointCodec.getVarint(records));
+                        double canvasX = x / (double) PointCodec.SCALE;
+                        double canvasY = y / (double) PointCodec.SCALE;
+                        if (type == InputRecorder.PRESS) {
+                            input.press(canvasX, canvasY);
+                        } else {
+                            input.drag(canvasX, canvasY);
+                        }
+                    }
+                    case InputRecorder.RELEASE -> input.release();
+                    case InputRecorder.BRUSH_COLOR -> input.setBrushColor(ProjectFile.toColor(records.getInt()));
+                    case InputRecorder.BRUSH_SIZE -> input.setBrushSize(records.getFloat());
+                    case InputRecorder.ZOOM -> input.setZoomFactor(records.getFloat());
+                    // There is no view to scroll
+                    case InputRecorder.PAN -> records.position(records.position() + 8);
+                    case InputRecorder.CLEAR -> input.clear();
+                    case InputRecorder.UNDO -> input.undo();
+                    case InputRecorder.REDO -> input.redo();
+                    default -> throw new IllegalStateException("Unknown record type " + type);
+                }
+                busyNanos += System.nanoTime() - inputStart;
+                inputs++;
+            }
+        } catch (BufferUnderflowException | IllegalStateException e) {
+            // Cut short, e.g. when the app was killed while recording
+            System.err.println("Session ends early after " + inputs + " inputs: " + e.getMessage());
+        }
+        // A gesture still in progress ends where the recording stopped
+        input.release();
+        long inputBytes = threads.getCurrentThreadAllocatedBytes() - startBytes;
+
+        OperationStore operations = project.getContent().getOperations();
+        PaperSize paperSize = session.paperSize();
+        long renderStartBytes = threads.getTotalThreadAllocatedBytes();
+        long renderStart = System.nanoTime();
+        new SoftwareRasterizer().renderPage(operations, paperSize,
+                (int) Math.ceil(paperSize.getWidthInPixels()), (int) Math.ceil(paperSize.getHeightInPixels()));
+        long renderNanos = System.nanoTime() - renderStart;
+        long renderBytes = threads.getTotalThreadAllocatedBytes() - renderStartBytes;
+
+        return new Result(inputs, pulses, operations.size(), operations.getPointCount(), sessionNanos,
+                busyNanos, frameTimes, inputBytes, renderNanos, renderBytes);
+    }
+
+    private static void waitUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private static void print(int run, Result result) {
+        System.out.printf(Locale.ROOT, "run %d: %d inputs over %.1f s -> %d operations, %d points%n",
+                run, result.inputs(), result.sessionNanos() / 1e9, result.operations(), result.points());
+        System.out.printf(Locale.ROOT, "  input  %8.1f ms busy, %.2f us/input, %d frames p50 %.3f p99 %.3f max %.3f ms, %.1f MB allocated%n",
+                result.inputNanos() / 1e6, result.inputs() == 0 ? 0 : result.inputNanos() / 1e3 / result.inputs(),
+                result.frames(), result.frameTimes().getPercentileMillis(0.5),
+                result.frameTimes().getPercentileMillis(0.99), result.frameTimes().getMaxMillis(),
+                result.inputBytes() / 1e6);
+        System.out.printf(Locale.ROOT, "  render %8.1f ms, %.1f MB allocated%n",
+                result.renderNanos() / 1e6, result.renderBytes() / 1e6);
+    }
+}
@@ -0,0 +1,110 @@
+package com.mykhailozinenko.sketchpad;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of primitive ints, used to pass operation indices around
+ * without boxing.
+ */
+public final class IntList {
+
+    private int[] values;
+    private int size;
+
+    public IntList() {
+        this(16);
+    }
+
+    public IntList(int capacity) {
+        values = new int[Math.max(1, capacity)];
+    }
+
+    public void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = value;
+    }
+
+    /**
+     * Inserts a value at an index, shifting later values up
+     */
+    public void insert(int index, int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        System.arraycopy(values, index, values, index + 1, size - index);
+        values[index] = value;
+        size++;
+    }
+
+    /**
+     * Removes the value at an index, shifting later values down
+     */
+    public void removeAt(int index) {
+        System.arraycopy(values, index + 1, values, index, size - index - 1);
+        size--;
+    }
+
+    public int get(int index) {
+        return values[index];
+    }
+
+    public void set(int index, int value) {
+        values[index] = value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Gets the last value, or -1 if the list is empty
+     */
+    public int last() {
+        return size == 0 ? -1 : values[size - 1];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Drops values from the end until only the given number remain
+     */
+    public void truncate(int newSize) {
+        size = Math.min(size, newSize);
+    }
+
+    /**
+     * Sorts the values in ascending order and removes duplicates
+     */
+    public void sortDistinct() {
+        Arrays.sort(values, 0, size);
+        int unique = 0;
+        for (int i = 0; i < size; i++) {
+            if (unique == 0 || values[unique - 1] != values[i]) {
+                values[unique++] = values[i];
+            }
+        }
+        size = unique;
+    }
+
+    /**
+     * Copies the values into an array of exactly the list's size
+     */
+    public int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    /**
+     * Estimates the heap used by the backing array, in bytes
+     */
+    public long estimateMemoryBytes() {
+        return (long) values.length * Integer.BYTES;
+    }
+}
@@ -0,0 +1,124 @@
+package com.mykhailozinenko.sketchpad;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size histogram of durations, safe to record into on one thread and
+ * read from another (e.g. over JMX).
+ *
+ * Buckets are logarithmic: every power of two from 1 µs to about a minute is
+ * split into {@value #SUB_BUCKETS} linear sub-buckets, so percentiles are
+ * accurate to within 25% at any scale while recording is a few shifts and
+ * one atomic increment.
+ */
+public final class LatencyHistogram {
+
+    static final int SUB_BUCKETS = 4;
+    private static final int POWERS = 25;
+    private static final int BUCKETS = POWERS * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Records one duration
+     */
+    public void record(long nanos) {
+        counts.incrementAndGet(bucketOf(nanos / 1000));
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    private static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) Math.max(0, micros);
+        }
+        int power = 63 - Long.numberOfLeadingZeros(micros);
+        // The two bits below the leading one pick the sub-bucket
+        int sub = (int) (micros >>> (power - 2)) & (SUB_BUCKETS - 1);
+        return Math.min(BUCKETS - 1, (power - 1) * SUB_BUCKETS + sub);
+    }
+
+    /**
+     * Gets the smallest duration, in microseconds, that falls into a bucket
+     */
+    static long lowerBoundMicros(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int power = bucket / SUB_BUCKETS + 1;
+        int sub = bucket % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub) << (power - 2);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public double getMeanMillis() {
+        long n = count.get();
+        return n == 0 ? 0 : totalNanos.get() / 1e6 / n;
+    }
+
+    public double getMaxMillis() {
+        return maxNanos.get() / 1e6;
+    }
+
+    /**
+     * Gets the duration below which the given fraction of recordings fall,
+     * as the upper bound of its bucket
+     *
+     * @param fraction e.g. 0.99 for the 99th percentile
+     */
+    public double getPercentileMillis(double fraction) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(fraction * n);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= rank) {
+                long upper = bucket + 1 < BUCKETS ? lowerBoundMicros(bucket + 1) : maxNanos.get() / 1000;
+                return Math.min(upper / 1e3, getMaxMillis());
+            }
+        }
+        return getMaxMillis();
+    }
+
+    /**
+     * Gets a copy of the bucket counts; see {@link #getBucketBoundsMicros}
+     */
+    public long[] getBuckets() {
+        long[] copy = new long[BUCKETS];
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            copy[bucket] = counts.get(bucket);
+        }
+        return copy;
+    }
+
+    /**
+     * Gets the lower bound of every bucket, in microseconds
+     */
+    public static long[] getBucketBoundsMicros() {
+        long[] bounds = new long[BUCKETS];
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            bounds[bucket] = lowerBoundMicros(bucket);
+        }
+        return bounds;
+    }
+
+    public void reset() {
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            counts.set(bucket, 0);
+        }
+        count.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+}
@@ -0,0 +1,196 @@
+package com.mykhailozinenko.sketchpad;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only view of a project file's operation log, memory-mapped through
+ * {@link MemorySegment}, or of the same records held in a heap array.
+ *
+ * Opening scans the record headers once and keeps only a 4-byte offset per
+ * operation plus the (tiny) brush palette on the heap; kinds, brush ids,
+ * bounds and points are read from the segment on every access. Points are
+ * delta-encoded by {@link PointCodec}, so they are decoded a whole
+ * operation at a time with {@link #points}. A truncated trailing record,
+ * e.g. from a crash during a write, is ignored.
+ */
+public final class MappedOperationLog implements AutoCloseable {
+
+    static final ValueLayout.OfByte BYTE = ValueLayout.JAVA_BYTE;
+    static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    static final ValueLayout.OfFloat FLOAT = ValueLayout.JAVA_FLOAT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    // Null for a heap log
+    private final Arena arena;
+    private final MemorySegment segment;
+    private final int[] offsets;
+    private final BrushPalette brushes;
+
+    private MappedOperationLog(Arena arena, MemorySegment segment, int[] offsets, BrushPalette brushes) {
+        this.arena = arena;
+        this.segment = segment;
+        this.offsets = offsets;
+        this.brushes = brushes;
+    }
+
+    /**
+     * Maps a project file and indexes its operation records
+     */
+    public static MappedOperationLog open(Path file) throws IOException {
+        // Shared so background workers can read the same mapping
+        Arena arena = Arena.ofShared();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // Records after the committed length belong to a save that never finished
+            long fileSize = ProjectFile.readLogEnd(channel);
+            if (fileSize > Integer.MAX_VALUE) {
+                throw new IOException("Project file too large: " + file);
+            }
+            MemorySegment segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize, arena);
+
+            return index(arena, segment, ProjectFile.HEADER_SIZE);
+        } catch (IOException | RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Indexes operation records held in a heap array, e.g. to keep content compact in memory
+     */
+    public static MappedOperationLog wrap(byte[] records) {
+        return index(null, MemorySegment.ofArray(records), 0);
+    }
+
+    private static MappedOperationLog index(Arena arena, MemorySegment segment, long start) {
+        IntList offsets = new IntList(1024);
+        BrushPalette brushes = new BrushPalette();
+        scan(segment, start, offsets, brushes);
+        return new MappedOperationLog(arena, segment, offsets.toArray(), brushes);
+    }
+
+    private static void scan(MemorySegment segment, long start, IntList offsets, BrushPalette brushes) {
+        long size = segment.byteSize();
+        long offset = start;
+
+        while (offset + ProjectFile.SMALL_RECORD_SIZE <= size) {
+            byte type = segment.get(BYTE, offset);
+            switch (type) {
+                case ProjectFile.RECORD_BRUSH -> {
+                    if (offset + ProjectFile.BRUSH_RECORD_SIZE > size) {
+                        return;
+                    }
+                    brushes.intern(segment.get(INT, offset + 4), segment.get(FLOAT, offset + 8));
+                    offset += ProjectFile.BRUSH_RECORD_SIZE;
+                }
+                case ProjectFile.RECORD_TRUNCATE -> {
+                    offsets.truncate(segment.get(INT, offset + 4));
+                    offset += ProjectFile.SMALL_RECORD_SIZE;
+                }
+                case ProjectFile.RECORD_OPERATION -> {
+                    if (offset + ProjectFile.OPERATION_HEADER_SIZE > size) {
+                        return;
+                    }
+                    long end = offset + ProjectFile.OPERATION_HEADER_SIZE
+                            + Integer.toUnsignedLong(segment.get(INT, offset + 28));
+                    if (end > size) {
+                        return;
+                    }
+                    offsets.add((int) offset);
+                    offset = end;
+                }
+                default -> {
+                    // Unwritten or partially written tail
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the brushes defined by the log, in id order
+     */
+    public BrushPalette getBrushes() {
+        return brushes;
+    }
+
+    /**
+     * Gets the length of the mapped log or heap array, in bytes
+     */
+    public long getFileSize() {
+        return segment.byteSize();
+    }
+
+    /**
+     * Gets the number of live operations in the log
+     */
+    public int size() {
+        return offsets.length;
+    }
+
+    public byte kind(int op) {
+        return segment.get(BYTE, offsets[op] + 1);
+    }
+
+    public int brushId(int op) {
+        return segment.get(INT, offsets[op] + 4);
+    }
+
+    public int pointCount(int op) {
+        return segment.get(INT, offsets[op] + 8);
+    }
+
+    public float minX(int op) {
+        return segment.get(FLOAT, offsets[op] + 12);
+    }
+
+    public float minY(int op) {
+        return segment.get(FLOAT, offsets[op] + 16);
+    }
+
+    public float maxX(int op) {
+        return segment.get(FLOAT, offsets[op] + 20);
+    }
+
+    public float maxY(int op) {
+        return segment.get(FLOAT, offsets[op] + 24);
+    }
+
+    /**
+     * Decodes an operation's points as x, y pairs, growing the array if needed
+     *
+     * @return the array holding the points
+     */
+    public float[] points(int op, float[] buffer) {
+        return PointCodec.decode(segment, offsets[op] + ProjectFile.OPERATION_HEADER_SIZE, pointCount(op), buffer);
+    }
+
+    /**
+     * Checks whether the records live in a heap array rather than a mapped file
+     */
+    public boolean isInMemory() {
+        return arena == null;
+    }
+
+    /**
+     * Estimates the heap used by the record offsets, plus the records of a heap log, in bytes
+     */
+    public long estimateMemoryBytes() {
+        return (long) offsets.length * Integer.BYTES + (isInMemory() ? segment.byteSize() : 0);
+    }
+
+    /**
+     * Unmaps the file. The log must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        if (arena != null) {
+            arena.close();
+        }
+    }
+}
@@ -0,0 +1,431 @@
+package com.mykhailozinenko.sketchpad;
+
+import javafx.application.Platform;
+
+import java.util.BitSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Drops operations that later opaque operations paint over completely,
+ * e.g. when the same area is scribbled over again and again, so the live
+ * operations only hold what can still be seen.
+ *
+ * Once enough final operations (those no undo can remove) have been added
+ * since the last pass, a background thread looks for hidden ones. Only
+ * operations whose bounds meet a new opaque operation can have become
+ * hidden, and only operations near those can hide them, so the FX thread
+ * copies just the operations in the spatial index cells around them. They
+ * are walked newest first into a coverage grid of half-pixel cells. An
+ * operation is hidden if every cell it may paint, including its
+ * anti-aliased edge, is already solid under later operations, so it stays
+ * invisible at every zoom of 100% and above. The background
+ * thread also indexes the operations after the first hidden one by their
+ * new positions, and the FX thread swaps both in, unless the content
+ * changed underneath in a way that could matter.
+ *
+ * Operations the project file already holds are never dropped, so saving
+ * never rewrites part of it because of a pass and the file does not grow
+ * with every compaction. Only the autosave journal, which holds just the
+ * operations drawn since the last save, is rewritten from the first
+ * dropped operation on.
+ */
+public class OcclusionCompactor {
+
+    // Final operations that must be added before another pass
+    static final int MIN_NEW_OPERATIONS = 64;
+    // Side of a coverage cell, in page pixels
+    static final double CELL_SIZE = 0.5;
+
+    private static final double HALF_DIAGONAL = CELL_SIZE * Math.sqrt(0.5);
+    // How far past its half width an operation may change pixels, and how far inside them it paints solid
+    private static final double EDGE = 0.5;
+    private static final double EPSILON = 1e-6;
+    // Room the coverage grid needs around the operations it checks
+    private static final double MARGIN = EDGE + HALF_DIAGONAL + CELL_SIZE;
+
+    /**
+     * Copy of the final heap operations a pass may touch, taken on the FX thread
+     *
+     * @param from first operation that may be dropped
+     * @param to index after the last final operation
+     * @param snapshot copies of the candidates and the operations whose bounds meet theirs
+     * @param snapshotOps index in the content of each copied operation
+     * @param candidates indices in the snapshot of the operations that may have become hidden
+     * @param boundsFrom first operation whose bounds were copied, up to {@code to}
+     * @param bounds minX, minY, maxX and maxY of those operations
+     */
+    record Pass(ProjectContent content, OperationStore operations, int clearCount, int from, int to,
+                PaperSize paperSize, OperationStore snapshot, IntList snapshotOps, BitSet candidates,
+                int boundsFrom, float[] bounds) {
+    }
+
+    /**
+     * Outcome of a pass, computed on the background thread
+     *
+     * @param dropped ascending indices in the content of the hidden operations
+     * @param index entries of the kept operations from the first dropped one
+     *              up to the end of the pass, by their new indices; null if none are dropped
+     */
+    record Compaction(IntList dropped, SpatialIndex index) {
+    }
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            Thread.ofPlatform().name("occlusion-compactor").daemon().priority(Thread.MIN_PRIORITY).factory());
+    // Content with a pass in progress
+    private final Set<ProjectContent> running = ConcurrentHashMap.newKeySet();
+
+    // Updated on the FX thread
+    private long passes;
+    private long droppedOperations;
+
+    /**
+     * Starts a pass over a project's content if enough final operations were
+     * added since the last one and none is running. Must be called on the FX thread.
+     */
+    public void changed(Project project) {
+        if (!project.isContentLoaded() || !running.add(project.getContent())) {
+            return;
+        }
+        Pass pass = prepare(project);
+        if (pass == null) {
+            running.remove(project.getContent());
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                Compaction compaction = compact(pass);
+                Platform.runLater(() -> {
+                    running.remove(pass.content());
+                    apply(project, pass, compaction);
+                });
+            } catch (RuntimeException e) {
+                // No FX thread to swap on, or a bug; the content is left as it is
+                running.remove(pass.content());
+                System.err.println("Occlusion compaction of " + project.getName() + " failed: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Copies what a pass over a project needs, or returns null if too few
+     * final operations were added since the last one
+     */
+    static Pass prepare(Project project) {
+        ProjectContent content = project.getContent();
+        OperationStore operations = content.getOperations();
+        // What the project file holds stays, so a save only ever appends to it
+        int from = Math.max(operations.getBaseSize(), operations.getUnchangedPrefix());
+        int to = project.getHistory().getFirstUndoableOperation(operations.size());
+        int firstNew = Math.max(from, content.getOcclusionChecked());
+        if (to - firstNew < MIN_NEW_OPERATIONS) {
+            return null;
+        }
+
+        SpatialIndex index = content.getSpatialIndex();
+        BitSet candidates = new BitSet(to);
+        for (int op = firstNew; op < to; op++) {
+            if (isCovering(operations, op)) {
+                index.query(operations.minX(op), operations.minY(op), operations.maxX(op), operations.maxY(op),
+                        candidates);
+            }
+        }
+        keepRange(candidates, from, to);
+        // Whatever covers part of a candidate, including its anti-aliased edge, overlaps its bounds
+        BitSet cells = new BitSet();
+        for (int op = candidates.nextSetBit(0); op >= 0; op = candidates.nextSetBit(op + 1)) {
+            index.markCells(operations.minX(op) - MARGIN, operations.minY(op) - MARGIN,
+                    operations.maxX(op) + MARGIN, operations.maxY(op) + MARGIN, cells);
+        }
+        BitSet near = new BitSet(to);
+        index.collectCells(cells, near);
+        keepRange(near, from, to);
+
+        IntList snapshotOps = new IntList(Math.max(1, near.cardinality()));
+        BitSet snapshotCandidates = new BitSet();
+        for (int op = near.nextSetBit(0); op >= 0; op = near.nextSetBit(op + 1)) {
+            if (candidates.get(op)) {
+                snapshotCandidates.set(snapshotOps.size());
+            }
+            snapshotOps.add(op);
+        }
+        // Only operations after the first candidate can move in the spatial index
+        int boundsFrom = candidates.isEmpty() ? to : candidates.nextSetBit(0);
+        return new Pass(content, operations, content.getClearCount(), from, to, content.getPaperSize(),
+                operations.copyHeapOperations(snapshotOps), snapshotOps, snapshotCandidates,
+                boundsFrom, operations.copyHeapBounds(boundsFrom, to));
+    }
+
+    /**
+     * Finds the hidden operations of a pass and indexes the operations after
+     * the first of them by their positions once they are dropped
+     */
+    static Compaction compact(Pass pass) {
+        PaperSize paperSize = pass.paperSize();
+        BitSet hidden = findHidden(pass.snapshot(), pass.candidates(),
+                paperSize.getWidthInPixels(), paperSize.getHeightInPixels());
+        IntList dropped = new IntList(Math.max(1, hidden.cardinality()));
+        for (int op = hidden.nextSetBit(0); op >= 0; op = hidden.nextSetBit(op + 1)) {
+            dropped.add(pass.snapshotOps().get(op));
+        }
+        if (dropped.isEmpty()) {
+            return new Compaction(dropped, null);
+        }
+
+        SpatialIndex index = SpatialIndex.forBounds(paperSize);
+        float[] bounds = pass.bounds();
+        int next = 0;
+        int kept = dropped.get(0);
+        for (int op = dropped.get(0); op < pass.to(); op++) {
+            if (next < dropped.size() && dropped.get(next) == op) {
+                next++;
+                continue;
+            }
+            int b = (op - pass.boundsFrom()) * 4;
+            index.insert(kept++, bounds[b], bounds[b + 1], bounds[b + 2], bounds[b + 3]);
+        }
+        return new Compaction(dropped, index);
+    }
+
+    /**
+     * Swaps the compaction in, unless the content or the copied operations
+     * changed since the pass was prepared. Returns true if swapped.
+     */
+    boolean apply(Project project, Pass pass, Compaction compaction) {
+        ProjectContent content = pass.content();
+        // Copied operations can only have changed through a clear, since none could be undone
+        if (!project.isContentLoaded() || project.getContent() != content
+                || content.getOperations() != pass.operations() || content.getClearCount() != pass.clearCount()
+                || project.getHistory().getFirstUndoableOperation(content.getOperationCount()) < pass.to()) {
+            return false;
+        }
+        if (pass.operations().getUnchangedPrefix() > pass.from()) {
+            // Saved meanwhile; the next pass starts after what the file now holds
+            return false;
+        }
+        passes++;
+        if (compaction.dropped().isEmpty()) {
+            content.setOcclusionChecked(pass.to());
+            return false;
+        }
+        project.replaceHiddenOperations(compaction.dropped(), pass.to(), compaction.index());
+        droppedOperations += compaction.dropped().size();
+        return true;
+    }
+
+    /**
+     * Finds the candidates that are painted over completely by later opaque
+     * operations. Every operation that can paint over a candidate must be in
+     * the store, along with any others.
+     *
+     * @param width width of the page; coverage outside the page is not tracked
+     */
+    static BitSet findHidden(OperationStore operations, BitSet candidates, double width, double height) {
+        BitSet hidden = new BitSet();
+        int count = operations.size();
+        if (candidates.isEmpty()) {
+            return hidden;
+        }
+        double[] area = {Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+        for (int op = 0; op < count; op++) {
+            grow(area, operations, op);
+        }
+        area[0] -= MARGIN;
+        area[1] -= MARGIN;
+        area[2] += MARGIN;
+        area[3] += MARGIN;
+
+        Coverage coverage = new Coverage(Math.max(0, area[0]), Math.max(0, area[1]),
+                Math.min(width, area[2]), Math.min(height, area[3]));
+        for (int op = count - 1; op >= 0; op--) {
+            if (candidates.get(op) && coverage.isCovered(operations, op)) {
+                hidden.set(op);
+            } else if (isCovering(operations, op)) {
+                coverage.cover(operations, op);
+            }
+        }
+        return hidden;
+    }
+
+    /**
+     * Clears the operations outside the range from one index up to another
+     */
+    private static void keepRange(BitSet ops, int from, int to) {
+        ops.clear(0, from);
+        ops.clear(to, Math.max(to, ops.length()));
+    }
+
+    /**
+     * Checks whether an operation is opaque and wide enough to paint whole cells solid
+     */
+    private static boolean isCovering(OperationStore operations, int op) {
+        return operations.getBrushes().argb(operations.brushId(op)) >>> 24 == 0xFF
+                && operations.width(op) / 2 - EDGE - HALF_DIAGONAL > 0;
+    }
+
+    private static void grow(double[] rect, OperationStore operations, int op) {
+        rect[0] = Math.min(rect[0], operations.minX(op));
+        rect[1] = Math.min(rect[1], operations.minY(op));
+        rect[2] = Math.max(rect[2], operations.maxX(op));
+        rect[3] = Math.max(rect[3], operations.maxY(op));
+    }
+
+    public long getPassCount() {
+        return passes;
+    }
+
+    /**
+     * Gets the number of operations dropped so far
+     */
+    public long getDroppedOperationCount() {
+        return droppedOperations;
+    }
+
+    /**
+     * Grid of cells that later operations paint solid
+     */
+    private static final class Coverage {
+        private final double originX;
+        private final double originY;
+        private final int columns;
+        private final int rows;
+        private final BitSet solid;
+        private float[] points = new float[256];
+        // Reached part of the current row, as min and max x
+        private final double[] span = new double[2];
+
+        Coverage(double minX, double minY, double maxX, double maxY) {
+            originX = Math.floor(minX);
+            originY = Math.floor(minY);
+            columns = Math.max(0, (int) Math.ceil((maxX - originX) / CELL_SIZE));
+            rows = Math.max(0, (int) Math.ceil((maxY - originY) / CELL_SIZE));
+            solid = new BitSet(columns * rows);
+        }
+
+        /**
+         * Checks whether every cell the operation may change is solid already
+         */
+        boolean isCovered(OperationStore operations, int op) {
+            double reach = operations.width(op) / 2 + EDGE + HALF_DIAGONAL;
+            int pointCount = operations.pointCount(op);
+            points = operations.points(op, points);
+            for (int p = 0; p < Math.max(1, pointCount - 1); p++) {
+                int next = Math.min(p + 1, pointCount - 1);
+                if (!visit(points[p * 2], points[p * 2 + 1], points[next * 2], points[next * 2 + 1], reach, false)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Marks the cells the operation paints solid
+         */
+        void cover(OperationStore operations, int op) {
+            double reach = operations.width(op) / 2 - EDGE - HALF_DIAGONAL;
+            int pointCount = operations.pointCount(op);
+            points = operations.points(op, points);
+            for (int p = 0; p < Math.max(1, pointCount - 1); p++) {
+                int next = Math.min(p + 1, pointCount - 1);
+                visit(points[p * 2], points[p * 2 + 1], points[next * 2], points[next * 2 + 1], reach, true);
+            }
+        }
+
+        /**
+         * Visits the cells whose centres are within reach of a round-capped
+         * segment, marking them or checking they are marked. Returns false if
+         * checking found a cell that is not solid or lies outside the grid.
+         */
+        private boolean visit(double x0, double y0, double x1, double y1, double reach, boolean mark) {
+            // Rounding must never make coverage look larger than it is
+            reach += mark ? -EPSILON : EPSILON;
+            if (reach < 0) {
+                return true;
+            }
+            int firstRow = (int) Math.floor((Math.min(y0, y1) - reach - originY) / CELL_SIZE);
+            int lastRow = (int) Math.floor((Math.max(y0, y1) + reach - originY) / CELL_SIZE);
+            if (mark) {
+                firstRow = Math.max(0, firstRow);
+                lastRow = Math.min(rows - 1, lastRow);
+            }
+            for (int row = firstRow; row <= lastRow; row++) {
+                // The segment's reach is convex, so it meets each row of centres in one span
+                double cy = originY + (row + 0.5) * CELL_SIZE;
+                span[0] = Double.POSITIVE_INFINITY;
+                span[1] = Double.NEGATIVE_INFINITY;
+                addCapSpan(x0, y0, cy, reach);
+                addCapSpan(x1, y1, cy, reach);
+                addBodySpan(x0, y0, x1, y1, cy, reach);
+                if (span[0] > span[1]) {
+                    continue;
+                }
+                int firstColumn = (int) Math.ceil((span[0] - originX) / CELL_SIZE - 0.5);
+                int lastColumn = (int) Math.floor((span[1] - originX) / CELL_SIZE - 0.5);
+                if (mark) {
+                    firstColumn = Math.max(0, firstColumn);
+                    lastColumn = Math.min(columns - 1, lastColumn);
+                    if (firstColumn <= lastColumn) {
+                        solid.set(row * columns + firstColumn, row * columns + lastColumn + 1);
+                    }
+                } else if (firstColumn <= lastColumn) {
+                    // Nothing outside the grid is known to be covered
+                    if (row < 0 || row >= rows || firstColumn < 0 || lastColumn >= columns
+                            || solid.nextClearBit(row * columns + firstColumn) <= row * columns + lastColumn) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Widens the span by the points of a row within reach of an end point
+         */
+        private void addCapSpan(double x, double y, double cy, double reach) {
+            double dy = cy - y;
+            double squared = reach * reach - dy * dy;
+            if (squared >= 0) {
+                double half = Math.sqrt(squared);
+                span[0] = Math.min(span[0], x - half);
+                span[1] = Math.max(span[1], x + half);
+            }
+        }
+
+        /**
+         * Widens the span by the points of a row within reach of the segment
+         * that project onto it between its end points
+         */
+        private void addBodySpan(double x0, double y0, double x1, double y1, double cy, double reach) {
+            double dx = x1 - x0;
+            double dy = y1 - y0;
+            double lengthSquared = dx * dx + dy * dy;
+            if (lengthSquared == 0) {
+                return;
+            }
+            // With u = x - x0: |u dy - v dx| <= reach * length and 0 <= u dx + v dy <= length squared
+            double v = cy - y0;
+            double side = reach * Math.sqrt(lengthSquared);
+            double low = Double.NEGATIVE_INFINITY;
+            double high = Double.POSITIVE_INFINITY;
+            for (int constraint = 0; constraint < 2; constraint++) {
+                double k = constraint == 0 ? dy : dx;
+                double min = constraint == 0 ? v * dx - side : -v * dy;
+                double max = constraint == 0 ? v * dx + side : lengthSquared - v * dy;
+                if (k == 0) {
+                    if (min > 0 || max < 0) {
+                        return;
+                    }
+                } else {
+                    low = Math.max(low, Math.min(min / k, max / k));
+                    high = Math.min(high, Math.max(min / k, max / k));
+                }
+            }
+            if (low <= high) {
+                span[0] = Math.min(span[0], x0 + low);
+                span[1] = Math.max(span[1], x0 + high);
+            }
+        }
+    }
+}
@@ -0,0 +1,640 @@
+package com.mykhailozinenko.sketchpad;
+
+import javafx.scene.paint.Color;
+
+import java.util.Arrays;
+
+/**
+ * Columnar (struct-of-arrays) storage for drawing operations.
+ *
+ * Instead of keeping one object per operation, every field lives in its own
+ * growable primitive array and an operation is just an index into them.
+ * Points of all operations share one coordinate array; operation i owns the
+ * points from pointStart[i] up to pointStart[i + 1]. Each operation also keeps
+ * its bounding box, including half the line width, so consumers can cull
+ * without touching the points. Colour and width are interned together in a
+ * {@link BrushPalette}, so an operation only keeps the brush id.
+ *
+ * A store opened from a project file has a {@link MappedOperationLog} as its
+ * base: the first operations are read straight from the mapped file and only
+ * operations added afterwards live in the heap arrays. Coordinates are
+ * quantized by {@link PointCodec} as they are added, so heap and file hold
+ * the same points. Mapped points are delta-encoded, so read them with
+ * {@link #points} rather than one coordinate at a time.
+ *
+ * Gestures stored as polylines add only one coordinate pair per extra
+ * point, and no per-operation objects exist for the GC to trace.
+ */
+public final class OperationStore {
+
+    public static final byte KIND_DOT = 0;
+    public static final byte KIND_STROKE = 1;
+    public static final byte KIND_POLYLINE = 2;
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    // Mapped operations that precede the heap ones, or null
+    private final MappedOperationLog base;
+    private int baseSize;
+
+    // Heap operations, indexed from 0 after the base ones
+    private byte[] kinds = new byte[INITIAL_CAPACITY];
+    private int[] brushIds = new int[INITIAL_CAPACITY];
+    private int[] pointStart = new int[INITIAL_CAPACITY + 1];
+    private float[] coords = new float[INITIAL_CAPACITY * 4];
+    // minX, minY, maxX, maxY per operation
+    private float[] bounds = new float[INITIAL_CAPACITY * 4];
+    private int localSize;
+    private int pointCount;
+    // Index of the polyline still being extended, or -1 if none
+    private int openOperation = -1;
+
+    private final BrushPalette brushes;
+
+    // What the backing project file currently holds, see markPersisted
+    private int persistedSize;
+    private int unchangedPrefix;
+    private int persistedBrushCount;
+    private long persistedFileSize;
+
+    // What the autosave journal holds on top of the file, see markJournaled
+    private int journaledSize;
+    private int journalUnchangedPrefix;
+    private int journaledBrushCount;
+
+    // Lowest operation changed since a save's snapshot was taken, see markSaving
+    private int savingUnchangedPrefix = Integer.MAX_VALUE;
+
+    /**
+     * Creates an empty store
+     */
+    public OperationStore() {
+        this(null);
+    }
+
+    /**
+     * Creates a store whose first operations are served from a mapped log
+     */
+    public OperationStore(MappedOperationLog base) {
+        this.base = base;
+        this.brushes = new BrushPalette();
+        if (base != null) {
+            // Brushes in a file are distinct, so they keep their ids
+            BrushPalette fileBrushes = base.getBrushes();
+            for (int brush = 0; brush < fileBrushes.size(); brush++) {
+                brushes.intern(fileBrushes.argb(brush), fileBrushes.width(brush));
+            }
+            baseSize = base.size();
+            markPersisted(baseSize, base.getFileSize());
+        }
+    }
+
+    /**
+     * Appends a single-point operation
+     */
+    public void addDot(double x, double y, Color color, double size) {
+        beginOperation(KIND_DOT, color, size);
+        addPoint(x, y);
+    }
+
+    /**
+     * Appends a two-point line segment
+     */
+    public void addStroke(double startX, double startY, double endX, double endY,
+                          Color color, double size) {
+        beginOperation(KIND_STROKE, color, size);
+        addPoint(startX, startY);
+        addPoint(endX, endY);
+    }
+
+    /**
+     * Starts a polyline at the given point. The polyline stays open and is
+     * extended with {@link #extendPolyline} until {@link #sealPolyline} is called.
+     */
+    public void beginPolyline(double x, double y, Color color, double size) {
+        beginOperation(KIND_POLYLINE, color, size);
+        addPoint(x, y);
+        openOperation = size() - 1;
+    }
+
+    /**
+     * Appends a point to the open polyline
+     */
+    public void extendPolyline(double x, double y) {
+        if (!hasOpenPolyline()) {
+            throw new IllegalStateException("No open polyline to extend");
+        }
+        addPoint(x, y);
+    }
+
+    /**
+     * Seals the open polyline so no more points can be added to it
+     */
+    public void sealPolyline() {
+        openOperation = -1;
+    }
+
+    /**
+     * Checks whether the last operation is a polyline that is still being extended
+     */
+    public boolean hasOpenPolyline() {
+        return openOperation >= 0;
+    }
+
+    /**
+     * Appends a sealed operation drawn with an already interned brush, e.g.
+     * when replaying a journal
+     *
+     * @param points x, y pairs
+     */
+    public void addOperation(byte kind, int brushId, float[] points, int count) {
+        if (brushId < 0 || brushId >= brushes.size()) {
+            throw new IllegalArgumentException("Unknown brush " + brushId);
+        }
+        beginOperation(kind, brushId);
+        for (int p = 0; p < count; p++) {
+            addPoint(points[p * 2], points[p * 2 + 1]);
+        }
+    }
+
+    private void beginOperation(byte kind, Color color, double width) {
+        beginOperation(kind, brushes.intern(color, width));
+    }
+
+    private void beginOperation(byte kind, int brushId) {
+        // Any new operation implicitly seals the open polyline
+        openOperation = -1;
+        if (localSize == kinds.length) {
+            int capacity = localSize * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            brushIds = Arrays.copyOf(brushIds, capacity);
+            pointStart = Arrays.copyOf(pointStart, capacity + 1);
+            bounds = Arrays.copyOf(bounds, capacity * 4);
+        }
+        kinds[localSize] = kind;
+        brushIds[localSize] = brushId;
+        pointStart[localSize] = pointCount;
+        bounds[localSize * 4] = Float.POSITIVE_INFINITY;
+        bounds[localSize * 4 + 1] = Float.POSITIVE_INFINITY;
+        bounds[localSize * 4 + 2] = Float.NEGATIVE_INFINITY;
+        bounds[localSize * 4 + 3] = Float.NEGATIVE_INFINITY;
+        localSize++;
+        pointStart[localSize] = pointCount;
+    }
+
+    private void addPoint(double x, double y) {
+        int offset = pointCount * 2;
+        if (offset + 2 > coords.length) {
+            coords = Arrays.copyOf(coords, coords.length * 2);
+        }
+        coords[offset] = PointCodec.quantize(x);
+        coords[offset + 1] = PointCodec.quantize(y);
+        pointCount++;
+        pointStart[localSize] = pointCount;
+        growBounds(localSize - 1, coords[offset], coords[offset + 1]);
+    }
+
+    /**
+     * Grows a heap operation's bounds by the point plus half the line width
+     */
+    private void growBounds(int local, float x, float y) {
+        int b = local * 4;
+        float radius = brushes.width(brushIds[local]) / 2;
+        bounds[b] = Math.min(bounds[b], x - radius);
+        bounds[b + 1] = Math.min(bounds[b + 1], y - radius);
+        bounds[b + 2] = Math.max(bounds[b + 2], x + radius);
+        bounds[b + 3] = Math.max(bounds[b + 3], y + radius);
+    }
+
+    /**
+     * Simplifies the open polyline in place, dropping points that deviate
+     * less than the tolerance from the remaining line (see {@link StrokeSimplifier})
+     */
+    public void simplifyPolyline(double tolerance) {
+        if (!hasOpenPolyline()) {
+            throw new IllegalStateException("No open polyline to simplify");
+        }
+        int local = localSize - 1;
+        int start = pointStart[local];
+        pointCount = start + StrokeSimplifier.simplify(coords, start, pointCount - start, tolerance);
+        pointStart[localSize] = pointCount;
+
+        // Every remaining point was an original one, but the extremes may have been dropped
+        int b = local * 4;
+        bounds[b] = Float.POSITIVE_INFINITY;
+        bounds[b + 1] = Float.POSITIVE_INFINITY;
+        bounds[b + 2] = Float.NEGATIVE_INFINITY;
+        bounds[b + 3] = Float.NEGATIVE_INFINITY;
+        for (int p = start; p < pointCount; p++) {
+            growBounds(local, coords[p * 2], coords[p * 2 + 1]);
+        }
+    }
+
+    /**
+     * Copies the operations in the given range into a new store
+     */
+    public OperationStore copyRange(int from, int to) {
+        OperationStore copy = new OperationStore();
+        copy.appendRange(this, from, to);
+        return copy;
+    }
+
+    /**
+     * Copies the given heap operations, in ascending order, into a new store
+     * with the same brush ids, e.g. as a snapshot another thread can read
+     */
+    OperationStore copyHeapOperations(IntList ops) {
+        OperationStore copy = new OperationStore();
+        copy.adoptBrushes(this);
+        int i = 0;
+        while (i < ops.size()) {
+            // Consecutive operations are copied as one run
+            int end = i + 1;
+            while (end < ops.size() && ops.get(end) == ops.get(end - 1) + 1) {
+                end++;
+            }
+            copy.appendHeap(this, ops.get(i), ops.get(end - 1) + 1);
+            i = end;
+        }
+        return copy;
+    }
+
+    /**
+     * Copies the bounds of the heap operations in the given range, as minX,
+     * minY, maxX and maxY per operation
+     */
+    float[] copyHeapBounds(int from, int to) {
+        return Arrays.copyOfRange(bounds, (from - baseSize) * 4, (to - baseSize) * 4);
+    }
+
+    /**
+     * Creates a store holding this one's operations except the given sealed
+     * heap ones, which must be in ascending order. The project file and
+     * journal still hold the operations before the first dropped one, so only
+     * the rest is saved again. A polyline still open after them stays open.
+     */
+    OperationStore without(IntList dropped) {
+        if (dropped.get(0) < baseSize || openOperation >= 0 && openOperation <= dropped.last()) {
+            throw new IllegalStateException("Only sealed heap operations can be dropped");
+        }
+        OperationStore replaced = new OperationStore(base);
+        replaced.baseSize = baseSize;
+        replaced.adoptBrushes(this);
+        int op = baseSize;
+        for (int i = 0; i < dropped.size(); i++) {
+            replaced.appendHeap(this, op, dropped.get(i));
+            op = dropped.get(i) + 1;
+        }
+        replaced.appendHeap(this, op, size());
+        if (openOperation >= 0) {
+            replaced.openOperation = openOperation - dropped.size();
+        }
+
+        int firstChanged = dropped.get(0);
+        replaced.persistedSize = persistedSize;
+        replaced.unchangedPrefix = Math.min(unchangedPrefix, firstChanged);
+        replaced.persistedBrushCount = persistedBrushCount;
+        replaced.persistedFileSize = persistedFileSize;
+        replaced.journaledSize = journaledSize;
+        replaced.journalUnchangedPrefix = Math.min(journalUnchangedPrefix, firstChanged);
+        replaced.journaledBrushCount = journaledBrushCount;
+        replaced.savingUnchangedPrefix = Math.min(savingUnchangedPrefix, firstChanged);
+        return replaced;
+    }
+
+    /**
+     * Interns the brushes of another store that this one lacks, which must
+     * start with the same brushes, so brush ids mean the same in both
+     */
+    private void adoptBrushes(OperationStore other) {
+        for (int brush = brushes.size(); brush < other.brushes.size(); brush++) {
+            if (brushes.intern(other.brushes.argb(brush), other.brushes.width(brush)) != brush) {
+                throw new IllegalStateException("Brush palettes differ");
+            }
+        }
+    }
+
+    /**
+     * Appends heap operations of a store with the same brush ids by copying
+     * their arrays, without quantizing the points again
+     */
+    private void appendHeap(OperationStore other, int from, int to) {
+        int count = to - from;
+        if (count <= 0) {
+            return;
+        }
+        int first = from - other.baseSize;
+        int firstPoint = other.pointStart[first];
+        int points = other.pointStart[first + count] - firstPoint;
+        if (localSize + count > kinds.length) {
+            int capacity = Math.max(localSize * 2, localSize + count);
+            kinds = Arrays.copyOf(kinds, capacity);
+            brushIds = Arrays.copyOf(brushIds, capacity);
+            pointStart = Arrays.copyOf(pointStart, capacity + 1);
+            bounds = Arrays.copyOf(bounds, capacity * 4);
+        }
+        if ((pointCount + points) * 2 > coords.length) {
+            coords = Arrays.copyOf(coords, Math.max(coords.length * 2, (pointCount + points) * 2));
+        }
+
+        System.arraycopy(other.kinds, first, kinds, localSize, count);
+        System.arraycopy(other.brushIds, first, brushIds, localSize, count);
+        System.arraycopy(other.bounds, first * 4, bounds, localSize * 4, count * 4);
+        System.arraycopy(other.coords, firstPoint * 2, coords, pointCount * 2, points * 2);
+        for (int i = 1; i <= count; i++) {
+            pointStart[localSize + i] = other.pointStart[first + i] - firstPoint + pointCount;
+        }
+        localSize += count;
+        pointCount += points;
+        openOperation = -1;
+    }
+
+    /**
+     * Appends all operations of another store, sealed
+     */
+    public void appendAll(OperationStore other) {
+        appendRange(other, 0, other.size());
+    }
+
+    private void appendRange(OperationStore other, int from, int to) {
+        BrushPalette otherBrushes = other.getBrushes();
+        float[] points = new float[256];
+        for (int op = from; op < to; op++) {
+            int brush = other.brushId(op);
+            beginOperation(other.kind(op), brushes.intern(otherBrushes.argb(brush), otherBrushes.width(brush)));
+            // One bulk read, since mapped points can only be decoded from the start
+            points = other.points(op, points);
+            for (int p = 0; p < other.pointCount(op); p++) {
+                addPoint(points[p * 2], points[p * 2 + 1]);
+            }
+        }
+        openOperation = -1;
+    }
+
+    /**
+     * Drops operations from the end until only the given number remain
+     */
+    public void truncate(int newSize) {
+        if (newSize >= size()) {
+            return;
+        }
+        if (newSize < baseSize) {
+            // Mapped operations cannot be removed, only hidden
+            baseSize = newSize;
+            localSize = 0;
+            pointCount = 0;
+        } else {
+            localSize = newSize - baseSize;
+            pointCount = pointStart[localSize];
+        }
+        openOperation = -1;
+        unchangedPrefix = Math.min(unchangedPrefix, newSize);
+        journalUnchangedPrefix = Math.min(journalUnchangedPrefix, newSize);
+        savingUnchangedPrefix = Math.min(savingUnchangedPrefix, newSize);
+    }
+
+    /**
+     * Removes all operations. The brushes are kept since they are tiny and
+     * usually drawn with again.
+     */
+    public void clear() {
+        baseSize = 0;
+        localSize = 0;
+        pointCount = 0;
+        pointStart[0] = 0;
+        openOperation = -1;
+        unchangedPrefix = 0;
+        journalUnchangedPrefix = 0;
+        savingUnchangedPrefix = 0;
+    }
+
+    /**
+     * Records that the project file now holds the first given number of
+     * operations and every current brush. The journal starts over from there.
+     *
+     * @param fileSize length of the project file afterwards, in bytes
+     */
+    public void markPersisted(int operationCount, long fileSize) {
+        persistedSize = operationCount;
+        unchangedPrefix = operationCount;
+        persistedBrushCount = brushes.size();
+        persistedFileSize = fileSize;
+        markJournaled(operationCount);
+    }
+
+    /**
+     * Starts tracking changes for a save of the current operations, so the
+     * save can be recorded with {@link #markSaved} after more changes were made
+     */
+    public void markSaving() {
+        savingUnchangedPrefix = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Records that the project file now holds the first given number of
+     * operations and brushes, as they were when {@link #markSaving} was
+     * called. Operations changed since then stay unsaved, and so does
+     * everything after the saved ones; the journal starts over from the file.
+     *
+     * @param fileSize length of the project file afterwards, in bytes
+     */
+    public void markSaved(int operationCount, int brushCount, long fileSize) {
+        int unchanged = Math.min(operationCount, savingUnchangedPrefix);
+        persistedSize = operationCount;
+        unchangedPrefix = unchanged;
+        persistedBrushCount = brushCount;
+        persistedFileSize = fileSize;
+        journaledSize = operationCount;
+        journalUnchangedPrefix = unchanged;
+        journaledBrushCount = brushCount;
+        savingUnchangedPrefix = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Records that the project file plus its journal now hold the first given
+     * number of operations and every current brush
+     */
+    public void markJournaled(int operationCount) {
+        journaledSize = operationCount;
+        journalUnchangedPrefix = operationCount;
+        journaledBrushCount = brushes.size();
+    }
+
+    /**
+     * Gets the number of operations the project file currently yields
+     */
+    public int getPersistedSize() {
+        return persistedSize;
+    }
+
+    /**
+     * Gets how many leading operations are still identical to the project file
+     */
+    public int getUnchangedPrefix() {
+        return unchangedPrefix;
+    }
+
+    /**
+     * Gets how many brushes the project file already defines
+     */
+    public int getPersistedBrushCount() {
+        return persistedBrushCount;
+    }
+
+    /**
+     * Gets the length of the project file as of the last save, in bytes
+     */
+    public long getPersistedFileSize() {
+        return persistedFileSize;
+    }
+
+    /**
+     * Gets the number of operations the project file plus its journal yield
+     */
+    public int getJournaledSize() {
+        return journaledSize;
+    }
+
+    /**
+     * Gets how many leading operations are still identical to the project file plus its journal
+     */
+    public int getJournalUnchangedPrefix() {
+        return journalUnchangedPrefix;
+    }
+
+    /**
+     * Gets how many brushes the project file plus its journal define
+     */
+    public int getJournaledBrushCount() {
+        return journaledBrushCount;
+    }
+
+    /**
+     * Gets the number of stored operations
+     */
+    public int size() {
+        return baseSize + localSize;
+    }
+
+    /**
+     * Gets the number of operations served from the mapped base
+     */
+    public int getBaseSize() {
+        return baseSize;
+    }
+
+    /**
+     * Gets the total number of points held in the heap arrays
+     */
+    public int getPointCount() {
+        return pointCount;
+    }
+
+    /**
+     * Gets the interned brushes; brush ids refer to this palette
+     */
+    public BrushPalette getBrushes() {
+        return brushes;
+    }
+
+    public byte kind(int op) {
+        return op < baseSize ? base.kind(op) : kinds[op - baseSize];
+    }
+
+    public int brushId(int op) {
+        return op < baseSize ? base.brushId(op) : brushIds[op - baseSize];
+    }
+
+    public Color color(int op) {
+        return brushes.color(brushId(op));
+    }
+
+    public float width(int op) {
+        return brushes.width(brushId(op));
+    }
+
+    public int pointCount(int op) {
+        if (op < baseSize) {
+            return base.pointCount(op);
+        }
+        int local = op - baseSize;
+        return pointStart[local + 1] - pointStart[local];
+    }
+
+    /**
+     * Copies an operation's points as x, y pairs, growing the array if needed
+     *
+     * @return the array holding the points
+     */
+    public float[] points(int op, float[] buffer) {
+        if (op < baseSize) {
+            return base.points(op, buffer);
+        }
+        int local = op - baseSize;
+        int count = pointStart[local + 1] - pointStart[local];
+        if (buffer.length < count * 2) {
+            buffer = new float[count * 2];
+        }
+        System.arraycopy(coords, pointStart[local] * 2, buffer, 0, count * 2);
+        return buffer;
+    }
+
+    /**
+     * Gets one x coordinate of a heap operation, e.g. of the open polyline.
+     * Mapped points are delta-encoded, so read those with {@link #points}.
+     */
+    public float x(int op, int point) {
+        return coords[(pointStart[heapIndex(op)] + point) * 2];
+    }
+
+    /**
+     * Gets one y coordinate of a heap operation, see {@link #x}
+     */
+    public float y(int op, int point) {
+        return coords[(pointStart[heapIndex(op)] + point) * 2 + 1];
+    }
+
+    private int heapIndex(int op) {
+        if (op < baseSize) {
+            throw new IllegalArgumentException("Operation " + op + " is mapped; read it with points()");
+        }
+        return op - baseSize;
+    }
+
+    public float minX(int op) {
+        return op < baseSize ? base.minX(op) : bounds[(op - baseSize) * 4];
+    }
+
+    public float minY(int op) {
+        return op < baseSize ? base.minY(op) : bounds[(op - baseSize) * 4 + 1];
+    }
+
+    public float maxX(int op) {
+        return op < baseSize ? base.maxX(op) : bounds[(op - baseSize) * 4 + 2];
+    }
+
+    public float maxY(int op) {
+        return op < baseSize ? base.maxY(op) : bounds[(op - baseSize) * 4 + 3];
+    }
+
+    /**
+     * Checks whether the bounds of an operation intersect the given rectangle
+     */
+    public boolean intersects(int op, double minX, double minY, double maxX, double maxY) {
+        return minX(op) <= maxX && maxX(op) >= minX
+                && minY(op) <= maxY && maxY(op) >= minY;
+    }
+
+    /**
+     * Estimates the heap used by the backing arrays, in bytes.
+     * Mapped operations only count their record offsets.
+     */
+    public long estimateMemoryBytes() {
+        return kinds.length
+                + (long) brushIds.length * Integer.BYTES
+                + (long) pointStart.length * Integer.BYTES
+                + (long) coords.length * Float.BYTES
+                + (long) bounds.length * Float.BYTES
+                + (base != null ? base.estimateMemoryBytes() : 0);
+    }
+}
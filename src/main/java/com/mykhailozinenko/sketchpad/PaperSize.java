@@ -18,7 +18,7 @@ public enum PaperSize {
     private final String displayName;
 
     // DPI (dots per inch) - standard screen resolution
-    private static final double DEFAULT_DPI = 96.0;
+    public static final double DEFAULT_DPI = 96.0;
 
     // Conversion factor from mm to inches
     private static final double MM_TO_INCHES = 0.0393701;
@@ -50,6 +50,20 @@ public enum PaperSize {
         return mmToPixels(heightMm, DEFAULT_DPI);
     }
 
+    /**
+     * Gets the width of this paper size in pixels at the given resolution, e.g. for export.
+     */
+    public double getWidthInPixels(double dpi) {
+        return mmToPixels(widthMm, dpi);
+    }
+
+    /**
+     * Gets the height of this paper size in pixels at the given resolution, e.g. for export.
+     */
+    public double getHeightInPixels(double dpi) {
+        return mmToPixels(heightMm, dpi);
+    }
+
     /**
      * Gets the display name for this paper size.
      */
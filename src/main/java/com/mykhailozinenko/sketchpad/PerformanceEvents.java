@@ -0,0 +1,81 @@
+package com.mykhailozinenko.sketchpad;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Custom JDK Flight Recorder events, shown under "SketchPad" in JDK Mission
+ * Control. Record with e.g.
+ * {@code -XX:StartFlightRecording:filename=sketchpad.jfr}; while no recording
+ * is running the events cost next to nothing.
+ */
+public final class PerformanceEvents {
+
+    private PerformanceEvents() {
+    }
+
+    @Name("com.mykhailozinenko.sketchpad.Replay")
+    @Label("Render Replay")
+    @Description("Operations replayed into a canvas tile")
+    @Category("SketchPad")
+    @StackTrace(false)
+    public static final class ReplayEvent extends Event {
+        @Label("Visible Operations")
+        public int visibleOperations;
+
+        @Label("Replayed Operations")
+        public int replayedOperations;
+    }
+
+    @Name("com.mykhailozinenko.sketchpad.InputLatency")
+    @Label("Input To Paint Latency")
+    @Description("Time from a drag event reaching the canvas to its stroke being drawn")
+    @Category("SketchPad")
+    @StackTrace(false)
+    public static final class InputLatencyEvent extends Event {
+        @Label("Latency")
+        @Timespan(Timespan.NANOSECONDS)
+        public long latency;
+
+        @Label("Events In Frame")
+        public int eventsInFrame;
+    }
+
+    @Name("com.mykhailozinenko.sketchpad.ProjectOpen")
+    @Label("Project Open")
+    @Description("Opening a project in the editor, including loading its content")
+    @Category("SketchPad")
+    public static final class ProjectOpenEvent extends Event {
+        @Label("Project Id")
+        public String projectId;
+
+        @Label("Operations")
+        public int operationCount;
+
+        @Label("Content Memory")
+        @DataAmount
+        public long memoryBytes;
+    }
+
+    @Name("com.mykhailozinenko.sketchpad.ProjectClose")
+    @Label("Project Close")
+    @Description("Closing a project in the editor, including saving it")
+    @Category("SketchPad")
+    public static final class ProjectCloseEvent extends Event {
+        @Label("Project Id")
+        public String projectId;
+
+        @Label("Operations")
+        public int operationCount;
+
+        @Label("Open For")
+        @Timespan(Timespan.NANOSECONDS)
+        public long openNanos;
+    }
+}
@@ -0,0 +1,214 @@
+package com.mykhailozinenko.sketchpad;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live render, input and frame statistics, published as a platform MBean so
+ * they can be watched from JConsole or VisualVM while the app runs. The same
+ * numbers back the performance overlay of {@link CanvasArea}.
+ */
+public class PerformanceMonitor implements PerformanceMonitorMBean {
+
+    public static final String OBJECT_NAME = "com.mykhailozinenko.sketchpad:type=PerformanceMonitor";
+
+    private final LatencyHistogram replayTimes = new LatencyHistogram();
+    private final LatencyHistogram inputLatencies = new LatencyHistogram();
+    private final LatencyHistogram frameTimes = new LatencyHistogram();
+    private final AtomicLong replayedOperations = new AtomicLong();
+    private final AtomicLong projectOpens = new AtomicLong();
+    private volatile long lastProjectOpenNanos;
+    private volatile long lastFrameNanos;
+
+    private PerformanceMonitor() {
+    }
+
+    /**
+     * Creates and registers the monitor when first used; class
+     * initialization makes that thread-safe without locking later calls
+     */
+    private static final class Holder {
+        static final PerformanceMonitor INSTANCE = register(new PerformanceMonitor());
+    }
+
+    /**
+     * Gets the monitor, registering it with the platform MBean server on first use
+     */
+    public static PerformanceMonitor getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    private static PerformanceMonitor register(PerformanceMonitor monitor) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(monitor, name);
+            }
+        } catch (JMException | SecurityException e) {
+            System.err.println("Failed to register performance MBean: " + e.getMessage());
+        }
+        return monitor;
+    }
+
+    /**
+     * Records a replay of operations into a tile
+     */
+    public void recordReplay(long nanos, int operations) {
+        replayTimes.record(nanos);
+        replayedOperations.addAndGet(operations);
+    }
+
+    /**
+     * Records the time from a pointer event to the frame that drew it
+     */
+    public void recordInputLatency(long nanos) {
+        inputLatencies.record(nanos);
+    }
+
+    /**
+     * Records the time between two consecutive frames
+     */
+    public void recordFrame(long nanos) {
+        lastFrameNanos = nanos;
+        frameTimes.record(nanos);
+    }
+
+    public void recordProjectOpen(long nanos) {
+        projectOpens.incrementAndGet();
+        lastProjectOpenNanos = nanos;
+    }
+
+    /**
+     * Gets the duration of the last recorded frame in milliseconds
+     */
+    public double getLastFrameMillis() {
+        return lastFrameNanos / 1e6;
+    }
+
+    public LatencyHistogram getReplayTimes() {
+        return replayTimes;
+    }
+
+    public LatencyHistogram getInputLatencies() {
+        return inputLatencies;
+    }
+
+    public LatencyHistogram getFrameTimes() {
+        return frameTimes;
+    }
+
+    @Override
+    public long getReplayCount() {
+        return replayTimes.getCount();
+    }
+
+    @Override
+    public long getReplayedOperations() {
+        return replayedOperations.get();
+    }
+
+    @Override
+    public double getReplayMeanMillis() {
+        return replayTimes.getMeanMillis();
+    }
+
+    @Override
+    public double getReplayP50Millis() {
+        return replayTimes.getPercentileMillis(0.5);
+    }
+
+    @Override
+    public double getReplayP99Millis() {
+        return replayTimes.getPercentileMillis(0.99);
+    }
+
+    @Override
+    public double getReplayMaxMillis() {
+        return replayTimes.getMaxMillis();
+    }
+
+    @Override
+    public long getInputEventCount() {
+        return inputLatencies.getCount();
+    }
+
+    @Override
+    public double getInputLatencyP50Millis() {
+        return inputLatencies.getPercentileMillis(0.5);
+    }
+
+    @Override
+    public double getInputLatencyP99Millis() {
+        return inputLatencies.getPercentileMillis(0.99);
+    }
+
+    @Override
+    public double getInputLatencyMaxMillis() {
+        return inputLatencies.getMaxMillis();
+    }
+
+    @Override
+    public long getFrameCount() {
+        return frameTimes.getCount();
+    }
+
+    @Override
+    public double getFrameTimeP50Millis() {
+        return frameTimes.getPercentileMillis(0.5);
+    }
+
+    @Override
+    public double getFrameTimeP99Millis() {
+        return frameTimes.getPercentileMillis(0.99);
+    }
+
+    @Override
+    public double getFrameTimeMaxMillis() {
+        return frameTimes.getMaxMillis();
+    }
+
+    @Override
+    public long getProjectOpenCount() {
+        return projectOpens.get();
+    }
+
+    @Override
+    public double getLastProjectOpenMillis() {
+        return lastProjectOpenNanos / 1e6;
+    }
+
+    @Override
+    public long[] getHistogramBucketBoundsMicros() {
+        return LatencyHistogram.getBucketBoundsMicros();
+    }
+
+    @Override
+    public long[] getReplayHistogram() {
+        return replayTimes.getBuckets();
+    }
+
+    @Override
+    public long[] getInputLatencyHistogram() {
+        return inputLatencies.getBuckets();
+    }
+
+    @Override
+    public long[] getFrameTimeHistogram() {
+        return frameTimes.getBuckets();
+    }
+
+    @Override
+    public void resetStatistics() {
+        replayTimes.reset();
+        inputLatencies.reset();
+        frameTimes.reset();
+        replayedOperations.set(0);
+        projectOpens.set(0);
+        lastProjectOpenNanos = 0;
+        lastFrameNanos = 0;
+    }
+}
@@ -0,0 +1,56 @@
+package com.mykhailozinenko.sketchpad;
+
+/**
+ * Management interface of {@link PerformanceMonitor}, e.g. for JConsole or VisualVM.
+ * Durations are in milliseconds.
+ */
+public interface PerformanceMonitorMBean {
+
+    long getReplayCount();
+
+    long getReplayedOperations();
+
+    double getReplayMeanMillis();
+
+    double getReplayP50Millis();
+
+    double getReplayP99Millis();
+
+    double getReplayMaxMillis();
+
+    long getInputEventCount();
+
+    double getInputLatencyP50Millis();
+
+    double getInputLatencyP99Millis();
+
+    double getInputLatencyMaxMillis();
+
+    long getFrameCount();
+
+    double getFrameTimeP50Millis();
+
+    double getFrameTimeP99Millis();
+
+    double getFrameTimeMaxMillis();
+
+    long getProjectOpenCount();
+
+    double getLastProjectOpenMillis();
+
+    /**
+     * Gets the lower bound of each histogram bucket, in microseconds
+     */
+    long[] getHistogramBucketBoundsMicros();
+
+    long[] getReplayHistogram();
+
+    long[] getInputLatencyHistogram();
+
+    long[] getFrameTimeHistogram();
+
+    /**
+     * Clears every counter and histogram
+     */
+    void resetStatistics();
+}
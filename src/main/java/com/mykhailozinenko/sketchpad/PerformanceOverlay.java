@@ -0,0 +1,103 @@
+package com.mykhailozinenko.sketchpad;
+
+import javafx.animation.AnimationTimer;
+import javafx.scene.control.Label;
+
+import java.util.function.Supplier;
+
+/**
+ * Heads-up display over the canvas with frame time, operation count and
+ * memory use, plus input and replay latencies from {@link PerformanceMonitor}.
+ * Its timer only runs while it is shown, and the text is refreshed a few
+ * times a second so the overlay itself costs next to nothing.
+ */
+public class PerformanceOverlay extends Label {
+
+    private static final long REFRESH_NANOS = 250_000_000L;
+    private static final double MB = 1024 * 1024;
+
+    private final Supplier<Project> project;
+    private final AnimationTimer timer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            pulse(now);
+        }
+    };
+
+    private long lastPulse;
+    private long lastRefresh;
+    private long frameNanosSum;
+    private long worstFrameNanos;
+    private int framesSinceRefresh;
+
+    /**
+     * Creates an overlay showing the project the supplier currently returns
+     */
+    public PerformanceOverlay(Supplier<Project> project) {
+        this.project = project;
+        getStyleClass().add("performance-overlay");
+        setMouseTransparent(true);
+        setFocusTraversable(false);
+        setVisible(false);
+        setMaxSize(USE_PREF_SIZE, USE_PREF_SIZE);
+
+        visibleProperty().addListener((obs, wasVisible, isVisible) -> {
+            if (isVisible) {
+                lastPulse = 0;
+                lastRefresh = 0;
+                timer.start();
+            } else {
+                timer.stop();
+            }
+        });
+    }
+
+    private void pulse(long now) {
+        if (lastPulse != 0) {
+            long frame = now - lastPulse;
+            frameNanosSum += frame;
+            worstFrameNanos = Math.max(worstFrameNanos, frame);
+            framesSinceRefresh++;
+        }
+        lastPulse = now;
+
+        if (now - lastRefresh >= REFRESH_NANOS) {
+            lastRefresh = now;
+            refresh();
+        }
+    }
+
+    private void refresh() {
+        double frameMillis = framesSinceRefresh == 0 ? 0 : frameNanosSum / 1e6 / framesSinceRefresh;
+        double worstMillis = worstFrameNanos / 1e6;
+        frameNanosSum = 0;
+        worstFrameNanos = 0;
+        framesSinceRefresh = 0;
+
+        Project current = project.get();
+        int operations = 0;
+        long contentBytes = 0;
+        if (current != null && current.isContentLoaded()) {
+            operations = current.getContent().getOperationCount();
+            contentBytes = current.estimateMemoryBytes();
+        }
+
+        Runtime runtime = Runtime.getRuntime();
+        long heapUsed = runtime.totalMemory() - runtime.freeMemory();
+        PerformanceMonitor monitor = PerformanceMonitor.getInstance();
+
+        setText(String.format(
+                "frame   %5.1f ms (%3.0f fps) worst %.1f ms%n"
+                        + "ops     %,d%n"
+                        + "content %.1f MB%n"
+                        + "heap    %.0f / %.0f MB%n"
+                        + "input   p50 %.1f  p99 %.1f ms%n"
+                        + "replay  p50 %.1f  p99 %.1f ms",
+                frameMillis, frameMillis == 0 ? 0 : 1000 / frameMillis, worstMillis,
+                operations,
+                contentBytes / MB,
+                heapUsed / MB, runtime.maxMemory() / MB,
+                monitor.getInputLatencyP50Millis(), monitor.getInputLatencyP99Millis(),
+                monitor.getReplayP50Millis(), monitor.getReplayP99Millis()));
+    }
+}
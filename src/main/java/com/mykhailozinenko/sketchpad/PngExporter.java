@@ -0,0 +1,137 @@
+package com.mykhailozinenko.sketchpad;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Exports a page as a PNG at any resolution without holding the whole image.
+ *
+ * The page is cut into horizontal strips of {@value #STRIP_HEIGHT} rows.
+ * Operations are culled into the strips their bounds overlap in one pass,
+ * then each strip is rendered with the {@link SoftwareRasterizer} and its
+ * rows are streamed into a {@link PngWriter}. A few strips are rendered
+ * ahead in parallel while earlier ones are encoded, so peak memory is that
+ * window of strips: about 30 MB for A3 at 600 DPI (7016x9921 pixels) on
+ * eight cores. The store must not be modified during an export.
+ */
+public class PngExporter {
+
+    public static final int STRIP_HEIGHT = 128;
+
+    private final SoftwareRasterizer rasterizer;
+    private final int stripsInFlight;
+
+    /**
+     * Creates an exporter that renders one strip ahead per core
+     */
+    public PngExporter() {
+        this(new SoftwareRasterizer(), Runtime.getRuntime().availableProcessors() + 1);
+    }
+
+    public PngExporter(SoftwareRasterizer rasterizer, int stripsInFlight) {
+        this.rasterizer = rasterizer;
+        this.stripsInFlight = Math.max(1, stripsInFlight);
+    }
+
+    /**
+     * Exports a whole page on white at the given resolution.
+     * The file is written under a temporary name and replaced when complete.
+     *
+     * @throws CancellationException if the calling thread is interrupted
+     */
+    public void export(OperationStore operations, PaperSize paperSize, double dpi, Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+            export(operations, paperSize, dpi, out);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Streams a whole page on white at the given resolution as a PNG.
+     * The stream is left open.
+     *
+     * @throws CancellationException if the calling thread is interrupted
+     */
+    public void export(OperationStore operations, PaperSize paperSize, double dpi, OutputStream out) throws IOException {
+        int width = (int) Math.round(paperSize.getWidthInPixels(dpi));
+        int height = (int) Math.round(paperSize.getHeightInPixels(dpi));
+        double scale = dpi / PaperSize.DEFAULT_DPI;
+        IntList[] strips = cull(operations, scale, height);
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+             PngWriter writer = new PngWriter(out, width, height, dpi)) {
+            ArrayDeque<Future<int[]>> pending = new ArrayDeque<>();
+            int next = 0;
+            for (int strip = 0; strip < strips.length; strip++) {
+                // Keep the window full, then encode the oldest strip
+                while (next < strips.length && pending.size() < stripsInFlight) {
+                    pending.add(submit(executor, operations, strips[next], next, scale, width, height));
+                    strips[next] = null;
+                    next++;
+                }
+                int rows = Math.min(STRIP_HEIGHT, height - strip * STRIP_HEIGHT);
+                writer.writeRows(await(pending), rows);
+            }
+        }
+    }
+
+    /**
+     * Sorts operations into the strips their bounds overlap, keeping drawing order
+     */
+    private static IntList[] cull(OperationStore operations, double scale, int height) {
+        IntList[] strips = new IntList[(height + STRIP_HEIGHT - 1) / STRIP_HEIGHT];
+        for (int op = 0; op < operations.size(); op++) {
+            // One extra pixel for the anti-aliasing ramp
+            int first = Math.max(0, (int) Math.floor((operations.minY(op) * scale - 1) / STRIP_HEIGHT));
+            int last = Math.min(strips.length - 1, (int) Math.floor((operations.maxY(op) * scale + 1) / STRIP_HEIGHT));
+            for (int strip = first; strip <= last; strip++) {
+                if (strips[strip] == null) {
+                    strips[strip] = new IntList(64);
+                }
+                strips[strip].add(op);
+            }
+        }
+        return strips;
+    }
+
+    private Future<int[]> submit(ExecutorService executor, OperationStore operations, IntList selected,
+                                 int strip, double scale, int width, int height) {
+        int top = strip * STRIP_HEIGHT;
+        int rows = Math.min(STRIP_HEIGHT, height - top);
+        IntList ops = selected != null ? selected : new IntList(1);
+        return executor.submit(() -> rasterizer.render(operations, ops,
+                0, top / scale, scale, width, rows, SoftwareRasterizer.WHITE));
+    }
+
+    private static int[] await(ArrayDeque<Future<int[]>> pending) throws IOException {
+        Future<int[]> strip = pending.poll();
+        try {
+            return strip.get();
+        } catch (InterruptedException e) {
+            pending.forEach(future -> future.cancel(true));
+            strip.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Export cancelled");
+        } catch (ExecutionException e) {
+            pending.forEach(future -> future.cancel(true));
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IOException("Failed to render strip", e.getCause());
+        }
+    }
+}
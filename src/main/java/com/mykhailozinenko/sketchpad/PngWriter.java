@@ -0,0 +1,165 @@
+package com.mykhailozinenko.sketchpad;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Streaming PNG encoder for opaque 8-bit RGB images.
+ *
+ * Rows are written top to bottom as they become available and compressed
+ * straight into IDAT chunks of at most {@value #CHUNK_SIZE} bytes, so only
+ * the current row and one chunk are ever buffered, whatever the image size.
+ * Every row uses the Sub filter, which suits line art on a flat background.
+ */
+public final class PngWriter implements AutoCloseable {
+
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final double INCHES_PER_METRE = 1 / 0.0254;
+    private static final byte FILTER_SUB = 1;
+
+    private final OutputStream out;
+    private final int width;
+    private final int height;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private final DeflaterOutputStream idat;
+    private final byte[] row;
+    private int rowsWritten;
+    private boolean closed;
+
+    /**
+     * Writes the PNG header; the caller must then write exactly height rows
+     *
+     * @param dpi resolution recorded in the file so the image prints at paper size
+     */
+    public PngWriter(OutputStream out, int width, int height, double dpi) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid image size " + width + "x" + height);
+        }
+        this.out = out;
+        this.width = width;
+        this.height = height;
+        this.row = new byte[1 + width * 3];
+
+        out.write(SIGNATURE);
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+        writeInt(header, width);
+        writeInt(header, height);
+        header.write(8); // bit depth
+        header.write(2); // colour type: RGB
+        header.write(0); // compression
+        header.write(0); // filter method
+        header.write(0); // no interlace
+        writeChunk("IHDR", header.toByteArray(), header.size());
+
+        ByteArrayOutputStream physical = new ByteArrayOutputStream(9);
+        int pixelsPerMetre = (int) Math.round(dpi * INCHES_PER_METRE);
+        writeInt(physical, pixelsPerMetre);
+        writeInt(physical, pixelsPerMetre);
+        physical.write(1); // unit: metre
+        writeChunk("pHYs", physical.toByteArray(), physical.size());
+
+        idat = new DeflaterOutputStream(new ChunkStream(), deflater, CHUNK_SIZE);
+    }
+
+    /**
+     * Writes rows of ARGB pixels; alpha is ignored since the image is opaque
+     *
+     * @param pixels rows of width pixels each, starting at index 0
+     * @param rows number of rows in the array
+     */
+    public void writeRows(int[] pixels, int rows) throws IOException {
+        if (rowsWritten + rows > height) {
+            throw new IllegalStateException("Image has only " + height + " rows");
+        }
+        for (int y = 0; y < rows; y++) {
+            row[0] = FILTER_SUB;
+            int previous = 0;
+            int source = y * width;
+            for (int x = 0; x < width; x++) {
+                int pixel = pixels[source + x];
+                int b = 1 + x * 3;
+                row[b] = (byte) ((pixel >> 16) - (previous >> 16));
+                row[b + 1] = (byte) ((pixel >> 8) - (previous >> 8));
+                row[b + 2] = (byte) (pixel - previous);
+                previous = pixel;
+            }
+            idat.write(row);
+        }
+        rowsWritten += rows;
+    }
+
+    /**
+     * Finishes the image. Fails if fewer rows than the height were written.
+     * The output stream is left open.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (rowsWritten != height) {
+                throw new IOException("Image incomplete: " + rowsWritten + " of " + height + " rows written");
+            }
+            idat.finish();
+            writeChunk("IEND", new byte[0], 0);
+            out.flush();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+
+        writeInt(out, length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        writeInt(out, (int) crc.getValue());
+    }
+
+    private static void writeInt(OutputStream stream, int value) throws IOException {
+        stream.write(value >>> 24);
+        stream.write(value >>> 16);
+        stream.write(value >>> 8);
+        stream.write(value);
+    }
+
+    /**
+     * Receives compressed data and emits it as IDAT chunks
+     */
+    private final class ChunkStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            while (length > 0) {
+                int chunk = Math.min(length, CHUNK_SIZE);
+                if (offset == 0) {
+                    writeChunk("IDAT", data, chunk);
+                } else {
+                    byte[] copy = new byte[chunk];
+                    System.arraycopy(data, offset, copy, 0, chunk);
+                    writeChunk("IDAT", copy, chunk);
+                }
+                offset += chunk;
+                length -= chunk;
+            }
+        }
+    }
+}
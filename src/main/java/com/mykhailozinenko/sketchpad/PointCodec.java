@@ -0,0 +1,145 @@
+package com.mykhailozinenko.sketchpad;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+
+/**
+ * Compact encoding for the points of an operation.
+ *
+ * Coordinates are quantized to 1/{@value #SCALE} px, which is below what
+ * anti-aliasing can show even at the highest zoom. The first point is
+ * stored relative to the origin and every other point relative to the
+ * previous one, each delta as a zig-zag varint. Consecutive points of a
+ * stroke are a few pixels apart, so a point usually takes 2 to 4 bytes
+ * instead of 8 for a float pair.
+ */
+public final class PointCodec {
+
+    public static final int SCALE = 16;
+
+    private static final ValueLayout.OfByte BYTE = ValueLayout.JAVA_BYTE;
+
+    private PointCodec() {
+    }
+
+    /**
+     * Rounds a coordinate to the nearest value the codec can represent
+     */
+    public static float quantize(double value) {
+        return Math.round(value * SCALE) / (float) SCALE;
+    }
+
+    /**
+     * Gets the encoded size of the given points, in bytes
+     *
+     * @param coords x, y pairs
+     */
+    public static int encodedSize(float[] coords, int count) {
+        int size = 0;
+        int previousX = 0;
+        int previousY = 0;
+        for (int p = 0; p < count; p++) {
+            int x = Math.round(coords[p * 2] * SCALE);
+            int y = Math.round(coords[p * 2 + 1] * SCALE);
+            size += varintSize(zigZag(x - previousX)) + varintSize(zigZag(y - previousY));
+            previousX = x;
+            previousY = y;
+        }
+        return size;
+    }
+
+    /**
+     * Encodes points at the buffer's position
+     *
+     * @param coords x, y pairs
+     */
+    public static void encode(float[] coords, int count, ByteBuffer buffer) {
+        int previousX = 0;
+        int previousY = 0;
+        for (int p = 0; p < count; p++) {
+            int x = Math.round(coords[p * 2] * SCALE);
+            int y = Math.round(coords[p * 2 + 1] * SCALE);
+            putVarint(buffer, zigZag(x - previousX));
+            putVarint(buffer, zigZag(y - previousY));
+            previousX = x;
+            previousY = y;
+        }
+    }
+
+    /**
+     * Decodes points into x, y pairs, growing the array if needed
+     *
+     * @return the array holding the points
+     */
+    public static float[] decode(MemorySegment segment, long offset, int count, float[] coords) {
+        if (coords.length < count * 2) {
+            coords = new float[count * 2];
+        }
+        long position = offset;
+        int x = 0;
+        int y = 0;
+        for (int p = 0; p < count; p++) {
+            // Inlined varints, most deltas fit in one byte
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = segment.get(BYTE, position++);
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            x += (value >>> 1) ^ -(value & 1);
+
+            value = 0;
+            shift = 0;
+            do {
+                b = segment.get(BYTE, position++);
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            y += (value >>> 1) ^ -(value & 1);
+
+            coords[p * 2] = x / (float) SCALE;
+            coords[p * 2 + 1] = y / (float) SCALE;
+        }
+        return coords;
+    }
+
+    static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static int getVarint(ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+}
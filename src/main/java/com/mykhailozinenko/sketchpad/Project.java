@@ -1,11 +1,18 @@
 package com.mykhailozinenko.sketchpad;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.UUID;
 
 /**
- * Represents a SketchPad project with metadata and content
+ * Represents a SketchPad project with metadata and content.
+ * Content of a saved project is loaded on first access through its
+ * {@link ContentCache} and may be unloaded again when memory is tight.
+ * Finished changes are captured by the {@link AutosaveJournal} until the
+ * project is saved, and operations hidden under later ones are dropped in
+ * the background by the {@link OcclusionCompactor}.
  */
 public class Project {
     private String id;
@@ -14,6 +21,12 @@ public class Project {
     private LocalDateTime createdDate;
     private LocalDateTime lastModifiedDate;
     private ProjectContent content;
+    private ContentCache contentCache;
+    private AutosaveJournal journal;
+    private OcclusionCompactor occlusionCompactor;
+    private final UndoHistory history = new UndoHistory();
+    // Written by whichever thread saves the project
+    private volatile long savedLogLength;
 
     // Create a formatter for display
     private static final DateTimeFormatter DATE_FORMATTER =
@@ -41,6 +54,19 @@ public class Project {
         this.content = new ProjectContent(paperSize);
     }
 
+    /**
+     * Recreates a saved project from its stored metadata and, optionally, content
+     */
+    Project(String id, String name, PaperSize paperSize,
+            LocalDateTime createdDate, LocalDateTime lastModifiedDate, ProjectContent content) {
+        this.id = id;
+        this.name = name;
+        this.paperSize = paperSize;
+        this.createdDate = createdDate;
+        this.lastModifiedDate = lastModifiedDate;
+        this.content = content;
+    }
+
     // Getters and setters
 
     public String getId() {
@@ -87,28 +113,215 @@ public class Project {
     }
 
     /**
-     * Gets the project content
+     * Gets the committed length of the project file's log, which grows with
+     * every save that changes content. Zero if the project was never saved.
+     */
+    public long getSavedLogLength() {
+        return savedLogLength;
+    }
+
+    void setSavedLogLength(long savedLogLength) {
+        this.savedLogLength = savedLogLength;
+    }
+
+    /**
+     * Gets the project content, loading it if it is not resident
      */
     public ProjectContent getContent() {
+        if (content == null) {
+            if (contentCache == null) {
+                throw new IllegalStateException("Content of " + name + " is not loaded");
+            }
+            try {
+                content = contentCache.load(this);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to load content of " + name, e);
+            }
+        }
         return content;
     }
 
+    void setContent(ProjectContent content) {
+        this.content = content;
+    }
+
+    /**
+     * Sets the cache that loads and evicts this project's content
+     */
+    void setContentCache(ContentCache contentCache) {
+        this.contentCache = contentCache;
+    }
+
+    /**
+     * Sets the journal that captures finished changes until the project is saved
+     */
+    void setAutosaveJournal(AutosaveJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Sets the compactor that drops operations hidden under later ones
+     */
+    void setOcclusionCompactor(OcclusionCompactor occlusionCompactor) {
+        this.occlusionCompactor = occlusionCompactor;
+    }
+
+    /**
+     * Checks whether the content is resident in memory
+     */
+    public boolean isContentLoaded() {
+        return content != null;
+    }
+
+    /**
+     * Releases the content and undo history. The content is reloaded from
+     * the project file on next access, so it must have been saved first.
+     */
+    void unloadContent() {
+        if (content != null) {
+            content.close();
+            content = null;
+        }
+        history.clear();
+    }
+
+    /**
+     * Replaces saved content with a compact in-memory encoding of it and
+     * drops the undo history, e.g. while the project is inactive. Returns
+     * false if that would not save memory.
+     */
+    boolean compactContent() {
+        if (content == null) {
+            return false;
+        }
+        ProjectContent compacted = content.compact();
+        if (compacted == null) {
+            return false;
+        }
+        content.close();
+        content = compacted;
+        history.clear();
+        return true;
+    }
+
+    /**
+     * Estimates the memory held by the resident content and undo history, in bytes
+     */
+    public long estimateMemoryBytes() {
+        return content != null ? content.estimateMemoryBytes() + history.getUsedBytes() : 0;
+    }
+
     /**
      * Adds a drawing operation to the project content
      */
     public void addDrawOperation(DrawOperation operation) {
-        content.addOperation(operation);
+        ProjectContent target = getContent();
+        history.begin(target);
+        target.addOperation(operation);
+        // Polylines stay open until their gesture is sealed
+        if (!target.hasOpenOperation()) {
+            history.end(target);
+            captureChanges();
+            compactHiddenOperations();
+        }
+        updateLastModified();
+    }
+
+    /**
+     * Extends a polyline operation that is still being drawn
+     */
+    public void extendDrawOperation(DrawOperation.PolylineStrokeOperation operation, double x, double y) {
+        operation.lineTo(x, y);
+        getContent().extendOperation(x, y);
         updateLastModified();
     }
 
+    /**
+     * Seals a polyline operation once its gesture has ended
+     */
+    public void sealDrawOperation(DrawOperation.PolylineStrokeOperation operation) {
+        operation.seal();
+        getContent().sealOperation();
+        history.end(getContent());
+        captureChanges();
+        compactHiddenOperations();
+    }
+
+    /**
+     * Simplifies a polyline operation within the given tolerance, in canvas
+     * pixels, and seals it once its gesture has ended
+     */
+    public void sealDrawOperation(DrawOperation.PolylineStrokeOperation operation, double tolerance) {
+        ProjectContent target = getContent();
+        target.simplifyOperation(tolerance);
+        operation.setPoints(target.getOperations(), target.getOperationCount() - 1);
+        sealDrawOperation(operation);
+    }
+
     /**
      * Clears all drawing content
      */
     public void clearContent() {
-        content.clear();
+        getContent().clear();
+        history.clear();
+        captureChanges();
         updateLastModified();
     }
 
+    /**
+     * Undoes the last drawing gesture. Returns false if there was nothing to undo.
+     */
+    public boolean undo() {
+        boolean undone = history.undo(getContent());
+        if (undone) {
+            captureChanges();
+            updateLastModified();
+        }
+        return undone;
+    }
+
+    /**
+     * Redoes the last undone gesture. Returns false if there was nothing to redo.
+     */
+    public boolean redo() {
+        boolean redone = history.redo(getContent());
+        if (redone) {
+            captureChanges();
+            updateLastModified();
+        }
+        return redone;
+    }
+
+    /**
+     * Gets the undo history, e.g. to adjust its memory budget
+     */
+    public UndoHistory getHistory() {
+        return history;
+    }
+
+    /**
+     * Drops final operations hidden under later ones, see
+     * {@link ProjectContent#replaceHiddenOperations}. The undo history moves
+     * down by the number of dropped operations.
+     */
+    void replaceHiddenOperations(IntList dropped, int end, SpatialIndex rebuilt) {
+        getContent().replaceHiddenOperations(dropped, end, rebuilt);
+        history.shiftOperations(-dropped.size());
+        captureChanges();
+    }
+
+    private void compactHiddenOperations() {
+        if (occlusionCompactor != null) {
+            occlusionCompactor.changed(this);
+        }
+    }
+
+    private void captureChanges() {
+        if (journal != null) {
+            journal.capture(this);
+        }
+    }
+
     /**
      * Updates the last modified date to the current time
      */
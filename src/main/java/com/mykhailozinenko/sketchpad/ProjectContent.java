@@ -4,32 +4,208 @@ import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.image.WritableImage;
 import javafx.scene.paint.Color;
-
-import java.util.ArrayList;
-import java.util.List;
+import javafx.scene.shape.StrokeLineCap;
+import javafx.scene.shape.StrokeLineJoin;
 
 /**
  * Stores drawn content for a project.
- * This implementation uses a vector-based approach to store drawing operations.
+ * This implementation uses a vector-based approach to store drawing operations,
+ * kept in columnar form by {@link OperationStore}.
  */
 public class ProjectContent {
 
-    private List<DrawOperation> operations;
+    private OperationStore operations;
     private PaperSize paperSize;
+    private SpatialIndex spatialIndex;
+    private final ReplayEngine replayEngine = new ReplayEngine();
+    // Mapped project file backing the first operations, or null
+    private MappedOperationLog log;
+    // Reused by replay so culling allocates nothing
+    private final IntList visibleOperations = new IntList();
+    // Created on first render so content can exist without a JavaFX toolkit
+    private TileCache tileCache;
+    // Operations before this index were checked by the OcclusionCompactor
+    private int occlusionChecked;
+    // Counts clears, so a background pass can tell that its snapshot is stale
+    private int clearCount;
 
     /**
      * Creates a new empty project content with the specified paper size
      */
     public ProjectContent(PaperSize paperSize) {
         this.paperSize = paperSize;
-        this.operations = new ArrayList<>();
+        this.operations = new OperationStore();
+        this.spatialIndex = new SpatialIndex(operations, paperSize);
+    }
+
+    /**
+     * Creates content whose existing operations are served from a mapped project file
+     */
+    public ProjectContent(PaperSize paperSize, MappedOperationLog log) {
+        this.paperSize = paperSize;
+        this.operations = new OperationStore(log);
+        this.spatialIndex = new SpatialIndex(operations, paperSize);
+        for (int op = 0; op < operations.size(); op++) {
+            spatialIndex.insert(op);
+        }
+        this.log = log;
     }
 
     /**
      * Adds a new drawing operation to the content
      */
     public void addOperation(DrawOperation operation) {
-        operations.add(operation);
+        operation.appendTo(operations);
+        int op = operations.size() - 1;
+        spatialIndex.insert(op);
+        invalidate(operations.minX(op), operations.minY(op), operations.maxX(op), operations.maxY(op));
+    }
+
+    /**
+     * Adds a sealed operation drawn with an interned brush, e.g. one replayed from a journal
+     *
+     * @param points x, y pairs
+     */
+    public void appendOperation(byte kind, int brushId, float[] points, int count) {
+        operations.addOperation(kind, brushId, points, count);
+        int op = operations.size() - 1;
+        spatialIndex.insert(op);
+        invalidate(operations.minX(op), operations.minY(op), operations.maxX(op), operations.maxY(op));
+    }
+
+    /**
+     * Extends the open polyline operation with another point
+     */
+    public void extendOperation(double x, double y) {
+        operations.extendPolyline(x, y);
+
+        // Only the newly added segment needs to be redrawn
+        int op = operations.size() - 1;
+        int last = operations.pointCount(op) - 1;
+        double radius = operations.width(op) / 2;
+        double minX = Math.min(operations.x(op, last - 1), operations.x(op, last)) - radius;
+        double minY = Math.min(operations.y(op, last - 1), operations.y(op, last)) - radius;
+        double maxX = Math.max(operations.x(op, last - 1), operations.x(op, last)) + radius;
+        double maxY = Math.max(operations.y(op, last - 1), operations.y(op, last)) + radius;
+        spatialIndex.insert(op, minX, minY, maxX, maxY);
+        invalidate(minX, minY, maxX, maxY);
+    }
+
+    /**
+     * Simplifies the open polyline operation within the given tolerance, in canvas pixels
+     */
+    public void simplifyOperation(double tolerance) {
+        int op = operations.size() - 1;
+        if (!operations.hasOpenPolyline() || operations.pointCount(op) < 3) {
+            return;
+        }
+        int pointsBefore = operations.pointCount(op);
+        double minX = operations.minX(op);
+        double minY = operations.minY(op);
+        double maxX = operations.maxX(op);
+        double maxY = operations.maxY(op);
+
+        operations.simplifyPolyline(tolerance);
+        if (operations.pointCount(op) == pointsBefore) {
+            return;
+        }
+
+        // The old segments stay indexed; add the new ones in case they leave those cells
+        double radius = operations.width(op) / 2;
+        for (int p = 1; p < operations.pointCount(op); p++) {
+            spatialIndex.insert(op,
+                    Math.min(operations.x(op, p - 1), operations.x(op, p)) - radius,
+                    Math.min(operations.y(op, p - 1), operations.y(op, p)) - radius,
+                    Math.max(operations.x(op, p - 1), operations.x(op, p)) + radius,
+                    Math.max(operations.y(op, p - 1), operations.y(op, p)) + radius);
+        }
+        // Tiles must match what replay draws, even if the change is sub-pixel
+        invalidate(minX, minY, maxX, maxY);
+    }
+
+    /**
+     * Seals the open polyline operation at the end of a gesture
+     */
+    public void sealOperation() {
+        operations.sealPolyline();
+    }
+
+    /**
+     * Gets the number of stored operations
+     */
+    public int getOperationCount() {
+        return operations.size();
+    }
+
+    /**
+     * Checks whether a polyline is still being extended
+     */
+    public boolean hasOpenOperation() {
+        return operations.hasOpenPolyline();
+    }
+
+    /**
+     * Starts recording tile pre-images for an undoable change.
+     * Does nothing until the content has been rendered.
+     */
+    public void beginTileCapture() {
+        if (tileCache != null) {
+            tileCache.beginCapture();
+        }
+    }
+
+    /**
+     * Ends the tile capture, returning the changed tiles or null if nothing was captured
+     */
+    public TileCache.Patch endTileCapture(int operationsBefore) {
+        return tileCache != null ? tileCache.endCapture(operationsBefore) : null;
+    }
+
+    /**
+     * Removes the operations from the given index onwards and returns them.
+     * The patch's pre-images are swapped in if present; otherwise the
+     * affected tiles are re-rasterized on the next render.
+     */
+    public OperationStore removeOperationsFrom(int first, TileCache.Patch patch) {
+        OperationStore removed = operations.copyRange(first, operations.size());
+        spatialIndex.removeFrom(first);
+        operations.truncate(first);
+        occlusionChecked = Math.min(occlusionChecked, first);
+
+        if (tileCache != null) {
+            if (patch != null) {
+                tileCache.apply(patch.getTiles(), patch.getBefore());
+            } else {
+                invalidate(removed);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Re-appends operations removed by {@link #removeOperationsFrom}, swapping
+     * in the patch's post-images if present
+     */
+    public void appendOperations(OperationStore added, TileCache.Patch patch) {
+        int first = operations.size();
+        operations.appendAll(added);
+        for (int op = first; op < operations.size(); op++) {
+            spatialIndex.insert(op);
+        }
+
+        if (tileCache != null) {
+            if (patch != null) {
+                tileCache.apply(patch.getTiles(), patch.getAfter());
+            } else {
+                invalidate(added);
+            }
+        }
+    }
+
+    private void invalidate(OperationStore changed) {
+        for (int op = 0; op < changed.size(); op++) {
+            tileCache.invalidate(changed.minX(op), changed.minY(op), changed.maxX(op), changed.maxY(op));
+        }
     }
 
     /**
@@ -37,10 +213,54 @@ public class ProjectContent {
      */
     public void clear() {
         operations.clear();
+        spatialIndex.clear();
+        occlusionChecked = 0;
+        clearCount++;
+        if (tileCache != null) {
+            tileCache.invalidateAll();
+        }
     }
 
     /**
-     * Renders all drawing operations to the provided canvas
+     * Swaps in a store without the given hidden heap operations, see
+     * {@link OcclusionCompactor}. What is drawn stays the same, so the tiles
+     * are kept. The spatial index is spliced with entries built for the
+     * operations from the first dropped one up to the given end, and later
+     * entries move down; both are swapped together, so the next render sees
+     * either the old operations or the new ones.
+     *
+     * @param dropped ascending indices of the operations to drop, all before end
+     * @param rebuilt entries of the kept operations from the first dropped one up to end, by their new indices
+     */
+    void replaceHiddenOperations(IntList dropped, int end, SpatialIndex rebuilt) {
+        OperationStore replaced = operations.without(dropped);
+        spatialIndex = spatialIndex.replaceRange(replaced, dropped.get(0), end, rebuilt, -dropped.size());
+        operations = replaced;
+        occlusionChecked = end - dropped.size();
+    }
+
+    int getOcclusionChecked() {
+        return occlusionChecked;
+    }
+
+    void setOcclusionChecked(int occlusionChecked) {
+        this.occlusionChecked = occlusionChecked;
+    }
+
+    int getClearCount() {
+        return clearCount;
+    }
+
+    private void invalidate(double minX, double minY, double maxX, double maxY) {
+        if (tileCache != null) {
+            tileCache.invalidate(minX, minY, maxX, maxY);
+        }
+    }
+
+    /**
+     * Renders all drawing operations to the provided canvas.
+     * Content is drawn from the tile cache, so only tiles changed since the
+     * last render are re-rasterized.
      */
     public void render(Canvas canvas) {
         GraphicsContext gc = canvas.getGraphicsContext2D();
@@ -49,10 +269,74 @@ public class ProjectContent {
         gc.setFill(Color.WHITE);
         gc.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
 
-        // Render all operations
-        for (DrawOperation op : operations) {
-            op.draw(gc);
+        getTileCache().draw(gc);
+    }
+
+    /**
+     * Renders a window of the page at a zoom, from the tile pyramid level that
+     * suits it, onto a canvas the size of the window. The window is in zoomed
+     * pixels, so the canvas never has to be larger than what is on screen.
+     */
+    public void render(Canvas canvas, int level, double zoom, double windowX, double windowY) {
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+
+        gc.setTransform(1, 0, 0, 1, 0, 0);
+        gc.setFill(Color.WHITE);
+        gc.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
+
+        getTileCache().drawScaled(gc, level, zoom, windowX, windowY, canvas.getWidth(), canvas.getHeight());
+    }
+
+    /**
+     * Gets the spatial index over this content's operations
+     */
+    public SpatialIndex getSpatialIndex() {
+        return spatialIndex;
+    }
+
+    /**
+     * Gets the raster tile cache for this content, creating it on first use
+     */
+    public TileCache getTileCache() {
+        if (tileCache == null) {
+            tileCache = new TileCache(this);
         }
+        return tileCache;
+    }
+
+    /**
+     * Replays the operations whose bounds intersect the given rectangle, in order,
+     * stopping at the given operation index
+     */
+    void replay(GraphicsContext gc, double minX, double minY, double maxX, double maxY,
+                int operationLimit) {
+        PerformanceEvents.ReplayEvent event = new PerformanceEvents.ReplayEvent();
+        event.begin();
+        long start = System.nanoTime();
+        long replayedBefore = replayEngine.getOperationCount();
+
+        gc.save();
+        gc.setLineCap(StrokeLineCap.ROUND);
+        gc.setLineJoin(StrokeLineJoin.ROUND);
+        spatialIndex.query(minX, minY, maxX, maxY, visibleOperations);
+        replayEngine.replay(operations, visibleOperations, operationLimit, new GraphicsContextTarget(gc));
+        gc.restore();
+
+        int replayed = (int) (replayEngine.getOperationCount() - replayedBefore);
+        PerformanceMonitor.getInstance().recordReplay(System.nanoTime() - start, replayed);
+        event.end();
+        if (event.shouldCommit()) {
+            event.visibleOperations = visibleOperations.size();
+            event.replayedOperations = replayed;
+            event.commit();
+        }
+    }
+
+    /**
+     * Gets the engine used for replay, e.g. to read its counters
+     */
+    public ReplayEngine getReplayEngine() {
+        return replayEngine;
     }
 
     /**
@@ -63,9 +347,10 @@ public class ProjectContent {
     }
 
     /**
-     * Gets all drawing operations
+     * Gets all drawing operations in columnar form.
+     * Operations are addressed by index, so iterating them allocates nothing.
      */
-    public List<DrawOperation> getOperations() {
+    public OperationStore getOperations() {
         return operations;
     }
 
@@ -84,4 +369,63 @@ public class ProjectContent {
 
         return image;
     }
-}
\ No newline at end of file
+
+    /**
+     * Estimates the heap held by the operations, spatial index and tile cache, in bytes
+     */
+    public long estimateMemoryBytes() {
+        return operations.estimateMemoryBytes()
+                + spatialIndex.estimateMemoryBytes()
+                + (tileCache != null ? tileCache.estimateMemoryBytes() : 0);
+    }
+
+    /**
+     * Re-encodes every operation into packed records held on the heap and
+     * returns content backed by them, without a tile cache. Returns null if
+     * that would not use less memory, e.g. when the operations are already
+     * served from a mapped file. Only fully saved content can be compacted,
+     * so the project file stays in step with the new content.
+     */
+    public ProjectContent compact() {
+        if (!isSaved()) {
+            throw new IllegalStateException("Only saved content can be compacted");
+        }
+        if (operations.getBaseSize() == operations.size() && tileCache == null) {
+            return null;
+        }
+
+        ProjectFile.RecordBuffer records = new ProjectFile.RecordBuffer(64 * 1024);
+        BrushPalette brushes = operations.getBrushes();
+        for (int brush = 0; brush < brushes.size(); brush++) {
+            records.putBrush(brushes.argb(brush), brushes.width(brush));
+        }
+        for (int op = 0; op < operations.size(); op++) {
+            records.putOperation(operations, op);
+        }
+        ProjectContent compacted = new ProjectContent(paperSize, MappedOperationLog.wrap(records.toByteArray()));
+        if (compacted.estimateMemoryBytes() >= estimateMemoryBytes()) {
+            return null;
+        }
+        compacted.operations.markPersisted(operations.size(), operations.getPersistedFileSize());
+        return compacted;
+    }
+
+    /**
+     * Checks whether the project file holds every operation and brush
+     */
+    public boolean isSaved() {
+        return !operations.hasOpenPolyline() && operations.getUnchangedPrefix() == operations.size()
+                && operations.getPersistedSize() == operations.size()
+                && operations.getPersistedBrushCount() == operations.getBrushes().size();
+    }
+
+    /**
+     * Releases the mapped project file, if any. The content must not be used afterwards.
+     */
+    public void close() {
+        if (log != null) {
+            log.close();
+            log = null;
+        }
+    }
+}
@@ -0,0 +1,368 @@
+package com.mykhailozinenko.sketchpad;
+
+import javafx.scene.paint.Color;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Reads and writes the on-disk project format.
+ *
+ * A project file is a fixed-size header with the project metadata followed
+ * by an append-only log of little-endian, 4-byte aligned records:
+ * <ul>
+ *     <li>brush: type, ARGB, width; defines the next brush id</li>
+ *     <li>operation: type, kind, brush id, point count, bounds, encoded
+ *         length, then the points encoded by {@link PointCodec}</li>
+ *     <li>truncate: type, operation count; drops later operations (undo, clear)</li>
+ * </ul>
+ * Saving rewrites the header in place and appends only what changed since
+ * the last save. The last field of the header is the committed length of
+ * the log, written only once the appended records are forced to disk, so a
+ * crash during a save leaves the previous save intact and readers ignore
+ * anything after it. Files written before that field was added hold zero
+ * there and are read to their end. Loading content maps the file with
+ * {@link MappedOperationLog}, so operations are served from the mapping
+ * instead of being deserialized.
+ *
+ * The {@link AutosaveJournal} writes the same records after its own header.
+ */
+public final class ProjectFile {
+
+    public static final String EXTENSION = ".skp";
+
+    static final int MAGIC = 0x44504B53; // "SKPD"
+    // Version 2 replaced per-operation colour index and width with a brush id,
+    // version 3 raw float points with delta-encoded varints
+    static final int VERSION = 3;
+    static final int HEADER_SIZE = 512;
+    static final int MAX_NAME_BYTES = 400;
+    static final int COMMITTED_LENGTH_OFFSET = HEADER_SIZE - 8;
+
+    static final byte RECORD_BRUSH = 1;
+    static final byte RECORD_OPERATION = 2;
+    static final byte RECORD_TRUNCATE = 3;
+    static final int SMALL_RECORD_SIZE = 8;
+    static final int BRUSH_RECORD_SIZE = 12;
+    static final int OPERATION_HEADER_SIZE = 32;
+
+    private ProjectFile() {
+    }
+
+    /**
+     * Opens a project file with its content. The content reads its
+     * operations from the mapped file until it is closed.
+     */
+    public static Project load(Path file) throws IOException {
+        Project project = readHeader(file);
+        project.setContent(loadContent(file, project.getPaperSize()));
+        return project;
+    }
+
+    /**
+     * Reads only a project's metadata; its content is left unloaded
+     */
+    public static Project readHeader(Path file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        long logEnd;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // Keep reading until the header is complete or the file ends
+            }
+            logEnd = readLogEnd(channel);
+        }
+        header.flip();
+        if (header.remaining() < HEADER_SIZE || header.getInt(0) != MAGIC) {
+            throw new IOException("Not a SketchPad project: " + file);
+        }
+        int version = header.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported project version " + version + ": " + file);
+        }
+
+        UUID id = new UUID(header.getLong(8), header.getLong(16));
+        LocalDateTime created = LocalDateTime.ofEpochSecond(header.getLong(24), header.getInt(40), ZoneOffset.UTC);
+        LocalDateTime modified = LocalDateTime.ofEpochSecond(header.getLong(32), header.getInt(44), ZoneOffset.UTC);
+        PaperSize paperSize = PaperSize.values()[header.getInt(48)];
+
+        byte[] nameBytes = new byte[Math.min(MAX_NAME_BYTES, header.getInt(52))];
+        header.get(56, nameBytes);
+        String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+        Project project = new Project(id.toString(), name, paperSize, created, modified, null);
+        project.setSavedLogLength(logEnd);
+        return project;
+    }
+
+    /**
+     * Maps a project file's operation log as content
+     */
+    public static ProjectContent loadContent(Path file, PaperSize paperSize) throws IOException {
+        return new ProjectContent(paperSize, MappedOperationLog.open(file));
+    }
+
+    /**
+     * Writes the project's metadata and appends every content change made
+     * since the last save. Creates the file if needed. Content that is not
+     * loaded has nothing unsaved, so only the header is written then.
+     */
+    public static void save(Project project, Path file) throws IOException {
+        if (!project.isContentLoaded()) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.write(encodeHeader(project, 0).limit(COMMITTED_LENGTH_OFFSET), 0);
+            }
+            return;
+        }
+        SaveSnapshot snapshot = snapshot(project);
+        markSaved(project, snapshot, write(snapshot, file));
+    }
+
+    /**
+     * A save encoded on the thread that owns the content, so the file can be
+     * written on another one
+     *
+     * @param baseLength committed length of the log the records follow on from
+     */
+    record SaveSnapshot(ByteBuffer header, RecordBuffer records, int operationCount, int brushCount,
+                        long baseLength) {
+    }
+
+    /**
+     * Encodes the project's metadata and every content change made since the
+     * last save, and starts tracking later changes, see {@link #markSaved}.
+     * The content must be loaded.
+     */
+    static SaveSnapshot snapshot(Project project) {
+        OperationStore operations = project.getContent().getOperations();
+        BrushPalette brushes = operations.getBrushes();
+        long baseLength = operations.getPersistedFileSize();
+
+        // An open polyline is saved once its gesture is sealed
+        int end = operations.size() - (operations.hasOpenPolyline() ? 1 : 0);
+        int first = Math.min(operations.getUnchangedPrefix(), end);
+
+        ByteBuffer header = encodeHeader(project, HEADER_SIZE);
+        if (baseLength >= HEADER_SIZE) {
+            // The committed length moves only once the records are durable
+            header.limit(COMMITTED_LENGTH_OFFSET);
+        }
+        RecordBuffer records = new RecordBuffer(1024);
+        if (first < operations.getPersistedSize()) {
+            records.putTruncate(first);
+        }
+        for (int brush = operations.getPersistedBrushCount(); brush < brushes.size(); brush++) {
+            records.putBrush(brushes.argb(brush), brushes.width(brush));
+        }
+        for (int op = first; op < end; op++) {
+            records.putOperation(operations, op);
+        }
+        operations.markSaving();
+        return new SaveSnapshot(header, records, end, brushes.size(), baseLength);
+    }
+
+    /**
+     * Writes a snapshot to the project file and commits it. Fails if the file
+     * no longer ends where the snapshot follows on from, e.g. because it was
+     * saved since. Returns the committed length of the log afterwards.
+     */
+    static long write(SaveSnapshot snapshot, Path file) throws IOException {
+        boolean create = snapshot.baseLength() < HEADER_SIZE;
+        try (FileChannel channel = create
+                ? FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (readLogEnd(channel) != snapshot.baseLength()) {
+                throw new IOException("Project file changed since the save was prepared: " + file);
+            }
+            ByteBuffer header = snapshot.header().duplicate();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+
+            // Overwrites whatever a save that never committed left behind
+            long position = Math.max(HEADER_SIZE, snapshot.baseLength());
+            position += snapshot.records().writeTo(channel, position);
+            channel.force(false);
+            ByteBuffer length = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(0, position);
+            channel.write(length, COMMITTED_LENGTH_OFFSET);
+            channel.force(false);
+            return position;
+        }
+    }
+
+    /**
+     * Records that a snapshot was written. Changes made since it was taken
+     * stay unsaved.
+     *
+     * @param length committed length of the log afterwards, from {@link #write}
+     */
+    static void markSaved(Project project, SaveSnapshot snapshot, long length) {
+        project.setSavedLogLength(length);
+        if (project.isContentLoaded()) {
+            project.getContent().getOperations().markSaved(snapshot.operationCount(), snapshot.brushCount(), length);
+        }
+    }
+
+    /**
+     * Gets the length of a project file's log as of its last committed save
+     */
+    public static long readLogEnd(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return readLogEnd(channel);
+        }
+    }
+
+    /**
+     * Gets the length of the log as of the last committed save, or the file
+     * size if the file does not record it
+     */
+    static long readLogEnd(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size < HEADER_SIZE) {
+            return size;
+        }
+        ByteBuffer length = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        while (length.hasRemaining() && channel.read(length, COMMITTED_LENGTH_OFFSET + length.position()) >= 0) {
+            // Keep reading until the field is complete
+        }
+        long committed = length.getLong(0);
+        return committed >= HEADER_SIZE ? Math.min(committed, size) : size;
+    }
+
+    private static ByteBuffer encodeHeader(Project project, long committedLength) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        UUID id = UUID.fromString(project.getId());
+        byte[] name = encodeName(project.getName());
+
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putLong(id.getMostSignificantBits());
+        header.putLong(id.getLeastSignificantBits());
+        header.putLong(project.getCreatedDate().toEpochSecond(ZoneOffset.UTC));
+        header.putLong(project.getLastModifiedDate().toEpochSecond(ZoneOffset.UTC));
+        header.putInt(project.getCreatedDate().getNano());
+        header.putInt(project.getLastModifiedDate().getNano());
+        header.putInt(project.getPaperSize().ordinal());
+        header.putInt(name.length);
+        header.put(name);
+        header.putLong(COMMITTED_LENGTH_OFFSET, committedLength);
+
+        header.clear();
+        return header;
+    }
+
+    /**
+     * Encodes the name as UTF-8, dropping whole characters until it fits the header
+     */
+    private static byte[] encodeName(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        while (bytes.length > MAX_NAME_BYTES) {
+            name = name.substring(0, name.length() - 1);
+            bytes = name.getBytes(StandardCharsets.UTF_8);
+        }
+        return bytes;
+    }
+
+    static int toArgb(Color color) {
+        return (int) Math.round(color.getOpacity() * 255) << 24
+                | (int) Math.round(color.getRed() * 255) << 16
+                | (int) Math.round(color.getGreen() * 255) << 8
+                | (int) Math.round(color.getBlue() * 255);
+    }
+
+    static Color toColor(int argb) {
+        return Color.rgb((argb >> 16) & 0xFF, (argb >> 8) & 0xFF, argb & 0xFF, ((argb >>> 24) & 0xFF) / 255.0);
+    }
+
+    /**
+     * Encodes records into a growable little-endian buffer
+     */
+    static final class RecordBuffer {
+        private ByteBuffer buffer;
+        private float[] points = new float[256];
+
+        RecordBuffer(int capacity) {
+            buffer = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        void putBrush(int argb, float width) {
+            ensure(BRUSH_RECORD_SIZE);
+            buffer.putInt(RECORD_BRUSH);
+            buffer.putInt(argb);
+            buffer.putFloat(width);
+        }
+
+        void putTruncate(int operationCount) {
+            ensure(SMALL_RECORD_SIZE);
+            buffer.putInt(RECORD_TRUNCATE);
+            buffer.putInt(operationCount);
+        }
+
+        void putOperation(OperationStore operations, int op) {
+            int count = operations.pointCount(op);
+            points = operations.points(op, points);
+            int encoded = PointCodec.encodedSize(points, count);
+            // Keep records 4-byte aligned
+            int padding = -encoded & 3;
+            ensure(OPERATION_HEADER_SIZE + encoded + padding);
+
+            buffer.put(RECORD_OPERATION);
+            buffer.put(operations.kind(op));
+            buffer.putShort((short) 0);
+            buffer.putInt(operations.brushId(op));
+            buffer.putInt(count);
+            buffer.putFloat(operations.minX(op));
+            buffer.putFloat(operations.minY(op));
+            buffer.putFloat(operations.maxX(op));
+            buffer.putFloat(operations.maxY(op));
+            buffer.putInt(encoded + padding);
+            PointCodec.encode(points, count, buffer);
+            for (int i = 0; i < padding; i++) {
+                buffer.put((byte) 0);
+            }
+        }
+
+        /**
+         * Gets the number of bytes encoded so far
+         */
+        int size() {
+            return buffer.position();
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer.array(), buffer.position());
+        }
+
+        /**
+         * Writes the encoded records at the given file position and empties the buffer.
+         * Returns the number of bytes written.
+         */
+        int writeTo(FileChannel channel, long position) throws IOException {
+            buffer.flip();
+            int written = 0;
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer, position + written);
+            }
+            buffer.clear();
+            return written;
+        }
+
+        private void ensure(int bytes) {
+            if (buffer.remaining() < bytes) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes))
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                buffer.flip();
+                grown.put(buffer);
+                buffer = grown;
+            }
+        }
+    }
+}
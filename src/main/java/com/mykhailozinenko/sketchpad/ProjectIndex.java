@@ -0,0 +1,412 @@
+package com.mykhailozinenko.sketchpad;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Sorted, searchable view of a set of projects, kept up to date incrementally.
+ *
+ * Every project gets a dense slot holding a snapshot of its sort keys, so a
+ * project can be found and moved even after its name or date changed. The
+ * slots are kept in one array in the current sort order, and adding,
+ * removing or updating a project reports the position it left or took in
+ * the search results, so a list showing them can apply exactly that change.
+ * Each sort order is built the first time it is used and then maintained
+ * along with the others, so switching back to it costs no more than a search.
+ *
+ * Search is a case-insensitive substring match on the name, which includes
+ * prefixes. Names are indexed by their trigrams: a query of three or more
+ * characters only checks the projects containing its rarest trigram, and
+ * shorter ones scan the names. Postings are append-only; entries left behind
+ * by renamed or removed projects are filtered out when checking matches and
+ * dropped when the index is rebuilt, once they outnumber the live ones.
+ */
+public final class ProjectIndex {
+
+    public enum Sort {
+        CREATED("Date created"),
+        LAST_MODIFIED("Last modified"),
+        NAME("Name");
+
+        private final String label;
+
+        Sort(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    private static final IntList NO_SLOTS = new IntList(1);
+
+    // Slot state; a slot is free when its project is null
+    private final List<Project> projects = new ArrayList<>();
+    private final Map<Project, Integer> slots = new IdentityHashMap<>();
+    private final IntList freeSlots = new IntList();
+    private String[] ids = new String[64];
+    private String[] names = new String[64];
+    private long[] created = new long[64];
+    private long[] modified = new long[64];
+
+    // Trigram of a lowercase name to the slots that contained it when indexed
+    private final Map<Long, IntList> postings = new HashMap<>();
+    private long postingEntries;
+    private long staleEntries;
+
+    // Every slot in each sort order, or null until that order is first used
+    private final IntList[] orders = new IntList[Sort.values().length];
+    // The slots matching the query, in the current order
+    private final IntList results = new IntList();
+    private final BitSet matches = new BitSet();
+    private Sort sort = Sort.CREATED;
+    private String query = "";
+
+    /**
+     * Replaces the indexed projects
+     */
+    public void setAll(Collection<Project> all) {
+        projects.clear();
+        slots.clear();
+        freeSlots.clear();
+        postings.clear();
+        postingEntries = 0;
+        staleEntries = 0;
+        Arrays.fill(orders, null);
+        IntList ordered = new IntList(all.size());
+        for (Project project : all) {
+            if (!slots.containsKey(project)) {
+                ordered.add(store(project));
+            }
+        }
+        sort(ordered, sort);
+        orders[sort.ordinal()] = ordered;
+        filter();
+    }
+
+    /**
+     * Adds a project. Returns its position in the results, or -1 if it does not match the query.
+     */
+    public int add(Project project) {
+        if (slots.containsKey(project)) {
+            return -1;
+        }
+        int slot = store(project);
+        for (Sort order : Sort.values()) {
+            IntList ordered = orders[order.ordinal()];
+            if (ordered != null) {
+                ordered.insert(insertionPoint(ordered, slot, order), slot);
+            }
+        }
+        if (!matches(slot)) {
+            return -1;
+        }
+        int position = insertionPoint(results, slot, sort);
+        results.insert(position, slot);
+        return position;
+    }
+
+    /**
+     * Removes a project. Returns the position it had in the results, or -1 if it was not among them.
+     */
+    public int remove(Project project) {
+        Integer slot = slots.remove(project);
+        if (slot == null) {
+            return -1;
+        }
+        for (Sort order : Sort.values()) {
+            IntList ordered = orders[order.ordinal()];
+            if (ordered != null) {
+                ordered.removeAt(find(ordered, slot, order));
+            }
+        }
+        int position = find(results, slot, sort);
+        if (position >= 0) {
+            results.removeAt(position);
+        }
+
+        // Its postings stay behind until they outnumber the live ones
+        staleEntries += trigramCount(names[slot]);
+        projects.set(slot, null);
+        names[slot] = null;
+        freeSlots.add(slot);
+        if (staleEntries > postingEntries / 2) {
+            rebuildPostings();
+        }
+        return Math.max(position, -1);
+    }
+
+    /**
+     * Takes a free slot for a project and indexes its name
+     */
+    private int store(Project project) {
+        int slot;
+        if (freeSlots.isEmpty()) {
+            slot = projects.size();
+            projects.add(project);
+            if (slot == ids.length) {
+                int capacity = slot * 2;
+                ids = Arrays.copyOf(ids, capacity);
+                names = Arrays.copyOf(names, capacity);
+                created = Arrays.copyOf(created, capacity);
+                modified = Arrays.copyOf(modified, capacity);
+            }
+        } else {
+            slot = freeSlots.last();
+            freeSlots.truncate(freeSlots.size() - 1);
+            projects.set(slot, project);
+        }
+        slots.put(project, slot);
+        ids[slot] = project.getId();
+        names[slot] = project.getName().toLowerCase(Locale.ROOT);
+        created[slot] = toKey(project.getCreatedDate());
+        modified[slot] = toKey(project.getLastModifiedDate());
+        indexName(slot);
+        return slot;
+    }
+
+    private void indexName(int slot) {
+        String name = names[slot];
+        for (int i = 0; i + 3 <= name.length(); i++) {
+            postings.computeIfAbsent(trigram(name, i), key -> new IntList(4)).add(slot);
+            postingEntries++;
+        }
+    }
+
+    private void rebuildPostings() {
+        postings.clear();
+        postingEntries = 0;
+        staleEntries = 0;
+        for (int slot = 0; slot < projects.size(); slot++) {
+            if (projects.get(slot) != null) {
+                indexName(slot);
+            }
+        }
+    }
+
+    /**
+     * Converts a date to nanoseconds that order the same way, which compare faster
+     */
+    private static long toKey(LocalDateTime date) {
+        return date.toEpochSecond(ZoneOffset.UTC) * 1_000_000_000L + date.getNano();
+    }
+
+    private static long trigram(String text, int start) {
+        return (long) text.charAt(start) << 32 | (long) text.charAt(start + 1) << 16 | text.charAt(start + 2);
+    }
+
+    private static int trigramCount(String text) {
+        return Math.max(0, text.length() - 2);
+    }
+
+    /**
+     * Changes the sort order of the projects and results
+     */
+    public void setSort(Sort sort) {
+        if (this.sort != sort) {
+            this.sort = sort;
+            if (orders[sort.ordinal()] == null) {
+                // Built from any existing order, which already holds every slot
+                IntList ordered = new IntList(slots.size());
+                IntList source = results.size() == slots.size() ? results : anyOrder();
+                for (int i = 0; i < source.size(); i++) {
+                    ordered.add(source.get(i));
+                }
+                sort(ordered, sort);
+                orders[sort.ordinal()] = ordered;
+            }
+            filter();
+        }
+    }
+
+    public Sort getSort() {
+        return sort;
+    }
+
+    /**
+     * Shows only projects whose name contains the query, ignoring case; empty shows all
+     */
+    public void setQuery(String query) {
+        String normalized = query == null ? "" : query.strip().toLowerCase(Locale.ROOT);
+        if (!normalized.equals(this.query)) {
+            this.query = normalized;
+            filter();
+        }
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    private boolean matches(int slot) {
+        return query.isEmpty() || names[slot].contains(query);
+    }
+
+    /**
+     * Recomputes the results from the ordered slots
+     */
+    private void filter() {
+        IntList ordered = orders[sort.ordinal()];
+        results.clear();
+        if (query.length() < 3) {
+            for (int i = 0; i < ordered.size(); i++) {
+                if (matches(ordered.get(i))) {
+                    results.add(ordered.get(i));
+                }
+            }
+            return;
+        }
+
+        // Only names containing the rarest trigram of the query can match
+        IntList candidates = rarestPosting();
+        if (candidates.isEmpty()) {
+            return;
+        }
+        matches.clear();
+        for (int i = 0; i < candidates.size(); i++) {
+            int slot = candidates.get(i);
+            // Postings may still hold renamed or removed projects
+            if (names[slot] != null && names[slot].contains(query)) {
+                matches.set(slot);
+            }
+        }
+        for (int i = 0; i < ordered.size(); i++) {
+            if (matches.get(ordered.get(i))) {
+                results.add(ordered.get(i));
+            }
+        }
+    }
+
+    private IntList rarestPosting() {
+        IntList rarest = null;
+        for (int i = 0; i + 3 <= query.length(); i++) {
+            IntList posting = postings.get(trigram(query, i));
+            if (posting == null) {
+                return NO_SLOTS;
+            }
+            if (rarest == null || posting.size() < rarest.size()) {
+                rarest = posting;
+            }
+        }
+        return rarest;
+    }
+
+    private IntList anyOrder() {
+        for (IntList ordered : orders) {
+            if (ordered != null) {
+                return ordered;
+            }
+        }
+        throw new IllegalStateException("No order built");
+    }
+
+    /**
+     * Merge sorts the slots of a list on int arrays, so no slot is boxed
+     */
+    private void sort(IntList ordered, Sort order) {
+        int[] from = ordered.toArray();
+        int[] to = new int[from.length];
+        for (int width = 1; width < from.length; width *= 2) {
+            for (int start = 0; start < from.length; start += width * 2) {
+                int middle = Math.min(start + width, from.length);
+                int end = Math.min(start + width * 2, from.length);
+                int left = start;
+                int right = middle;
+                for (int i = start; i < end; i++) {
+                    if (right >= end || left < middle && compare(from[left], from[right], order) <= 0) {
+                        to[i] = from[left++];
+                    } else {
+                        to[i] = from[right++];
+                    }
+                }
+            }
+            int[] swap = from;
+            from = to;
+            to = swap;
+        }
+        for (int i = 0; i < from.length; i++) {
+            ordered.set(i, from[i]);
+        }
+    }
+
+    /**
+     * Orders two slots by a sort, with the ID as the final tie-breaker
+     */
+    private int compare(int a, int b, Sort order) {
+        if (a == b) {
+            return 0;
+        }
+        int result = switch (order) {
+            case CREATED -> Long.compare(created[a], created[b]);
+            // Most recent first
+            case LAST_MODIFIED -> Long.compare(modified[b], modified[a]);
+            case NAME -> {
+                int byName = names[a].compareTo(names[b]);
+                yield byName != 0 ? byName : Long.compare(created[a], created[b]);
+            }
+        };
+        return result != 0 ? result : ids[a].compareTo(ids[b]);
+    }
+
+    /**
+     * Finds a slot in a list sorted by the given order, returning -(insertion point) - 1 if absent
+     */
+    private int find(IntList list, int slot, Sort order) {
+        int low = 0;
+        int high = list.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int comparison = compare(list.get(mid), slot, order);
+            if (comparison < 0) {
+                low = mid + 1;
+            } else if (comparison > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private int insertionPoint(IntList list, int slot, Sort order) {
+        int position = find(list, slot, order);
+        return position >= 0 ? position : -(position + 1);
+    }
+
+    /**
+     * Gets the projects matching the query, in sort order
+     */
+    public List<Project> getResults() {
+        List<Project> list = new ArrayList<>(results.size());
+        for (int i = 0; i < results.size(); i++) {
+            list.add(projects.get(results.get(i)));
+        }
+        return list;
+    }
+
+    public int getResultCount() {
+        return results.size();
+    }
+
+    public boolean contains(Project project) {
+        return slots.containsKey(project);
+    }
+
+    /**
+     * Gets the number of indexed projects
+     */
+    public int size() {
+        return slots.size();
+    }
+}
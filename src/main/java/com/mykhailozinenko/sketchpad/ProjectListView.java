@@ -3,32 +3,46 @@ package com.mykhailozinenko.sketchpad;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.control.Button;
+import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.ContextMenu;
 import javafx.scene.control.Label;
 import javafx.scene.control.ListCell;
 import javafx.scene.control.ListView;
 import javafx.scene.control.MenuItem;
-import javafx.scene.control.ScrollPane;
 import javafx.scene.control.SeparatorMenuItem;
+import javafx.scene.control.TextField;
+import javafx.scene.image.ImageView;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.Region;
+import javafx.scene.layout.StackPane;
 import javafx.scene.layout.VBox;
 import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
 import javafx.stage.Stage;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Future;
 
 /**
  * Modern macOS-style project list view shown at startup
  */
 public class ProjectListView extends BorderPane {
 
+    // Thumbnail and the vertical padding of a cell
+    private static final double CELL_HEIGHT = ThumbnailCache.THUMBNAIL_SIZE + 24;
+
     private ListView<Project> projectListView;
     private ProjectManager projectManager;
     private Button newProjectButton;
+    private TextField searchField;
+    private ChoiceBox<ProjectIndex.Sort> sortChoice;
+    // Sorted and filtered view of the registry that the list shows
+    private final ProjectIndex projectIndex = new ProjectIndex();
+    // Applies registry changes while the view is in a window
+    private final ProjectManager.ProjectListener projectListener = this::applyChanges;
 
     public ProjectListView() {
         projectManager = ProjectManager.getInstance();
@@ -36,20 +50,19 @@ public class ProjectListView extends BorderPane {
         // Set up the header
         setupHeader();
 
-        // Set up the project list
+        // Set up the project list; it is filled once shown in a window
         setupProjectList();
 
-        // Load projects when the component is created
-        updateProjectList();
-
-        // Refresh the list when the component becomes visible
+        // Follow registry changes while shown, and stop once the window shows another scene
         sceneProperty().addListener((obs, oldScene, newScene) -> {
             if (newScene != null) {
                 newScene.windowProperty().addListener((prop, oldWindow, newWindow) -> {
                     if (newWindow != null) {
-                        newWindow.onShownProperty().addListener((prop2, oldVal, newVal) -> {
-                            updateProjectList();
-                        });
+                        projectManager.addProjectListener(projectListener);
+                        // Catch up with anything changed while not listening
+                        updateProjectList();
+                    } else {
+                        projectManager.removeProjectListener(projectListener);
                     }
                 });
             }
@@ -67,11 +80,29 @@ public class ProjectListView extends BorderPane {
         Region spacer = new Region();
         HBox.setHgrow(spacer, Priority.ALWAYS);
 
+        // Filters as you type, through the name index
+        searchField = new TextField();
+        searchField.setPromptText("Search projects");
+        searchField.setPrefWidth(200);
+        searchField.textProperty().addListener((obs, oldText, newText) -> {
+            projectIndex.setQuery(newText);
+            showResults();
+        });
+
+        sortChoice = new ChoiceBox<>();
+        sortChoice.getItems().setAll(ProjectIndex.Sort.values());
+        sortChoice.setValue(projectIndex.getSort());
+        sortChoice.valueProperty().addListener((obs, oldSort, newSort) -> {
+            projectIndex.setSort(newSort);
+            showResults();
+        });
+
         newProjectButton = new Button("New Project");
         newProjectButton.getStyleClass().add("primary-button");
         newProjectButton.setOnAction(e -> createNewProject());
 
-        header.getChildren().addAll(titleLabel, spacer, newProjectButton);
+        header.setSpacing(10);
+        header.getChildren().addAll(titleLabel, spacer, searchField, sortChoice, newProjectButton);
 
         setTop(header);
     }
@@ -81,16 +112,14 @@ public class ProjectListView extends BorderPane {
         projectListView.getStyleClass().add("project-list-view");
 
         projectListView.setCellFactory(listView -> new ProjectListCell());
+        // Every row is a thumbnail plus padding, so rows need not be measured
+        projectListView.setFixedCellSize(CELL_HEIGHT);
 
-        // Add the list to a scroll pane
-        ScrollPane scrollPane = new ScrollPane(projectListView);
-        scrollPane.setFitToWidth(true);
-        scrollPane.setFitToHeight(true);
-
+        // The list scrolls itself, creating cells only for the visible rows
         VBox contentBox = new VBox(10);
         contentBox.setPadding(new Insets(0, 30, 30, 30));
-        contentBox.getChildren().add(scrollPane);
-        VBox.setVgrow(scrollPane, Priority.ALWAYS);
+        contentBox.getChildren().add(projectListView);
+        VBox.setVgrow(projectListView, Priority.ALWAYS);
 
         setCenter(contentBox);
 
@@ -102,10 +131,60 @@ public class ProjectListView extends BorderPane {
         });
     }
 
+    /**
+     * Rebuilds the index and the list from the registry
+     */
     private void updateProjectList() {
-        projectListView.getItems().clear();
-        projectListView.getItems().addAll(projectManager.getAllProjects());
-        System.out.println("Project list updated. Projects count: " + projectManager.getAllProjects().size());
+        projectIndex.setAll(projectManager.getAllProjects());
+        showResults();
+    }
+
+    private void showResults() {
+        projectListView.getItems().setAll(projectIndex.getResults());
+    }
+
+    /**
+     * Applies a batch of registry changes to the index and inserts, moves or
+     * removes only the affected rows
+     */
+    private void applyChanges(List<ProjectManager.ProjectChange> changes) {
+        List<Project> items = projectListView.getItems();
+        for (ProjectManager.ProjectChange change : changes) {
+            Project project = change.project();
+            switch (change.type()) {
+                case ADDED -> {
+                    int position = projectIndex.add(project);
+                    if (position >= 0) {
+                        items.add(position, project);
+                    }
+                }
+                case UPDATED -> {
+                    if (!projectIndex.contains(project)) {
+                        continue;
+                    }
+                    // Its name or date may have moved it, or taken it in or out of the results
+                    int from = projectIndex.remove(project);
+                    int to = projectIndex.add(project);
+                    if (from >= 0 && from == to) {
+                        // Redraws the row with the new name and thumbnail
+                        items.set(to, project);
+                    } else {
+                        if (from >= 0) {
+                            items.remove(from);
+                        }
+                        if (to >= 0) {
+                            items.add(to, project);
+                        }
+                    }
+                }
+                case REMOVED -> {
+                    int position = projectIndex.remove(project);
+                    if (position >= 0) {
+                        items.remove(position);
+                    }
+                }
+            }
+        }
     }
 
     private void createNewProject() {
@@ -113,8 +192,8 @@ public class ProjectListView extends BorderPane {
         Optional<Project> result = dialog.showAndWait();
 
         result.ifPresent(project -> {
-            projectManager.getAllProjects().add(project);
-            updateProjectList();
+            // The list adds it once the change is delivered
+            projectManager.addProject(project);
             projectListView.getSelectionModel().select(project);
             openProject(project);
         });
@@ -123,15 +202,13 @@ public class ProjectListView extends BorderPane {
     private void editProject(Project project) {
         ProjectDialog dialog = new ProjectDialog(getScene().getWindow(), project);
         dialog.showAndWait().ifPresent(updatedProject -> {
-            updateProjectList();
+            projectManager.saveProject(updatedProject);
             projectListView.getSelectionModel().select(updatedProject);
         });
     }
 
     private void deleteProject(Project project) {
-        if (projectManager.deleteProject(project)) {
-            updateProjectList();
-        }
+        projectManager.deleteProject(project);
     }
 
     private void openSelectedProject() {
@@ -157,8 +234,11 @@ public class ProjectListView extends BorderPane {
         private VBox content;
         private Label nameLabel;
         private Label dateLabel;
+        private ImageView thumbnailView;
         private Button menuButton;
         private ContextMenu contextMenu;
+        // Thumbnail request still running for the shown project, if any
+        private Future<?> pendingThumbnail;
 
         public ProjectListCell() {
             // Create cell content
@@ -174,6 +254,13 @@ public class ProjectListView extends BorderPane {
             dateLabel = new Label();
             dateLabel.getStyleClass().add("date-label");
 
+            // Create the thumbnail, with a fixed-size frame so rows keep their height while it loads
+            thumbnailView = new ImageView();
+            StackPane thumbnailFrame = new StackPane(thumbnailView);
+            thumbnailFrame.getStyleClass().add("thumbnail-frame");
+            thumbnailFrame.setMinSize(ThumbnailCache.THUMBNAIL_SIZE, ThumbnailCache.THUMBNAIL_SIZE);
+            thumbnailFrame.setMaxSize(ThumbnailCache.THUMBNAIL_SIZE, ThumbnailCache.THUMBNAIL_SIZE);
+
             // Create menu button
             menuButton = new Button("⋮");
             menuButton.getStyleClass().add("menu-button");
@@ -189,7 +276,7 @@ public class ProjectListView extends BorderPane {
             contextMenu.getItems().addAll(editItem, new SeparatorMenuItem(), deleteItem);
 
             // Create a container for the content and menu
-            HBox container = new HBox();
+            HBox container = new HBox(15);
             container.setAlignment(Pos.CENTER_LEFT);
 
             VBox textContainer = new VBox(5);
@@ -198,7 +285,7 @@ public class ProjectListView extends BorderPane {
             Region spacer = new Region();
             HBox.setHgrow(spacer, Priority.ALWAYS);
 
-            container.getChildren().addAll(textContainer, spacer, menuButton);
+            container.getChildren().addAll(thumbnailFrame, textContainer, spacer, menuButton);
 
             content.getChildren().add(container);
 
@@ -225,16 +312,38 @@ public class ProjectListView extends BorderPane {
         protected void updateItem(Project project, boolean empty) {
             super.updateItem(project, empty);
 
+            // The cell was scrolled away or reused, so its old request is no longer needed
+            cancelThumbnail();
+
             if (empty || project == null) {
                 setText(null);
                 setGraphic(null);
             } else {
                 nameLabel.setText(project.getName());
                 dateLabel.setText(project.getFormattedCreatedDate());
+                requestThumbnail(project);
 
                 setGraphic(content);
             }
         }
+
+        private void requestThumbnail(Project project) {
+            thumbnailView.setImage(null);
+            pendingThumbnail = projectManager.getThumbnailCache().request(project, image -> {
+                // Ignore results that arrive after the cell moved on
+                if (getItem() == project) {
+                    thumbnailView.setImage(image);
+                    pendingThumbnail = null;
+                }
+            });
+        }
+
+        private void cancelThumbnail() {
+            if (pendingThumbnail != null) {
+                pendingThumbnail.cancel(true);
+                pendingThumbnail = null;
+            }
+        }
     }
 
     // Define a functional interface for project open handling
@@ -1,32 +1,140 @@
 package com.mykhailozinenko.sketchpad;
 
+import javafx.application.Platform;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * Manages projects for the SketchPad application
+ * Manages projects for the SketchPad application.
+ * Projects are stored as {@link ProjectFile}s in the storage directory,
+ * which defaults to ~/.sketchpad/projects and can be overridden with the
+ * sketchpad.home system property. Unsaved changes are journaled by an
+ * {@link AutosaveJournal} and recovered on the next launch after a crash.
+ *
+ * The registry may be used from any thread. Reads take no lock: the
+ * projects are kept in a copy-on-write list in creation order, with a
+ * concurrent index by ID next to it, and changes to both are made under one
+ * lock. Listeners are told about changes on the FX thread, in batches: every
+ * change made before a pending batch is delivered joins that batch.
  */
 public class ProjectManager {
-    private static ProjectManager instance;
-    private List<Project> projects;
-    private Project currentProject;
+
+    /**
+     * Receives batches of registry changes on the FX thread
+     */
+    @FunctionalInterface
+    public interface ProjectListener {
+        void projectsChanged(List<ProjectChange> changes);
+    }
+
+    /**
+     * A project that was added to, updated in or removed from the registry
+     */
+    public record ProjectChange(Type type, Project project) {
+        public enum Type { ADDED, UPDATED, REMOVED }
+    }
+
+    private final List<Project> projects = new CopyOnWriteArrayList<>();
+    private final Map<String, Project> projectsById = new ConcurrentHashMap<>();
+    // Guards changes to projects and projectsById together
+    private final Object registryLock = new Object();
+    private volatile Project currentProject;
+
+    private final List<ProjectListener> listeners = new CopyOnWriteArrayList<>();
+    private final Queue<ProjectChange> pendingChanges = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean deliveryScheduled = new AtomicBoolean();
+
+    private final Path storageDirectory;
+    private final ContentCache contentCache;
+    private final ThumbnailCache thumbnailCache;
+    private final AutosaveJournal journal;
+    private final OcclusionCompactor occlusionCompactor = new OcclusionCompactor();
 
     private ProjectManager() {
-        projects = new ArrayList<>();
-        // Create a default project if no projects exist
-        currentProject = new Project("My First Project", PaperSize.A4);
-        projects.add(currentProject);
+        contentCache = new ContentCache(this, ContentCache.DEFAULT_MEMORY_BUDGET);
+        storageDirectory = Paths.get(
+                System.getProperty("sketchpad.home", System.getProperty("user.home") + "/.sketchpad"),
+                "projects");
+        thumbnailCache = new ThumbnailCache(this, storageDirectory.resolveSibling("thumbnails"));
+        journal = new AutosaveJournal(this);
+        loadProjects();
+
+        if (projects.isEmpty()) {
+            // Create a default project if no projects exist
+            currentProject = new Project("My First Project", PaperSize.A4);
+            addProject(currentProject);
+        } else {
+            currentProject = projects.get(0);
+        }
+    }
+
+    /**
+     * Loads the metadata of every project file in the storage directory, oldest first.
+     * Content stays on disk until a project is opened.
+     */
+    private void loadProjects() {
+        if (!Files.isDirectory(storageDirectory)) {
+            return;
+        }
+        List<Project> loaded = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(storageDirectory, "*" + ProjectFile.EXTENSION)) {
+            for (Path file : files) {
+                try {
+                    Project project = ProjectFile.readHeader(file);
+                    project.setContentCache(contentCache);
+                    project.setAutosaveJournal(journal);
+                    project.setOcclusionCompactor(occlusionCompactor);
+                    loaded.add(project);
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Skipping unreadable project " + file + ": " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to list projects in " + storageDirectory + ": " + e.getMessage());
+        }
+        loaded.sort(Comparator.comparing(Project::getCreatedDate));
+        // One copy of the list for all of them
+        synchronized (registryLock) {
+            projects.addAll(loaded);
+            for (Project project : loaded) {
+                projectsById.put(project.getId(), project);
+            }
+        }
+
+        // Replay what a crashed session did not save
+        for (Project project : loaded) {
+            journal.recover(project);
+        }
+    }
+
+    /**
+     * Creates the instance when first used; class initialization makes that
+     * thread-safe and publishes it fully built
+     */
+    private static final class Holder {
+        static final ProjectManager INSTANCE = new ProjectManager();
     }
 
     /**
      * Gets the singleton instance of the ProjectManager
      */
     public static ProjectManager getInstance() {
-        if (instance == null) {
-            instance = new ProjectManager();
-        }
-        return instance;
+        return Holder.INSTANCE;
     }
 
     /**
@@ -34,7 +142,7 @@ public class ProjectManager {
      */
     public Project createProject() {
         Project project = new Project();
-        projects.add(project);
+        addProject(project);
         return project;
     }
 
@@ -43,26 +151,63 @@ public class ProjectManager {
      */
     public Project createProject(String name, PaperSize paperSize) {
         Project project = new Project(name, paperSize);
-        projects.add(project);
+        addProject(project);
         return project;
     }
 
+    /**
+     * Registers a project created elsewhere (e.g. by a dialog) and saves it
+     */
+    public void addProject(Project project) {
+        project.setContentCache(contentCache);
+        project.setAutosaveJournal(journal);
+        project.setOcclusionCompactor(occlusionCompactor);
+        synchronized (registryLock) {
+            if (projectsById.putIfAbsent(project.getId(), project) != null) {
+                return;
+            }
+            projects.add(project);
+        }
+        saveProject(project);
+        contentCache.touch(project);
+        fireChange(ProjectChange.Type.ADDED, project);
+    }
+
     /**
      * Deletes the specified project
      */
     public boolean deleteProject(Project project) {
-        if (projects.size() <= 1) {
-            // Don't allow deleting the last project
-            return false;
+        boolean removed;
+        synchronized (registryLock) {
+            if (projects.size() <= 1) {
+                // Don't allow deleting the last project
+                return false;
+            }
+            removed = projects.remove(project);
+            if (removed) {
+                projectsById.remove(project.getId());
+                if (project.equals(currentProject)) {
+                    // If we deleted the current project, switch to one that is still registered
+                    currentProject = projects.isEmpty() ? null : projects.get(0);
+                }
+            }
         }
 
-        boolean removed = projects.remove(project);
-
-        if (removed && project.equals(currentProject)) {
-            // If we deleted the current project, switch to another one
-            currentProject = projects.get(0);
+        if (removed) {
+            contentCache.remove(project);
+            thumbnailCache.remove(project);
+            journal.reset(project);
+            project.unloadContent();
+            try {
+                Files.deleteIfExists(getProjectFile(project));
+            } catch (IOException e) {
+                System.err.println("Failed to delete project file of " + project.getName() + ": " + e.getMessage());
+            }
         }
 
+        if (removed) {
+            fireChange(ProjectChange.Type.REMOVED, project);
+        }
         return removed;
     }
 
@@ -72,15 +217,101 @@ public class ProjectManager {
     public void updateProject(Project project, String name, PaperSize paperSize) {
         project.setName(name);
         project.setPaperSize(paperSize);
+        saveProject(project);
+    }
+
+    /**
+     * Saves a project's metadata and any unsaved content to its file.
+     * Returns false if the project could not be written.
+     */
+    public boolean saveProject(Project project) {
+        // This save follows on from one still being written for eviction
+        contentCache.awaitSave(project);
+        try {
+            Files.createDirectories(storageDirectory);
+            ProjectFile.save(project, getProjectFile(project));
+            // The project file now holds everything the journal did
+            journal.reset(project);
+            if (projectsById.containsKey(project.getId())) {
+                fireChange(ProjectChange.Type.UPDATED, project);
+            }
+            return true;
+        } catch (IOException e) {
+            System.err.println("Failed to save project " + project.getName() + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Records a save whose snapshot was written on another thread. Must be
+     * called on the thread that took the snapshot.
+     */
+    void completeSave(Project project, ProjectFile.SaveSnapshot snapshot, long length) {
+        ProjectFile.markSaved(project, snapshot, length);
+        // The journal starts over from the file, with whatever changed after the snapshot
+        journal.reset(project);
+        journal.capture(project);
+        if (projectsById.containsKey(project.getId())) {
+            fireChange(ProjectChange.Type.UPDATED, project);
+        }
+    }
+
+    /**
+     * Saves every project
+     */
+    public void saveAll() {
+        for (Project project : projects) {
+            saveProject(project);
+        }
+    }
+
+    /**
+     * Gets the file a project is stored in
+     */
+    public Path getProjectFile(Project project) {
+        return storageDirectory.resolve(project.getId() + ProjectFile.EXTENSION);
+    }
+
+    /**
+     * Gets the cache that keeps project content resident, e.g. to adjust its budget
+     */
+    public ContentCache getContentCache() {
+        return contentCache;
+    }
+
+    /**
+     * Gets the cache that renders and stores project thumbnails
+     */
+    public ThumbnailCache getThumbnailCache() {
+        return thumbnailCache;
+    }
+
+    /**
+     * Gets the journal that keeps unsaved changes safe from crashes
+     */
+    public AutosaveJournal getAutosaveJournal() {
+        return journal;
+    }
+
+    /**
+     * Gets the compactor that drops operations hidden under later ones
+     */
+    public OcclusionCompactor getOcclusionCompactor() {
+        return occlusionCompactor;
+    }
+
+    /**
+     * Gets the directory project files are stored in
+     */
+    public Path getStorageDirectory() {
+        return storageDirectory;
     }
 
     /**
      * Gets a project by its ID
      */
     public Optional<Project> getProject(String id) {
-        return projects.stream()
-                .filter(p -> p.getId().equals(id))
-                .findFirst();
+        return Optional.ofNullable(projectsById.get(id));
     }
 
     /**
@@ -94,16 +325,60 @@ public class ProjectManager {
      * Sets the current active project
      */
     public void setCurrentProject(Project project) {
-        if (projects.contains(project)) {
+        if (projectsById.containsKey(project.getId())) {
             this.currentProject = project;
+            contentCache.touch(project);
         }
     }
 
     /**
-     * Gets all projects
+     * Gets all projects in creation order, as a read-only view that is safe to iterate
+     * while projects are added or removed
      */
     public List<Project> getAllProjects() {
-        return projects;
+        return Collections.unmodifiableList(projects);
+    }
+
+    /**
+     * Registers a listener for changes to the registry, delivered on the FX thread
+     */
+    public void addProjectListener(ProjectListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeProjectListener(ProjectListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Queues a change and schedules delivery on the FX thread, unless a delivery is already pending
+     */
+    private void fireChange(ProjectChange.Type type, Project project) {
+        pendingChanges.add(new ProjectChange(type, project));
+        if (deliveryScheduled.compareAndSet(false, true)) {
+            try {
+                Platform.runLater(this::deliverChanges);
+            } catch (IllegalStateException e) {
+                // No FX toolkit, e.g. in a headless tool; nobody can be listening on its thread
+                deliverChanges();
+            }
+        }
+    }
+
+    private void deliverChanges() {
+        // Cleared first, so a change queued while draining schedules the next batch
+        deliveryScheduled.set(false);
+        List<ProjectChange> batch = new ArrayList<>();
+        ProjectChange change;
+        while ((change = pendingChanges.poll()) != null) {
+            batch.add(change);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        for (ProjectListener listener : listeners) {
+            listener.projectsChanged(batch);
+        }
     }
 
     /**
@@ -0,0 +1,39 @@
+package com.mykhailozinenko.sketchpad;
+
+import javafx.scene.paint.Color;
+
+/**
+ * Receives the drawing commands produced by {@link ReplayEngine}.
+ *
+ * The commands mirror the path API of the canvas GraphicsContext, so
+ * {@link GraphicsContextTarget} is a thin wrapper, while other targets can
+ * record or count commands without a running toolkit.
+ */
+public interface RenderTarget {
+
+    /**
+     * Sets the fill, stroke and line width used by the following submissions
+     */
+    void setBrush(Color color, double width);
+
+    void beginPath();
+
+    void moveTo(double x, double y);
+
+    void lineTo(double x, double y);
+
+    /**
+     * Adds a closed circle to the current path
+     */
+    void circle(double centerX, double centerY, double radius);
+
+    /**
+     * Strokes the current path with round caps and joins
+     */
+    void stroke();
+
+    /**
+     * Fills the current path
+     */
+    void fill();
+}
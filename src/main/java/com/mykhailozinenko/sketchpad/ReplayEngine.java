@@ -0,0 +1,146 @@
+package com.mykhailozinenko.sketchpad;
+
+/**
+ * Replays operations onto a {@link RenderTarget} with as few state changes
+ * and path submissions as possible.
+ *
+ * Operations are walked strictly in the given order, so z-order is unchanged.
+ * Contiguous operations with the same opaque brush form a run: their lines
+ * go into one stroked path and their dots into one filled path, and the
+ * brush is set once per run. Drawing opaque shapes of one colour gives the
+ * same pixels in any order, so a run needs no ordering inside it.
+ * Translucent operations are still submitted one by one, because merging
+ * them would stop overlapping parts from blending twice.
+ *
+ * The engine counts what it submits so replay cost can be compared with
+ * and without batching.
+ */
+public class ReplayEngine {
+
+    private boolean batching = true;
+
+    // Dots of the current run, drawn after its lines
+    private final IntList pendingDots = new IntList();
+    // Points of the operation being appended, reused so mapped ones decode without allocating
+    private float[] points = new float[256];
+    private boolean pendingLines;
+
+    private long operationCount;
+    private long stateChanges;
+    private long pathSubmissions;
+
+    /**
+     * Replays the operations listed in ascending order, stopping at the given operation index
+     */
+    public void replay(OperationStore operations, IntList order, int operationLimit, RenderTarget target) {
+        BrushPalette brushes = operations.getBrushes();
+        int currentBrush = -1;
+
+        for (int i = 0; i < order.size(); i++) {
+            int op = order.get(i);
+            if (op >= operationLimit) {
+                break;
+            }
+            int brush = operations.brushId(op);
+            boolean continuesRun = batching && brush == currentBrush && isOpaque(brushes, brush);
+
+            if (!continuesRun) {
+                flush(operations, target);
+                // Without batching every operation sets its own state, as DrawOperation.draw does
+                if (brush != currentBrush || !batching) {
+                    target.setBrush(brushes.color(brush), brushes.width(brush));
+                    stateChanges++;
+                    currentBrush = brush;
+                }
+            }
+            append(operations, op, target);
+            operationCount++;
+        }
+        flush(operations, target);
+    }
+
+    private static boolean isOpaque(BrushPalette brushes, int brush) {
+        return brushes.argb(brush) >>> 24 == 0xFF;
+    }
+
+    /**
+     * Adds an operation to the current run
+     */
+    private void append(OperationStore operations, int op, RenderTarget target) {
+        int count = operations.pointCount(op);
+        if (count == 1) {
+            // Dots and presses without a drag are filled circles
+            pendingDots.add(op);
+            return;
+        }
+        if (!pendingLines) {
+            target.beginPath();
+            pendingLines = true;
+        }
+        points = operations.points(op, points);
+        target.moveTo(points[0], points[1]);
+        for (int p = 1; p < count; p++) {
+            target.lineTo(points[p * 2], points[p * 2 + 1]);
+        }
+    }
+
+    /**
+     * Submits the paths of the current run
+     */
+    private void flush(OperationStore operations, RenderTarget target) {
+        if (pendingLines) {
+            target.stroke();
+            pathSubmissions++;
+            pendingLines = false;
+        }
+        if (!pendingDots.isEmpty()) {
+            target.beginPath();
+            for (int i = 0; i < pendingDots.size(); i++) {
+                int op = pendingDots.get(i);
+                points = operations.points(op, points);
+                target.circle(points[0], points[1], operations.width(op) / 2);
+            }
+            target.fill();
+            pathSubmissions++;
+            pendingDots.clear();
+        }
+    }
+
+    public boolean isBatching() {
+        return batching;
+    }
+
+    /**
+     * Enables or disables merging runs, e.g. to measure what batching saves
+     */
+    public void setBatching(boolean batching) {
+        this.batching = batching;
+    }
+
+    /**
+     * Gets the number of operations replayed since the last reset
+     */
+    public long getOperationCount() {
+        return operationCount;
+    }
+
+    /**
+     * Gets the number of brush changes sent to targets since the last reset
+     */
+    public long getStateChanges() {
+        return stateChanges;
+    }
+
+    /**
+     * Gets the number of stroke and fill submissions since the last reset
+     */
+    public long getPathSubmissions() {
+        return pathSubmissions;
+    }
+
+    public void resetCounters() {
+        operationCount = 0;
+        stateChanges = 0;
+        pathSubmissions = 0;
+    }
+}
@@ -1,8 +1,12 @@
 package com.mykhailozinenko.sketchpad;
 
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.scene.Scene;
+import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
+import javafx.scene.control.CheckMenuItem;
+import javafx.scene.control.ChoiceDialog;
 import javafx.scene.control.Label;
 import javafx.scene.control.Menu;
 import javafx.scene.control.MenuBar;
@@ -15,8 +19,14 @@ import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.Region;
+import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
 public class SketchPadApplication extends Application {
 
     private static final String APP_TITLE = "SketchPad";
@@ -24,11 +34,14 @@ public class SketchPadApplication extends Application {
     private static final int DEFAULT_HEIGHT = 800;
     private static final int PROJECT_LIST_WIDTH = 800;
     private static final int PROJECT_LIST_HEIGHT = 600;
+    private static final List<Integer> EXPORT_DPIS = List.of(96, 150, 300, 600);
 
     private Stage primaryStage;
     private ProjectManager projectManager;
     private CanvasArea canvasArea;
     private Project currentProject;
+    // When the project in the editor was opened, or 0 while the project list is shown
+    private long projectOpenedNanos;
 
     @Override
     public void start(Stage primaryStage) {
@@ -68,6 +81,11 @@ public class SketchPadApplication extends Application {
      * Opens a project and shows the editor window
      */
     private void openProject(Project project) {
+        // Opening from the editor replaces the project that is open there
+        closeCurrentProject();
+        PerformanceEvents.ProjectOpenEvent openEvent = new PerformanceEvents.ProjectOpenEvent();
+        openEvent.begin();
+        long start = System.nanoTime();
         this.currentProject = project;
         projectManager.setCurrentProject(project);
 
@@ -117,20 +135,13 @@ public class SketchPadApplication extends Application {
         root.setCenter(contentPane);
 
         // Connect toolbar events to canvas
+        // Update the canvas brush in place; operations intern it when they are drawn
         toolBar.getColorPicker().setOnAction(e -> {
-            BrushSettings settings = new BrushSettings(
-                    toolBar.getColorPicker().getValue(),
-                    toolBar.getBrushSizeSlider().getValue()
-            );
-            canvasArea.setBrushSettings(settings);
+            canvasArea.setBrushColor(toolBar.getColorPicker().getValue());
         });
 
         toolBar.getBrushSizeSlider().valueProperty().addListener((obs, oldVal, newVal) -> {
-            BrushSettings settings = new BrushSettings(
-                    toolBar.getColorPicker().getValue(),
-                    newVal.doubleValue()
-            );
-            canvasArea.setBrushSettings(settings);
+            canvasArea.setBrushSize(newVal.doubleValue());
         });
 
         toolBar.getClearButton().setOnAction(e -> canvasArea.clear());
@@ -162,15 +173,57 @@ public class SketchPadApplication extends Application {
         primaryStage.setTitle(APP_TITLE + " - " + currentProject.getName());
         primaryStage.setScene(scene);
         primaryStage.show();
+
+        projectOpenedNanos = System.nanoTime();
+        PerformanceMonitor.getInstance().recordProjectOpen(projectOpenedNanos - start);
+        openEvent.end();
+        if (openEvent.shouldCommit()) {
+            openEvent.projectId = project.getId();
+            openEvent.operationCount = project.isContentLoaded() ? project.getContent().getOperationCount() : 0;
+            openEvent.memoryBytes = project.estimateMemoryBytes();
+            openEvent.commit();
+        }
+    }
+
+    /**
+     * Saves the project in the editor and records how long it was open
+     */
+    private void closeCurrentProject() {
+        if (projectOpenedNanos == 0) {
+            return;
+        }
+        PerformanceEvents.ProjectCloseEvent closeEvent = new PerformanceEvents.ProjectCloseEvent();
+        closeEvent.begin();
+        stopRecording();
+        projectManager.saveProject(currentProject);
+        closeEvent.end();
+        if (closeEvent.shouldCommit()) {
+            closeEvent.projectId = currentProject.getId();
+            closeEvent.operationCount = currentProject.isContentLoaded()
+                    ? currentProject.getContent().getOperationCount() : 0;
+            closeEvent.openNanos = System.nanoTime() - projectOpenedNanos;
+            closeEvent.commit();
+        }
+        projectOpenedNanos = 0;
     }
 
     /**
      * Returns to the project list view
      */
     private void backToProjectList() {
+        closeCurrentProject();
         showProjectListView();
     }
 
+    @Override
+    public void stop() {
+        // Persist everything drawn since the last save
+        closeCurrentProject();
+        projectManager.saveAll();
+        projectManager.getThumbnailCache().shutdown();
+        projectManager.getAutosaveJournal().close();
+    }
+
     private MenuBar createMenuBar() {
         MenuBar menuBar = new MenuBar();
 
@@ -185,6 +238,13 @@ public class SketchPadApplication extends Application {
         backToProjectsItem.setAccelerator(new KeyCodeCombination(KeyCode.P, KeyCombination.CONTROL_DOWN));
         backToProjectsItem.setOnAction(e -> backToProjectList());
 
+        MenuItem exportItem = new MenuItem("Export PNG...");
+        exportItem.setAccelerator(new KeyCodeCombination(KeyCode.E, KeyCombination.CONTROL_DOWN));
+        exportItem.setOnAction(e -> exportCurrentProject());
+
+        CheckMenuItem recordItem = new CheckMenuItem("Record Input Session...");
+        recordItem.setOnAction(e -> recordItem.setSelected(toggleRecording()));
+
         MenuItem exitItem = new MenuItem("Exit");
         exitItem.setOnAction(e -> primaryStage.close());
 
@@ -192,16 +252,32 @@ public class SketchPadApplication extends Application {
                 newProjectItem,
                 backToProjectsItem,
                 new SeparatorMenuItem(),
+                exportItem,
+                recordItem,
+                new SeparatorMenuItem(),
                 exitItem
         );
 
         // Edit menu
         Menu editMenu = new Menu("Edit");
 
+        MenuItem undoItem = new MenuItem("Undo");
+        undoItem.setAccelerator(new KeyCodeCombination(KeyCode.Z, KeyCombination.CONTROL_DOWN));
+        undoItem.setOnAction(e -> canvasArea.undo());
+
+        MenuItem redoItem = new MenuItem("Redo");
+        redoItem.setAccelerator(new KeyCodeCombination(KeyCode.Z, KeyCombination.CONTROL_DOWN, KeyCombination.SHIFT_DOWN));
+        redoItem.setOnAction(e -> canvasArea.redo());
+
         MenuItem clearItem = new MenuItem("Clear Canvas");
         clearItem.setOnAction(e -> canvasArea.clear());
 
-        editMenu.getItems().addAll(clearItem);
+        editMenu.getItems().addAll(
+                undoItem,
+                redoItem,
+                new SeparatorMenuItem(),
+                clearItem
+        );
 
         // View menu
         Menu viewMenu = new Menu("View");
@@ -218,10 +294,16 @@ public class SketchPadApplication extends Application {
         resetZoomItem.setAccelerator(new KeyCodeCombination(KeyCode.DIGIT0, KeyCombination.CONTROL_DOWN));
         resetZoomItem.setOnAction(e -> canvasArea.resetZoom());
 
+        CheckMenuItem overlayItem = new CheckMenuItem("Performance Overlay");
+        overlayItem.setAccelerator(new KeyCodeCombination(KeyCode.F3));
+        overlayItem.setOnAction(e -> canvasArea.setPerformanceOverlayVisible(overlayItem.isSelected()));
+
         viewMenu.getItems().addAll(
                 zoomInItem,
                 zoomOutItem,
-                resetZoomItem
+                resetZoomItem,
+                new SeparatorMenuItem(),
+                overlayItem
         );
 
         // Project menu
@@ -244,7 +326,7 @@ public class SketchPadApplication extends Application {
         ProjectDialog dialog = new ProjectDialog(primaryStage);
         dialog.showAndWait().ifPresent(project -> {
             // Add to project manager
-            projectManager.getAllProjects().add(project);
+            projectManager.addProject(project);
             // Open the new project
             openProject(project);
         });
@@ -256,11 +338,89 @@ public class SketchPadApplication extends Application {
     private void editCurrentProject() {
         ProjectDialog dialog = new ProjectDialog(primaryStage, currentProject);
         dialog.showAndWait().ifPresent(project -> {
+            projectManager.saveProject(project);
             // Update UI to reflect changes
             primaryStage.setTitle(APP_TITLE + " - " + project.getName());
         });
     }
 
+    /**
+     * Exports the current project as a PNG at a chosen resolution.
+     * The project is saved first and the export renders from a fresh mapping
+     * of its file on a background thread, so drawing can continue meanwhile.
+     */
+    private void exportCurrentProject() {
+        ChoiceDialog<Integer> dpiDialog = new ChoiceDialog<>(300, EXPORT_DPIS);
+        dpiDialog.initOwner(primaryStage);
+        dpiDialog.setTitle("Export PNG");
+        dpiDialog.setHeaderText("Resolution of the exported page");
+        dpiDialog.setContentText("DPI:");
+        Integer dpi = dpiDialog.showAndWait().orElse(null);
+        if (dpi == null) {
+            return;
+        }
+
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Export PNG");
+        chooser.setInitialFileName(currentProject.getName() + ".png");
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("PNG image", "*.png"));
+        File target = chooser.showSaveDialog(primaryStage);
+        if (target == null || !projectManager.saveProject(currentProject)) {
+            return;
+        }
+
+        Path projectFile = projectManager.getProjectFile(currentProject);
+        PaperSize paperSize = currentProject.getPaperSize();
+        Thread.ofVirtual().name("png-export").start(() -> {
+            try (MappedOperationLog log = MappedOperationLog.open(projectFile)) {
+                new PngExporter().export(new OperationStore(log), paperSize, dpi, target.toPath());
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Failed to export " + target + ": " + e.getMessage());
+                Platform.runLater(() -> {
+                    Alert alert = new Alert(Alert.AlertType.ERROR, "Could not export " + target.getName() + ".");
+                    alert.initOwner(primaryStage);
+                    alert.show();
+                });
+            }
+        });
+    }
+
+    /**
+     * Starts recording the canvas input to a session file the user picks, or
+     * stops recording. Returns true if recording afterwards.
+     */
+    private boolean toggleRecording() {
+        if (canvasArea.isRecording()) {
+            stopRecording();
+            return false;
+        }
+
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Record Input Session");
+        chooser.setInitialFileName(currentProject.getName() + InputRecorder.EXTENSION);
+        chooser.getExtensionFilters().add(
+                new FileChooser.ExtensionFilter("Input session", "*" + InputRecorder.EXTENSION));
+        File target = chooser.showSaveDialog(primaryStage);
+        if (target == null) {
+            return false;
+        }
+        try {
+            canvasArea.startRecording(target.toPath());
+            return true;
+        } catch (IOException e) {
+            System.err.println("Failed to record to " + target + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void stopRecording() {
+        try {
+            canvasArea.stopRecording();
+        } catch (IOException e) {
+            System.err.println("Failed to write input session: " + e.getMessage());
+        }
+    }
+
     public static void main(String[] args) {
         launch(args);
     }
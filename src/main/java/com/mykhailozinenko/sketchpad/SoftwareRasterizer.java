@@ -0,0 +1,315 @@
+package com.mykhailozinenko.sketchpad;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Anti-aliased renderer for operations into an ARGB pixel array, usable on
+ * any thread and without a running JavaFX toolkit.
+ *
+ * Every operation kind is a union of round-capped segments: a dot is a
+ * zero-length segment and strokes and polylines are their segments joined
+ * by round joins, as on the Canvas. Each pixel is covered by the distance
+ * from its centre to the nearest segment, with a one pixel ramp at the
+ * edge, and an operation is composited once with that coverage so
+ * translucent strokes do not darken where their segments overlap.
+ *
+ * Operations are first binned into {@value #TILE_SIZE}px output tiles in
+ * drawing order, then the tiles are rendered in parallel on a
+ * {@link ForkJoinPool}. Tiles never share pixels, so no locking is needed.
+ * The store must not be modified while it is being rendered.
+ */
+public final class SoftwareRasterizer {
+
+    public static final int TILE_SIZE = 64;
+    public static final int WHITE = 0xFFFFFFFF;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates a rasterizer that runs on the common pool
+     */
+    public SoftwareRasterizer() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public SoftwareRasterizer(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Renders a whole page on white, scaled to fit the given pixel size
+     */
+    public int[] renderPage(OperationStore operations, PaperSize paperSize, int width, int height) {
+        double scale = Math.min(width / paperSize.getWidthInPixels(), height / paperSize.getHeightInPixels());
+        return render(operations, operations.size(), 0, 0, scale, width, height, WHITE);
+    }
+
+    /**
+     * Renders the first operations into a new pixel array
+     *
+     * @param operationLimit number of leading operations to draw
+     * @param originX page coordinate shown at the left edge
+     * @param originY page coordinate shown at the top edge
+     * @param scale output pixels per page pixel
+     * @param background ARGB colour the pixels start with
+     * @throws CancellationException if the calling thread is interrupted
+     */
+    public int[] render(OperationStore operations, int operationLimit,
+                        double originX, double originY, double scale,
+                        int width, int height, int background) {
+        return render(operations, null, Math.min(operationLimit, operations.size()),
+                originX, originY, scale, width, height, background);
+    }
+
+    /**
+     * Renders only the selected operations into a new pixel array, e.g. those
+     * already culled to the output area
+     *
+     * @param selected operation indices in drawing order
+     * @throws CancellationException if the calling thread is interrupted
+     */
+    public int[] render(OperationStore operations, IntList selected,
+                        double originX, double originY, double scale,
+                        int width, int height, int background) {
+        return render(operations, selected, selected.size(),
+                originX, originY, scale, width, height, background);
+    }
+
+    private int[] render(OperationStore operations, IntList selected, int count,
+                         double originX, double originY, double scale,
+                         int width, int height, int background) {
+        int[] pixels = new int[width * height];
+        Arrays.fill(pixels, background);
+
+        Job job = new Job(operations, originX, originY, scale, width, height, pixels);
+        job.bin(selected, count);
+
+        List<TileTask> tiles = new ArrayList<>();
+        for (int tile = 0; tile < job.bins.length; tile++) {
+            if (job.bins[tile] != null) {
+                tiles.add(new TileTask(job, tile));
+            }
+        }
+        if (tiles.isEmpty()) {
+            return pixels;
+        }
+
+        ForkJoinTask<?> task = pool.submit(() -> ForkJoinTask.invokeAll(tiles));
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            job.cancelled = true;
+            task.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Rendering cancelled");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        return pixels;
+    }
+
+    /**
+     * Composites a colour over a pixel with the given coverage (source over)
+     */
+    static int blend(int dst, int src, float coverage) {
+        float srcAlpha = (src >>> 24) / 255f * coverage;
+        if (srcAlpha >= 1) {
+            return src;
+        }
+        float dstAlpha = (dst >>> 24) / 255f;
+        float dstWeight = dstAlpha * (1 - srcAlpha);
+        float outAlpha = srcAlpha + dstWeight;
+        if (outAlpha <= 0) {
+            return 0;
+        }
+        int r = Math.round((((src >> 16) & 0xFF) * srcAlpha + ((dst >> 16) & 0xFF) * dstWeight) / outAlpha);
+        int g = Math.round((((src >> 8) & 0xFF) * srcAlpha + ((dst >> 8) & 0xFF) * dstWeight) / outAlpha);
+        int b = Math.round(((src & 0xFF) * srcAlpha + (dst & 0xFF) * dstWeight) / outAlpha);
+        return Math.round(outAlpha * 255) << 24 | r << 16 | g << 8 | b;
+    }
+
+    /**
+     * State shared by the tiles of one render call
+     */
+    private static final class Job {
+        private final OperationStore operations;
+        private final double originX;
+        private final double originY;
+        private final double scale;
+        private final int width;
+        private final int height;
+        private final int[] pixels;
+        private final int columns;
+        private final int rows;
+        private final BrushPalette brushes;
+        // Operations overlapping each tile, in drawing order; null if none
+        private IntList[] bins;
+        private volatile boolean cancelled;
+
+        Job(OperationStore operations, double originX, double originY, double scale,
+            int width, int height, int[] pixels) {
+            this.operations = operations;
+            this.originX = originX;
+            this.originY = originY;
+            this.scale = scale;
+            this.width = width;
+            this.height = height;
+            this.pixels = pixels;
+            this.columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+            this.rows = (height + TILE_SIZE - 1) / TILE_SIZE;
+            this.brushes = operations.getBrushes();
+        }
+
+        /**
+         * Bins the first count operations, or the first count selected ones if a selection is given
+         */
+        void bin(IntList selected, int count) {
+            bins = new IntList[columns * rows];
+            for (int i = 0; i < count; i++) {
+                int op = selected != null ? selected.get(i) : i;
+                // One extra pixel for the anti-aliasing ramp
+                int minColumn = Math.max(0, (int) Math.floor(((operations.minX(op) - originX) * scale - 1) / TILE_SIZE));
+                int minRow = Math.max(0, (int) Math.floor(((operations.minY(op) - originY) * scale - 1) / TILE_SIZE));
+                int maxColumn = Math.min(columns - 1, (int) Math.floor(((operations.maxX(op) - originX) * scale + 1) / TILE_SIZE));
+                int maxRow = Math.min(rows - 1, (int) Math.floor(((operations.maxY(op) - originY) * scale + 1) / TILE_SIZE));
+
+                for (int row = minRow; row <= maxRow; row++) {
+                    for (int column = minColumn; column <= maxColumn; column++) {
+                        int tile = row * columns + column;
+                        if (bins[tile] == null) {
+                            bins[tile] = new IntList(16);
+                        }
+                        bins[tile].add(op);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Renders the operations binned into one tile
+     */
+    @SuppressWarnings("serial") // Never serialized, like any task handed to a pool
+    private static final class TileTask extends RecursiveAction {
+        private final Job job;
+        private final int tile;
+
+        TileTask(Job job, int tile) {
+            this.job = job;
+            this.tile = tile;
+        }
+
+        @Override
+        protected void compute() {
+            OperationStore operations = job.operations;
+            IntList bin = job.bins[tile];
+
+            int tileX = (tile % job.columns) * TILE_SIZE;
+            int tileY = (tile / job.columns) * TILE_SIZE;
+            int tileWidth = Math.min(TILE_SIZE, job.width - tileX);
+            int tileHeight = Math.min(TILE_SIZE, job.height - tileY);
+            float[] coverage = new float[tileWidth * tileHeight];
+            float[] coords = new float[256];
+
+            for (int i = 0; i < bin.size(); i++) {
+                if (job.cancelled) {
+                    return;
+                }
+                int op = bin.get(i);
+                int brush = operations.brushId(op);
+                double radius = job.brushes.width(brush) * job.scale / 2;
+                int points = operations.pointCount(op);
+
+                // Tile-local bounds of the operation's coverage, filled in by cover()
+                int[] touched = {tileWidth, tileHeight, -1, -1};
+
+                coords = operations.points(op, coords);
+                double previousX = (coords[0] - job.originX) * job.scale - tileX;
+                double previousY = (coords[1] - job.originY) * job.scale - tileY;
+                if (points == 1) {
+                    cover(coverage, tileWidth, tileHeight, previousX, previousY, previousX, previousY, radius, touched);
+                }
+                for (int p = 1; p < points; p++) {
+                    double x = (coords[p * 2] - job.originX) * job.scale - tileX;
+                    double y = (coords[p * 2 + 1] - job.originY) * job.scale - tileY;
+                    cover(coverage, tileWidth, tileHeight, previousX, previousY, x, y, radius, touched);
+                    previousX = x;
+                    previousY = y;
+                }
+
+                int argb = job.brushes.argb(brush);
+                for (int y = touched[1]; y <= touched[3]; y++) {
+                    for (int x = touched[0]; x <= touched[2]; x++) {
+                        int c = y * tileWidth + x;
+                        if (coverage[c] > 0) {
+                            int pixel = (tileY + y) * job.width + tileX + x;
+                            job.pixels[pixel] = blend(job.pixels[pixel], argb, coverage[c]);
+                            coverage[c] = 0;
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Raises the coverage of the tile pixels near a round-capped segment
+         */
+        private static void cover(float[] coverage, int tileWidth, int tileHeight,
+                                  double x0, double y0, double x1, double y1,
+                                  double radius, int[] touched) {
+            double reach = radius + 0.5;
+            int minX = Math.max(0, (int) Math.floor(Math.min(x0, x1) - reach));
+            int minY = Math.max(0, (int) Math.floor(Math.min(y0, y1) - reach));
+            int maxX = Math.min(tileWidth - 1, (int) Math.ceil(Math.max(x0, x1) + reach));
+            int maxY = Math.min(tileHeight - 1, (int) Math.ceil(Math.max(y0, y1) + reach));
+            if (minX > maxX || minY > maxY) {
+                return;
+            }
+            touched[0] = Math.min(touched[0], minX);
+            touched[1] = Math.min(touched[1], minY);
+            touched[2] = Math.max(touched[2], maxX);
+            touched[3] = Math.max(touched[3], maxY);
+
+            double dx = x1 - x0;
+            double dy = y1 - y0;
+            double lengthSquared = dx * dx + dy * dy;
+            // Lines thinner than a pixel are faded instead of drawn a pixel wide
+            float maxCoverage = (float) Math.min(1, radius * 2);
+            double reachSquared = reach * reach;
+            double solidSquared = radius >= 0.5 ? (reach - 1) * (reach - 1) : -1;
+
+            for (int py = minY; py <= maxY; py++) {
+                for (int px = minX; px <= maxX; px++) {
+                    double cx = px + 0.5 - x0;
+                    double cy = py + 0.5 - y0;
+                    double t = lengthSquared > 0 ? Math.clamp((cx * dx + cy * dy) / lengthSquared, 0, 1) : 0;
+                    double ex = cx - t * dx;
+                    double ey = cy - t * dy;
+                    double distanceSquared = ex * ex + ey * ey;
+                    if (distanceSquared >= reachSquared) {
+                        continue;
+                    }
+
+                    // Only the one pixel wide edge ramp needs the exact distance
+                    float value = distanceSquared <= solidSquared
+                            ? maxCoverage
+                            : (float) Math.min(maxCoverage, reach - Math.sqrt(distanceSquared));
+                    int c = py * tileWidth + px;
+                    if (value > coverage[c]) {
+                        coverage[c] = value;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package com.mykhailozinenko.sketchpad;
+
+import java.util.BitSet;
+
+/**
+ * Uniform grid over the paper that maps areas to the operations drawn there.
+ *
+ * Every cell keeps the indices of the operations whose bounds touch it in
+ * ascending (z) order, so a query only visits the cells it overlaps and its
+ * cost depends on the size of the answer rather than on the history length.
+ * Operations outside the paper are clamped into the border cells.
+ */
+public class SpatialIndex {
+
+    public static final int CELL_SIZE = 64;
+
+    private final OperationStore operations;
+    private final int columns;
+    private final int rows;
+    private final IntList[] cells;
+    // Reused to read the points of hit-tested operations
+    private float[] points = new float[256];
+
+    public SpatialIndex(OperationStore operations, PaperSize paperSize) {
+        this(operations,
+                Math.max(1, (int) Math.ceil(paperSize.getWidthInPixels() / CELL_SIZE)),
+                Math.max(1, (int) Math.ceil(paperSize.getHeightInPixels() / CELL_SIZE)));
+    }
+
+    private SpatialIndex(OperationStore operations, int columns, int rows) {
+        this.operations = operations;
+        this.columns = columns;
+        this.rows = rows;
+        this.cells = new IntList[columns * rows];
+    }
+
+    /**
+     * Creates an index with no store, filled only by bounds, to be spliced
+     * into another one with {@link #replaceRange}
+     */
+    static SpatialIndex forBounds(PaperSize paperSize) {
+        return new SpatialIndex(null, paperSize);
+    }
+
+    /**
+     * Moves the entries onto another store in which the operations from one
+     * index up to another were replaced, e.g. by leaving out hidden ones.
+     * Entries in that range are swapped for those of an index built for the
+     * replacement and later ones move by the shift, so no operation is
+     * indexed again. This index must not be used afterwards.
+     */
+    SpatialIndex replaceRange(OperationStore store, int from, int to, SpatialIndex replacement, int shift) {
+        SpatialIndex moved = new SpatialIndex(store, columns, rows);
+        IntList later = new IntList();
+        for (int cell = 0; cell < cells.length; cell++) {
+            IntList entries = cells[cell];
+            IntList added = replacement.cells[cell];
+            if (entries == null) {
+                moved.cells[cell] = added;
+                continue;
+            }
+            // Entries are ascending, so the replaced and later ones are a suffix
+            int start = entries.size();
+            while (start > 0 && entries.get(start - 1) >= from) {
+                start--;
+            }
+            later.clear();
+            for (int i = start; i < entries.size(); i++) {
+                if (entries.get(i) >= to) {
+                    later.add(entries.get(i) + shift);
+                }
+            }
+            entries.truncate(start);
+            for (int i = 0; added != null && i < added.size(); i++) {
+                entries.add(added.get(i));
+            }
+            for (int i = 0; i < later.size(); i++) {
+                entries.add(later.get(i));
+            }
+            moved.cells[cell] = entries;
+        }
+        return moved;
+    }
+
+    /**
+     * Indexes an operation over the given part of its bounds. Growing
+     * polylines call this again for every new segment; since the operation
+     * is the newest one, a cell already holding it has it as its last entry.
+     */
+    public void insert(int op, double minX, double minY, double maxX, double maxY) {
+        int firstColumn = column(minX);
+        int lastColumn = column(maxX);
+        int firstRow = row(minY);
+        int lastRow = row(maxY);
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int cell = row * columns + column;
+                if (cells[cell] == null) {
+                    cells[cell] = new IntList(8);
+                }
+                if (cells[cell].last() != op) {
+                    cells[cell].add(op);
+                }
+            }
+        }
+    }
+
+    /**
+     * Indexes an operation over its full bounds
+     */
+    public void insert(int op) {
+        insert(op, operations.minX(op), operations.minY(op), operations.maxX(op), operations.maxY(op));
+    }
+
+    /**
+     * Collects, in ascending order, the operations whose bounds intersect the rectangle
+     */
+    public void query(double minX, double minY, double maxX, double maxY, IntList result) {
+        result.clear();
+        int firstColumn = column(minX);
+        int lastColumn = column(maxX);
+        int firstRow = row(minY);
+        int lastRow = row(maxY);
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                IntList cell = cells[row * columns + column];
+                if (cell == null) {
+                    continue;
+                }
+                for (int i = 0; i < cell.size(); i++) {
+                    int op = cell.get(i);
+                    if (operations.intersects(op, minX, minY, maxX, maxY)) {
+                        result.add(op);
+                    }
+                }
+            }
+        }
+
+        // An operation spanning several cells is found once per cell
+        result.sortDistinct();
+    }
+
+    /**
+     * Marks the operations whose bounds intersect the rectangle, e.g. to
+     * gather those near several areas without sorting every answer
+     */
+    public void query(double minX, double minY, double maxX, double maxY, BitSet result) {
+        int firstColumn = column(minX);
+        int lastColumn = column(maxX);
+        int firstRow = row(minY);
+        int lastRow = row(maxY);
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                IntList cell = cells[row * columns + column];
+                if (cell == null) {
+                    continue;
+                }
+                for (int i = 0; i < cell.size(); i++) {
+                    int op = cell.get(i);
+                    if (!result.get(op) && operations.intersects(op, minX, minY, maxX, maxY)) {
+                        result.set(op);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks the cells a rectangle touches, see {@link #collectCells}
+     */
+    void markCells(double minX, double minY, double maxX, double maxY, BitSet marked) {
+        for (int row = row(minY); row <= row(maxY); row++) {
+            marked.set(row * columns + column(minX), row * columns + column(maxX) + 1);
+        }
+    }
+
+    /**
+     * Marks every operation indexed in the marked cells. That is more than
+     * the operations meeting the rectangles the cells were marked for, but
+     * each cell is visited once however many of them touch it.
+     */
+    void collectCells(BitSet marked, BitSet result) {
+        for (int cell = marked.nextSetBit(0); cell >= 0; cell = marked.nextSetBit(cell + 1)) {
+            IntList entries = cells[cell];
+            for (int i = 0; entries != null && i < entries.size(); i++) {
+                result.set(entries.get(i));
+            }
+        }
+    }
+
+    /**
+     * Collects, in ascending order, the operations whose painted area comes
+     * within the given radius of a point
+     */
+    public void queryNear(double x, double y, double radius, IntList result) {
+        query(x - radius, y - radius, x + radius, y + radius, result);
+
+        // Keep only operations whose geometry, not just bounds, is close enough
+        int kept = 0;
+        for (int i = 0; i < result.size(); i++) {
+            int op = result.get(i);
+            if (distanceTo(op, x, y) <= radius + operations.width(op) / 2) {
+                result.set(kept++, op);
+            }
+        }
+        result.truncate(kept);
+    }
+
+    private double distanceTo(int op, double x, double y) {
+        int count = operations.pointCount(op);
+        points = operations.points(op, points);
+        double best = Math.hypot(x - points[0], y - points[1]);
+        for (int p = 1; p < count; p++) {
+            best = Math.min(best, segmentDistance(x, y,
+                    points[p * 2 - 2], points[p * 2 - 1],
+                    points[p * 2], points[p * 2 + 1]));
+        }
+        return best;
+    }
+
+    private static double segmentDistance(double px, double py,
+                                          double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+        return Math.hypot(px - (ax + t * dx), py - (ay + t * dy));
+    }
+
+    /**
+     * Removes the operations from the given index onwards. Must be called
+     * while the store still holds them, since their bounds locate the cells.
+     */
+    public void removeFrom(int firstRemoved) {
+        for (int op = firstRemoved; op < operations.size(); op++) {
+            int firstColumn = column(operations.minX(op));
+            int lastColumn = column(operations.maxX(op));
+            int firstRow = row(operations.minY(op));
+            int lastRow = row(operations.maxY(op));
+
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    IntList cell = cells[row * columns + column];
+                    // Newer operations always sit at the end of a cell
+                    while (cell != null && !cell.isEmpty() && cell.last() >= firstRemoved) {
+                        cell.truncate(cell.size() - 1);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes every operation from the index
+     */
+    public void clear() {
+        for (IntList cell : cells) {
+            if (cell != null) {
+                cell.clear();
+            }
+        }
+    }
+
+    private int column(double x) {
+        return Math.max(0, Math.min(columns - 1, (int) Math.floor(x / CELL_SIZE)));
+    }
+
+    private int row(double y) {
+        return Math.max(0, Math.min(rows - 1, (int) Math.floor(y / CELL_SIZE)));
+    }
+
+    /**
+     * Estimates the heap used by the cell lists, in bytes
+     */
+    public long estimateMemoryBytes() {
+        long bytes = (long) cells.length * Integer.BYTES;
+        for (IntList cell : cells) {
+            if (cell != null) {
+                bytes += cell.estimateMemoryBytes();
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,273 @@
+package com.mykhailozinenko.sketchpad;
+
+import javafx.scene.paint.Color;
+
+/**
+ * Turns pointer input in canvas coordinates into the stroke operations of a project.
+ *
+ * This is the part of the canvas input handling that needs no JavaFX
+ * toolkit: {@link CanvasArea} converts mouse events to canvas coordinates
+ * and paints the gesture in progress, while {@link InputReplayer} drives the
+ * same code from a recorded session. While an {@link InputRecorder} is
+ * attached every input is also written to it, before it is handled, so a
+ * replay takes exactly the same decisions.
+ */
+public class StrokeInput {
+
+    /**
+     * Draws the gesture in progress from the given point on
+     */
+    @FunctionalInterface
+    public interface Painter {
+        void paint(DrawOperation.PolylineStrokeOperation stroke, int firstPoint);
+    }
+
+    // Drops redundant input points while drawing and simplifies each finished gesture
+    private final StrokeSimplifier strokeSimplifier = new StrokeSimplifier();
+    // Draws queued input once per pulse instead of once per event
+    private final FrameScheduler frameScheduler;
+    private final Painter painter;
+
+    private Project project;
+    private BrushSettings brushSettings;
+    private double zoomFactor = 1.0;
+    private boolean drawing;
+    private DrawOperation.PolylineStrokeOperation activeStroke;
+    // Points of the active stroke already painted
+    private int drawnPoints;
+    private InputRecorder recorder;
+
+    /**
+     * Creates input for a project
+     *
+     * @param paced true to draw on the JavaFX pulse, false if the caller pulses
+     *              {@link #getFrameScheduler()} itself
+     */
+    public StrokeInput(Project project, BrushSettings brushSettings, Painter painter, boolean paced) {
+        this.project = project;
+        this.brushSettings = brushSettings;
+        this.painter = painter;
+        this.frameScheduler = paced ? new FrameScheduler(this::drawFrame) : FrameScheduler.manual(this::drawFrame);
+    }
+
+    /**
+     * Starts a gesture at a canvas point
+     */
+    public void press(double x, double y) {
+        if (recorder != null) {
+            recorder.press(x, y);
+        }
+        drawing = true;
+        strokeSimplifier.begin(x, y);
+
+        // Start one polyline for the whole gesture; until dragged it shows as a dot
+        activeStroke = new DrawOperation.PolylineStrokeOperation(
+                x, y, brushSettings.getColor(), brushSettings.getSize());
+        project.addDrawOperation(activeStroke);
+
+        // The dot is drawn on the next pulse, together with any drag that follows
+        drawnPoints = 0;
+        frameScheduler.countEvent();
+        frameScheduler.start();
+    }
+
+    /**
+     * Continues the gesture to a canvas point
+     */
+    public void drag(double x, double y) {
+        if (recorder != null) {
+            recorder.drag(x, y);
+        }
+        if (!drawing) return;
+        frameScheduler.countDrag();
+
+        // Sub-pixel moves add nothing visible
+        if (!strokeSimplifier.accept(x, y, zoomFactor)) {
+            return;
+        }
+
+        // Only queue the point; it is added and drawn on the next pulse
+        frameScheduler.queue(x, y);
+    }
+
+    /**
+     * Ends the gesture and seals its operation
+     */
+    public void release() {
+        if (recorder != null) {
+            recorder.release();
+        }
+        if (drawing) {
+            frameScheduler.countEvent();
+            // End the stroke where the pointer was released, even if that move was dropped
+            if (strokeSimplifier.hasPendingPoint()) {
+                frameScheduler.queue(strokeSimplifier.getPendingX(), strokeSimplifier.getPendingY());
+            }
+            // Draw what is still queued before the gesture is sealed
+            frameScheduler.flush();
+            frameScheduler.stop();
+            project.sealDrawOperation(activeStroke, strokeSimplifier.getTolerance(zoomFactor));
+            activeStroke = null;
+        }
+        drawing = false;
+    }
+
+    /**
+     * Adds the points queued since the last pulse to the gesture's polyline
+     * and paints everything not yet shown as one path
+     */
+    private void drawFrame(double[] points, int count) {
+        if (activeStroke == null) {
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            project.extendDrawOperation(activeStroke, points[i * 2], points[i * 2 + 1]);
+        }
+        if (drawnPoints < activeStroke.getPointCount()) {
+            // Start at the last drawn point so the new part connects to it
+            painter.paint(activeStroke, drawnPoints - 1);
+            drawnPoints = activeStroke.getPointCount();
+        }
+    }
+
+    /**
+     * Abandons any gesture in progress and clears the project content
+     */
+    public void clear() {
+        if (recorder != null) {
+            recorder.clear();
+        }
+        // The open polyline is cleared with the rest
+        frameScheduler.cancel();
+        drawing = false;
+        activeStroke = null;
+        project.clearContent();
+    }
+
+    /**
+     * Undoes the last gesture unless one is in progress. Returns true if anything changed.
+     */
+    public boolean undo() {
+        if (recorder != null) {
+            recorder.undo();
+        }
+        return !drawing && project.undo();
+    }
+
+    /**
+     * Redoes the last undone gesture unless one is in progress. Returns true if anything changed.
+     */
+    public boolean redo() {
+        if (recorder != null) {
+            recorder.redo();
+        }
+        return !drawing && project.redo();
+    }
+
+    public void setBrushSettings(BrushSettings settings) {
+        this.brushSettings = settings;
+        if (recorder != null) {
+            recorder.brushColor(settings.getColor());
+            recorder.brushSize(settings.getSize());
+        }
+    }
+
+    /**
+     * Changes the brush colour in place, without allocating new settings
+     */
+    public void setBrushColor(Color color) {
+        if (recorder != null) {
+            recorder.brushColor(color);
+        }
+        brushSettings.setColor(color);
+    }
+
+    /**
+     * Changes the brush size in place, e.g. on every slider move
+     */
+    public void setBrushSize(double size) {
+        if (recorder != null) {
+            recorder.brushSize(size);
+        }
+        brushSettings.setSize(size);
+    }
+
+    public BrushSettings getBrushSettings() {
+        return brushSettings;
+    }
+
+    /**
+     * Sets the zoom the input is drawn at, which scales how finely strokes are sampled
+     */
+    public void setZoomFactor(double zoomFactor) {
+        if (recorder != null) {
+            recorder.zoom(zoomFactor);
+        }
+        this.zoomFactor = zoomFactor;
+    }
+
+    public double getZoomFactor() {
+        return zoomFactor;
+    }
+
+    /**
+     * Notes that the view was scrolled; strokes do not depend on it, so this is only recorded
+     */
+    public void pan(double hvalue, double vvalue) {
+        if (recorder != null) {
+            recorder.pan(hvalue, vvalue);
+        }
+    }
+
+    /**
+     * Switches to a different project, abandoning any gesture in progress
+     */
+    public void setProject(Project project) {
+        frameScheduler.cancel();
+        drawing = false;
+        activeStroke = null;
+        this.project = project;
+    }
+
+    public Project getProject() {
+        return project;
+    }
+
+    /**
+     * Returns true while a gesture is in progress
+     */
+    public boolean isDrawing() {
+        return drawing;
+    }
+
+    /**
+     * Attaches a recorder that every following input is written to, or detaches it if null
+     */
+    public void setRecorder(InputRecorder recorder) {
+        this.recorder = recorder;
+        if (recorder != null) {
+            // The session starts from the current state
+            recorder.brushColor(brushSettings.getColor());
+            recorder.brushSize(brushSettings.getSize());
+            recorder.zoom(zoomFactor);
+        }
+    }
+
+    public InputRecorder getRecorder() {
+        return recorder;
+    }
+
+    /**
+     * Gets the scheduler that paces drawing to frames, e.g. to read its counters
+     */
+    public FrameScheduler getFrameScheduler() {
+        return frameScheduler;
+    }
+
+    /**
+     * Gets the input simplifier, e.g. to adjust its distance and tolerance
+     */
+    public StrokeSimplifier getStrokeSimplifier() {
+        return strokeSimplifier;
+    }
+}
@@ -0,0 +1,184 @@
+package com.mykhailozinenko.sketchpad;
+
+import java.util.Arrays;
+
+/**
+ * Reduces the points of a drawing gesture.
+ *
+ * While the pointer moves, points closer than a minimum distance to the
+ * last accepted point are dropped. When the gesture ends, a
+ * Ramer–Douglas–Peucker pass removes every point whose removal moves the
+ * line by less than the tolerance. Both distances are in screen pixels and
+ * are divided by the zoom factor, so the result looks the same at any zoom.
+ */
+public class StrokeSimplifier {
+
+    public static final double DEFAULT_MIN_DISTANCE = 1.5;
+    public static final double DEFAULT_TOLERANCE = 0.5;
+
+    private double minDistance = DEFAULT_MIN_DISTANCE;
+    private double tolerance = DEFAULT_TOLERANCE;
+
+    private double lastX;
+    private double lastY;
+    // Last dropped point, kept so the gesture can still end exactly on it
+    private double pendingX;
+    private double pendingY;
+    private boolean hasPending;
+
+    /**
+     * Starts a gesture at the given canvas point
+     */
+    public void begin(double x, double y) {
+        lastX = x;
+        lastY = y;
+        hasPending = false;
+    }
+
+    /**
+     * Checks whether a point is far enough from the last accepted one to be
+     * drawn. Accepted points become the new reference; dropped ones are
+     * remembered as pending.
+     */
+    public boolean accept(double x, double y, double zoomFactor) {
+        double threshold = minDistance / zoomFactor;
+        double dx = x - lastX;
+        double dy = y - lastY;
+        if (dx * dx + dy * dy < threshold * threshold) {
+            pendingX = x;
+            pendingY = y;
+            hasPending = true;
+            return false;
+        }
+        lastX = x;
+        lastY = y;
+        hasPending = false;
+        return true;
+    }
+
+    /**
+     * Checks whether the last point of the gesture was dropped
+     */
+    public boolean hasPendingPoint() {
+        return hasPending;
+    }
+
+    public double getPendingX() {
+        return pendingX;
+    }
+
+    public double getPendingY() {
+        return pendingY;
+    }
+
+    /**
+     * Gets the simplification tolerance in canvas pixels at the given zoom
+     */
+    public double getTolerance(double zoomFactor) {
+        return tolerance / zoomFactor;
+    }
+
+    public double getMinDistance() {
+        return minDistance;
+    }
+
+    /**
+     * Sets the distance in screen pixels below which input points are dropped
+     */
+    public void setMinDistance(double minDistance) {
+        this.minDistance = minDistance;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * Sets the maximum deviation in screen pixels allowed when a gesture is simplified
+     */
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Simplifies a polyline in place with the Ramer–Douglas–Peucker algorithm.
+     * The points are x, y pairs starting at the given point index; the first
+     * and last point are always kept.
+     *
+     * @return the number of points left, stored at the start of the range
+     */
+    public static int simplify(float[] coords, int start, int count, double tolerance) {
+        if (count < 3) {
+            return count;
+        }
+        boolean[] keep = new boolean[count];
+        keep[0] = true;
+        keep[count - 1] = true;
+        double toleranceSquared = tolerance * tolerance;
+
+        // Explicit stack of (first, last) ranges, so long gestures cannot overflow the call stack
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = count - 1;
+
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+
+            double ax = coords[(start + first) * 2];
+            double ay = coords[(start + first) * 2 + 1];
+            double bx = coords[(start + last) * 2];
+            double by = coords[(start + last) * 2 + 1];
+
+            int farthest = -1;
+            double farthestDistance = toleranceSquared;
+            for (int i = first + 1; i < last; i++) {
+                double distance = distanceSquared(coords[(start + i) * 2], coords[(start + i) * 2 + 1], ax, ay, bx, by);
+                if (distance > farthestDistance) {
+                    farthest = i;
+                    farthestDistance = distance;
+                }
+            }
+            if (farthest < 0) {
+                continue;
+            }
+
+            keep[farthest] = true;
+            if (top + 4 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            if (farthest - first > 1) {
+                stack[top++] = first;
+                stack[top++] = farthest;
+            }
+            if (last - farthest > 1) {
+                stack[top++] = farthest;
+                stack[top++] = last;
+            }
+        }
+
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (keep[i]) {
+                coords[(start + kept) * 2] = coords[(start + i) * 2];
+                coords[(start + kept) * 2 + 1] = coords[(start + i) * 2 + 1];
+                kept++;
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Squared distance from a point to the segment from a to b
+     */
+    private static double distanceSquared(double x, double y, double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared > 0 ? Math.clamp(((x - ax) * dx + (y - ay) * dy) / lengthSquared, 0, 1) : 0;
+        double ex = x - ax - t * dx;
+        double ey = y - ay - t * dy;
+        return ex * ex + ey * ey;
+    }
+}
@@ -0,0 +1,237 @@
+package com.mykhailozinenko.sketchpad;
+
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Produces project thumbnails off the FX thread.
+ *
+ * Each request runs on its own virtual thread, which reads a cached
+ * thumbnail from disk or renders one from the project file with the
+ * {@link SoftwareRasterizer}. Entries are keyed by what the rendering
+ * reads: the project id, the saved length of its file's log and its paper
+ * size. Unsaved edits keep the key, and a project is rendered again once
+ * they are saved, when stale entries are deleted. Recently shown thumbnails are also kept in memory. Requests can be
+ * cancelled, e.g. when a list cell is reused for another project.
+ */
+public class ThumbnailCache {
+
+    public static final int THUMBNAIL_SIZE = 72;
+
+    private static final String EXTENSION = ".thumb";
+    private static final int MEMORY_ENTRIES = 512;
+
+    private final Path directory;
+    private final ProjectManager projectManager;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final SoftwareRasterizer rasterizer = new SoftwareRasterizer();
+    // Limits how many files are mapped and rendered at once
+    private final Semaphore renderPermits = new Semaphore(Runtime.getRuntime().availableProcessors());
+    // Guarded by itself: projects may be removed from any thread, and even a get reorders it
+    private final Map<String, Image> memory = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Image> eldest) {
+            return size() > MEMORY_ENTRIES;
+        }
+    };
+
+    public ThumbnailCache(ProjectManager projectManager, Path directory) {
+        this.projectManager = projectManager;
+        this.directory = directory;
+    }
+
+    /**
+     * Requests a project's thumbnail. The callback runs on the FX thread,
+     * immediately if the thumbnail is in memory. Returns the pending task,
+     * or null if the thumbnail was already available.
+     */
+    public Future<?> request(Project project, Consumer<Image> onReady) {
+        String key = getKey(project);
+        Image cached;
+        synchronized (memory) {
+            cached = memory.get(key);
+        }
+        if (cached != null) {
+            onReady.accept(cached);
+            return null;
+        }
+
+        // Capture everything the worker needs while on the FX thread
+        Path projectFile = projectManager.getProjectFile(project);
+        PaperSize paperSize = project.getPaperSize();
+        String id = project.getId();
+
+        return executor.submit(() -> {
+            try {
+                Thumbnail thumbnail = loadOrRender(id, key, projectFile, paperSize);
+                if (Thread.currentThread().isInterrupted()) {
+                    return null;
+                }
+                Platform.runLater(() -> {
+                    Image image = thumbnail.toImage();
+                    synchronized (memory) {
+                        memory.put(key, image);
+                    }
+                    onReady.accept(image);
+                });
+            } catch (InterruptedException | CancellationException e) {
+                // The cell moved on to another project
+            } catch (IOException e) {
+                System.err.println("Failed to create thumbnail for " + projectFile + ": " + e.getMessage());
+            }
+            return null;
+        });
+    }
+
+    private Thumbnail loadOrRender(String id, String key, Path projectFile, PaperSize paperSize)
+            throws IOException, InterruptedException {
+        Path file = directory.resolve(key + EXTENSION);
+        try {
+            return read(file);
+        } catch (NoSuchFileException e) {
+            // Not rendered yet for this version of the project
+        } catch (IOException e) {
+            System.err.println("Ignoring unreadable thumbnail " + file + ": " + e.getMessage());
+        }
+
+        int width = THUMBNAIL_SIZE;
+        int height = THUMBNAIL_SIZE;
+        if (paperSize.getWidthInPixels() > paperSize.getHeightInPixels()) {
+            height = (int) Math.max(1, Math.round(THUMBNAIL_SIZE * paperSize.getHeightInPixels() / paperSize.getWidthInPixels()));
+        } else {
+            width = (int) Math.max(1, Math.round(THUMBNAIL_SIZE * paperSize.getWidthInPixels() / paperSize.getHeightInPixels()));
+        }
+
+        Thumbnail thumbnail;
+        renderPermits.acquire();
+        try (MappedOperationLog log = MappedOperationLog.open(projectFile)) {
+            int[] pixels = rasterizer.renderPage(new OperationStore(log), paperSize, width, height);
+            thumbnail = new Thumbnail(width, height, pixels);
+        } finally {
+            renderPermits.release();
+        }
+
+        write(file, thumbnail);
+        deleteStale(id, file);
+        return thumbnail;
+    }
+
+    private static Thumbnail read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(
+                new BufferedInputStream(Files.newInputStream(file))))) {
+            int width = in.readInt();
+            int height = in.readInt();
+            if (width <= 0 || height <= 0 || width > THUMBNAIL_SIZE || height > THUMBNAIL_SIZE) {
+                throw new IOException("Invalid thumbnail size " + width + "x" + height);
+            }
+            int[] pixels = new int[width * height];
+            for (int i = 0; i < pixels.length; i++) {
+                pixels[i] = in.readInt();
+            }
+            return new Thumbnail(width, height, pixels);
+        }
+    }
+
+    private void write(Path file, Thumbnail thumbnail) {
+        try {
+            Files.createDirectories(directory);
+            // Written under a temporary name so readers never see a partial file
+            Path temp = Files.createTempFile(directory, "thumb", ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp))))) {
+                out.writeInt(thumbnail.width);
+                out.writeInt(thumbnail.height);
+                for (int pixel : thumbnail.pixels) {
+                    out.writeInt(pixel);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // The thumbnail is still shown, just not cached
+            System.err.println("Failed to cache thumbnail " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes cached thumbnails of older versions of a project
+     */
+    private void deleteStale(String id, Path keep) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, id + "-*" + EXTENSION)) {
+            for (Path file : files) {
+                if (!file.equals(keep)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to delete stale thumbnails of " + id + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Forgets a project's thumbnails, e.g. after it was deleted. May be called from any thread.
+     */
+    public void remove(Project project) {
+        synchronized (memory) {
+            memory.keySet().removeIf(key -> key.startsWith(project.getId() + "-"));
+        }
+        if (Files.isDirectory(directory)) {
+            deleteStale(project.getId(), null);
+        }
+    }
+
+    /**
+     * Stops all pending requests
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static String getKey(Project project) {
+        return project.getId() + "-" + project.getSavedLogLength() + "-" + project.getPaperSize().ordinal();
+    }
+
+    /**
+     * Pixels of a thumbnail before they are turned into an image on the FX thread
+     */
+    private static final class Thumbnail {
+        private final int width;
+        private final int height;
+        private final int[] pixels;
+
+        Thumbnail(int width, int height, int[] pixels) {
+            this.width = width;
+            this.height = height;
+            this.pixels = pixels;
+        }
+
+        Image toImage() {
+            WritableImage image = new WritableImage(width, height);
+            image.getPixelWriter().setPixels(0, 0, width, height,
+                    PixelFormat.getIntArgbInstance(), pixels, 0, width);
+            return image;
+        }
+    }
+}
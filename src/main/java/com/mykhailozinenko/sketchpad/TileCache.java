@@ -0,0 +1,422 @@
+package com.mykhailozinenko.sketchpad;
+
+import javafx.scene.SnapshotParameters;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+
+import java.util.Arrays;
+
+/**
+ * Raster cache of a project's content split into fixed-size tiles.
+ *
+ * Adding an operation only marks the tiles its bounds touch as dirty, and
+ * drawing re-rasterizes just those tiles. Showing content whose tiles
+ * are clean is a handful of image copies, independent of history length.
+ *
+ * Tile images are never modified once rasterized; a changed tile gets a new
+ * image. That lets undo history keep earlier tile states as plain references
+ * (see {@link #beginCapture}). Must be used on the JavaFX application thread.
+ *
+ * For zoomed-out viewing the cache also keeps a mipmap pyramid at 1/2, 1/4
+ * and 1/8 resolution. A tile of level n covers 2x2 tiles of level n - 1 and
+ * is built by averaging them, so it never replays operations. Invalidating
+ * full-resolution tiles also marks the pyramid tiles above them, which are
+ * rebuilt when next drawn.
+ */
+public final class TileCache {
+
+    public static final int TILE_SIZE = 256;
+    // Full resolution plus the 1/2, 1/4 and 1/8 levels
+    public static final int LEVELS = 4;
+
+    private final ProjectContent content;
+    private final int columns;
+    private final int rows;
+    private final WritableImage[] tiles;
+    private final boolean[] dirty;
+    private int dirtyCount;
+
+    // Pre-images of the tiles dirtied since beginCapture, null if not known yet
+    private boolean capturing;
+    private final IntList capturedTiles = new IntList();
+    private final boolean[] captured;
+    private final WritableImage[] capturedBefore;
+
+    // Shared canvas that tiles are rasterized into before being copied out
+    private Canvas scratch;
+    private SnapshotParameters snapshotParameters;
+
+    // Downsampled levels; pyramid[0] is the 1/2 level
+    private final Level[] pyramid = new Level[LEVELS - 1];
+    // Reused pixel buffers for downsampling
+    private final int[] childPixels = new int[TILE_SIZE * TILE_SIZE];
+    private final int[] levelPixels = new int[TILE_SIZE * TILE_SIZE];
+
+    /**
+     * Creates a cache covering the content's whole paper, with every tile dirty
+     */
+    public TileCache(ProjectContent content) {
+        this.content = content;
+        PaperSize paperSize = content.getPaperSize();
+        this.columns = (int) Math.ceil(paperSize.getWidthInPixels() / TILE_SIZE);
+        this.rows = (int) Math.ceil(paperSize.getHeightInPixels() / TILE_SIZE);
+        this.tiles = new WritableImage[columns * rows];
+        this.dirty = new boolean[columns * rows];
+        this.captured = new boolean[columns * rows];
+        this.capturedBefore = new WritableImage[columns * rows];
+        int levelColumns = columns;
+        int levelRows = rows;
+        for (int level = 0; level < pyramid.length; level++) {
+            levelColumns = (levelColumns + 1) / 2;
+            levelRows = (levelRows + 1) / 2;
+            pyramid[level] = new Level(levelColumns, levelRows);
+        }
+        invalidateAll();
+    }
+
+    /**
+     * Marks every tile touched by the given rectangle as dirty
+     */
+    public void invalidate(double minX, double minY, double maxX, double maxY) {
+        int firstColumn = column(minX);
+        int lastColumn = column(maxX);
+        int firstRow = row(minY);
+        int lastRow = row(maxY);
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                markDirty(row * columns + column);
+            }
+        }
+    }
+
+    private int column(double x) {
+        return Math.max(0, Math.min(columns - 1, (int) Math.floor(x / TILE_SIZE)));
+    }
+
+    private int row(double y) {
+        return Math.max(0, Math.min(rows - 1, (int) Math.floor(y / TILE_SIZE)));
+    }
+
+    /**
+     * Marks every tile as dirty
+     */
+    public void invalidateAll() {
+        for (int i = 0; i < dirty.length; i++) {
+            markDirty(i);
+        }
+    }
+
+    private void markDirty(int tile) {
+        if (capturing && !captured[tile]) {
+            // A clean tile still shows the state before the change
+            captured[tile] = true;
+            capturedBefore[tile] = dirty[tile] ? null : tiles[tile];
+            capturedTiles.add(tile);
+        }
+        if (!dirty[tile]) {
+            dirty[tile] = true;
+            dirtyCount++;
+        }
+        int column = tile % columns;
+        int row = tile / columns;
+        for (Level level : pyramid) {
+            column /= 2;
+            row /= 2;
+            level.dirty[row * level.columns + column] = true;
+        }
+    }
+
+    private void rasterize(int tile) {
+        tiles[tile] = renderTile(tile, Integer.MAX_VALUE);
+        dirty[tile] = false;
+        dirtyCount--;
+    }
+
+    /**
+     * Rasterizes a tile into a new image, using only operations below the limit
+     */
+    private WritableImage renderTile(int tile, int operationLimit) {
+        if (scratch == null) {
+            scratch = new Canvas(TILE_SIZE, TILE_SIZE);
+            snapshotParameters = new SnapshotParameters();
+            snapshotParameters.setFill(Color.WHITE);
+        }
+
+        double tileX = (tile % columns) * TILE_SIZE;
+        double tileY = (tile / columns) * TILE_SIZE;
+
+        GraphicsContext gc = scratch.getGraphicsContext2D();
+        gc.setTransform(1, 0, 0, 1, 0, 0);
+        gc.setFill(Color.WHITE);
+        gc.fillRect(0, 0, TILE_SIZE, TILE_SIZE);
+
+        // Replay only the operations that reach into this tile
+        gc.setTransform(1, 0, 0, 1, -tileX, -tileY);
+        content.replay(gc, tileX, tileY, tileX + TILE_SIZE, tileY + TILE_SIZE, operationLimit);
+
+        return scratch.snapshot(snapshotParameters, new WritableImage(TILE_SIZE, TILE_SIZE));
+    }
+
+    /**
+     * Starts recording the pre-image of every tile dirtied from now on
+     */
+    public void beginCapture() {
+        capturing = true;
+        capturedTiles.clear();
+    }
+
+    /**
+     * Stops recording and brings the captured tiles up to date. Returns the
+     * tiles together with their images before and after the change.
+     *
+     * @param operationsBefore number of operations the content had when the capture began
+     */
+    public Patch endCapture(int operationsBefore) {
+        capturing = false;
+
+        int count = capturedTiles.size();
+        int[] ids = new int[count];
+        WritableImage[] before = new WritableImage[count];
+        WritableImage[] after = new WritableImage[count];
+
+        for (int i = 0; i < count; i++) {
+            int tile = capturedTiles.get(i);
+            ids[i] = tile;
+            // Tiles that were stale already need their old state rasterized
+            before[i] = capturedBefore[tile] != null
+                    ? capturedBefore[tile]
+                    : renderTile(tile, operationsBefore);
+            if (dirty[tile]) {
+                rasterize(tile);
+            }
+            after[i] = tiles[tile];
+
+            captured[tile] = false;
+            capturedBefore[tile] = null;
+        }
+        capturedTiles.clear();
+
+        return new Patch(ids, before, after);
+    }
+
+    /**
+     * Replaces tiles with previously captured images
+     */
+    public void apply(int[] ids, WritableImage[] images) {
+        for (int i = 0; i < ids.length; i++) {
+            int tile = ids[i];
+            tiles[tile] = images[i];
+            if (dirty[tile]) {
+                dirty[tile] = false;
+                dirtyCount--;
+            }
+
+            // The pyramid above the tile has to be rebuilt from the restored image
+            int column = tile % columns;
+            int row = tile / columns;
+            for (Level level : pyramid) {
+                column /= 2;
+                row /= 2;
+                level.dirty[row * level.columns + column] = true;
+            }
+        }
+    }
+
+    /**
+     * Draws all tiles onto the graphics context, updating dirty ones first
+     */
+    public void draw(GraphicsContext gc) {
+        for (int tile = 0; tile < tiles.length; tile++) {
+            if (dirty[tile]) {
+                rasterize(tile);
+            }
+            gc.drawImage(tiles[tile], (tile % columns) * TILE_SIZE, (tile / columns) * TILE_SIZE);
+        }
+    }
+
+    /**
+     * Draws a window of the page at a zoom from the tiles of a pyramid level.
+     * The window is in zoomed pixels, and its top left corner is drawn at 0, 0.
+     * Tile edges are rounded to whole pixels so neighbouring tiles meet without seams.
+     */
+    public void drawScaled(GraphicsContext gc, int level, double zoom,
+                           double windowX, double windowY, double windowWidth, double windowHeight) {
+        double span = TILE_SIZE * (1 << level) * zoom;
+        int levelColumns = level == 0 ? columns : pyramid[level - 1].columns;
+        int levelRows = level == 0 ? rows : pyramid[level - 1].rows;
+        int firstColumn = Math.max(0, (int) Math.floor(windowX / span));
+        int lastColumn = Math.min(levelColumns - 1, (int) Math.floor((windowX + windowWidth) / span));
+        int firstRow = Math.max(0, (int) Math.floor(windowY / span));
+        int lastRow = Math.min(levelRows - 1, (int) Math.floor((windowY + windowHeight) / span));
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            double top = Math.round(row * span) - windowY;
+            double bottom = Math.round((row + 1) * span) - windowY;
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                double left = Math.round(column * span) - windowX;
+                double right = Math.round((column + 1) * span) - windowX;
+                gc.drawImage(levelTile(level, column, row), left, top, right - left, bottom - top);
+            }
+        }
+    }
+
+    /**
+     * Gets an up-to-date tile image of any level, or null outside the page
+     */
+    private WritableImage levelTile(int level, int column, int row) {
+        if (level == 0) {
+            if (column >= columns || row >= rows) {
+                return null;
+            }
+            int tile = row * columns + column;
+            if (dirty[tile]) {
+                rasterize(tile);
+            }
+            return tiles[tile];
+        }
+
+        Level target = pyramid[level - 1];
+        if (column >= target.columns || row >= target.rows) {
+            return null;
+        }
+        int tile = row * target.columns + column;
+        if (target.dirty[tile] || target.tiles[tile] == null) {
+            target.tiles[tile] = downsample(level, column, row);
+            target.dirty[tile] = false;
+        }
+        return target.tiles[tile];
+    }
+
+    /**
+     * Builds a pyramid tile by averaging each 2x2 block of its four child tiles
+     */
+    private WritableImage downsample(int level, int column, int row) {
+        // Bring the children up to date first, since that may downsample with the same buffers
+        WritableImage[] children = new WritableImage[4];
+        for (int child = 0; child < 4; child++) {
+            children[child] = levelTile(level - 1, column * 2 + (child & 1), row * 2 + (child >> 1));
+        }
+
+        Arrays.fill(levelPixels, 0xFFFFFFFF);
+        int half = TILE_SIZE / 2;
+
+        for (int child = 0; child < 4; child++) {
+            WritableImage image = children[child];
+            if (image == null) {
+                // Past the edge of the page, which stays white
+                continue;
+            }
+            image.getPixelReader().getPixels(0, 0, TILE_SIZE, TILE_SIZE,
+                    PixelFormat.getIntArgbInstance(), childPixels, 0, TILE_SIZE);
+
+            int offsetX = (child & 1) * half;
+            int offsetY = (child >> 1) * half;
+            for (int y = 0; y < half; y++) {
+                for (int x = 0; x < half; x++) {
+                    int i = y * 2 * TILE_SIZE + x * 2;
+                    levelPixels[(offsetY + y) * TILE_SIZE + offsetX + x] = average(
+                            childPixels[i], childPixels[i + 1],
+                            childPixels[i + TILE_SIZE], childPixels[i + TILE_SIZE + 1]);
+                }
+            }
+        }
+
+        WritableImage image = new WritableImage(TILE_SIZE, TILE_SIZE);
+        image.getPixelWriter().setPixels(0, 0, TILE_SIZE, TILE_SIZE,
+                PixelFormat.getIntArgbInstance(), levelPixels, 0, TILE_SIZE);
+        return image;
+    }
+
+    /**
+     * Averages four ARGB pixels channel by channel
+     */
+    private static int average(int a, int b, int c, int d) {
+        int alpha = ((a >>> 24) + (b >>> 24) + (c >>> 24) + (d >>> 24) + 2) >> 2;
+        int red = (((a >> 16) & 0xFF) + ((b >> 16) & 0xFF) + ((c >> 16) & 0xFF) + ((d >> 16) & 0xFF) + 2) >> 2;
+        int green = (((a >> 8) & 0xFF) + ((b >> 8) & 0xFF) + ((c >> 8) & 0xFF) + ((d >> 8) & 0xFF) + 2) >> 2;
+        int blue = ((a & 0xFF) + (b & 0xFF) + (c & 0xFF) + (d & 0xFF) + 2) >> 2;
+        return alpha << 24 | red << 16 | green << 8 | blue;
+    }
+
+    /**
+     * Gets the number of tiles waiting to be re-rasterized
+     */
+    public int getDirtyCount() {
+        return dirtyCount;
+    }
+
+    /**
+     * Estimates the memory held by rasterized tiles, in bytes
+     */
+    public long estimateMemoryBytes() {
+        long bytes = 0;
+        for (WritableImage image : tiles) {
+            if (image != null) {
+                bytes += (long) TILE_SIZE * TILE_SIZE * 4;
+            }
+        }
+        for (Level level : pyramid) {
+            for (WritableImage image : level.tiles) {
+                if (image != null) {
+                    bytes += (long) TILE_SIZE * TILE_SIZE * 4;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Tiles of one downsampled pyramid level
+     */
+    private static final class Level {
+        private final int columns;
+        private final int rows;
+        private final WritableImage[] tiles;
+        private final boolean[] dirty;
+
+        Level(int columns, int rows) {
+            this.columns = columns;
+            this.rows = rows;
+            this.tiles = new WritableImage[columns * rows];
+            this.dirty = new boolean[columns * rows];
+        }
+    }
+
+    /**
+     * Tile images from before and after one change
+     */
+    public static final class Patch {
+        private final int[] tiles;
+        private final WritableImage[] before;
+        private final WritableImage[] after;
+
+        Patch(int[] tiles, WritableImage[] before, WritableImage[] after) {
+            this.tiles = tiles;
+            this.before = before;
+            this.after = after;
+        }
+
+        public int[] getTiles() {
+            return tiles;
+        }
+
+        public WritableImage[] getBefore() {
+            return before;
+        }
+
+        public WritableImage[] getAfter() {
+            return after;
+        }
+
+        /**
+         * Estimates the memory held by the patch images, in bytes
+         */
+        public long estimateMemoryBytes() {
+            return (long) (before.length + after.length) * TILE_SIZE * TILE_SIZE * 4;
+        }
+    }
+}
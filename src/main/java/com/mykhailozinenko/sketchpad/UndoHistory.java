@@ -0,0 +1,199 @@
+package com.mykhailozinenko.sketchpad;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Undo/redo history of a project, one entry per drawing gesture.
+ *
+ * Each entry keeps the gesture's operations and the images of the raster
+ * tiles it touched before and after the change. Undo and redo swap those
+ * tiles back in and truncate or re-append the operations, so their cost
+ * depends on the area a gesture covered rather than on the history length.
+ * Entries are evicted oldest first once their memory exceeds the budget.
+ */
+public class UndoHistory {
+
+    public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+    private final Deque<Entry> undoStack = new ArrayDeque<>();
+    private final Deque<Entry> redoStack = new ArrayDeque<>();
+    private long memoryBudget;
+    private long usedBytes;
+
+    // Gesture currently being recorded, if any
+    private int pendingFirstOperation = -1;
+
+    public UndoHistory() {
+        this(DEFAULT_MEMORY_BUDGET);
+    }
+
+    public UndoHistory(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Starts recording a gesture on the given content
+     */
+    public void begin(ProjectContent content) {
+        pendingFirstOperation = content.getOperationCount();
+        content.beginTileCapture();
+    }
+
+    /**
+     * Finishes recording the current gesture and pushes it onto the history
+     */
+    public void end(ProjectContent content) {
+        if (pendingFirstOperation < 0) {
+            return;
+        }
+        Entry entry = new Entry(pendingFirstOperation, content.endTileCapture(pendingFirstOperation));
+        pendingFirstOperation = -1;
+
+        // A new gesture makes the redo branch unreachable
+        for (Entry dropped : redoStack) {
+            usedBytes -= dropped.bytes;
+        }
+        redoStack.clear();
+
+        push(undoStack, entry);
+        evict();
+    }
+
+    /**
+     * Undoes the last gesture. Returns false if there was nothing to undo.
+     */
+    public boolean undo(ProjectContent content) {
+        Entry entry = undoStack.poll();
+        if (entry == null) {
+            return false;
+        }
+        usedBytes -= entry.bytes;
+        entry.removed = content.removeOperationsFrom(entry.firstOperation, entry.patch);
+        push(redoStack, entry);
+        evict();
+        return true;
+    }
+
+    /**
+     * Redoes the last undone gesture. Returns false if there was nothing to redo.
+     */
+    public boolean redo(ProjectContent content) {
+        Entry entry = redoStack.poll();
+        if (entry == null) {
+            return false;
+        }
+        usedBytes -= entry.bytes;
+        content.appendOperations(entry.removed, entry.patch);
+        entry.removed = null;
+        push(undoStack, entry);
+        return true;
+    }
+
+    private void push(Deque<Entry> stack, Entry entry) {
+        entry.bytes = entry.estimateMemoryBytes();
+        usedBytes += entry.bytes;
+        stack.push(entry);
+    }
+
+    /**
+     * Drops the oldest entries until the history fits its memory budget
+     */
+    private void evict() {
+        while (usedBytes > memoryBudget && !undoStack.isEmpty()) {
+            usedBytes -= undoStack.removeLast().bytes;
+        }
+        while (usedBytes > memoryBudget && !redoStack.isEmpty()) {
+            usedBytes -= redoStack.removeLast().bytes;
+        }
+    }
+
+    /**
+     * Gets the first operation that an undo, redo or the gesture in progress
+     * could still change, or the given operation count if there is none.
+     * Operations before it are final.
+     */
+    public int getFirstUndoableOperation(int operationCount) {
+        int first = pendingFirstOperation >= 0 ? pendingFirstOperation : operationCount;
+        // The oldest undo entry starts lowest; without one, the next redo does
+        Entry oldest = !undoStack.isEmpty() ? undoStack.peekLast() : redoStack.peek();
+        return oldest != null ? Math.min(first, oldest.firstOperation) : first;
+    }
+
+    /**
+     * Moves every entry by the given number of operations, after operations
+     * before all of them were removed
+     */
+    void shiftOperations(int delta) {
+        for (Entry entry : undoStack) {
+            entry.firstOperation += delta;
+        }
+        for (Entry entry : redoStack) {
+            entry.firstOperation += delta;
+        }
+        if (pendingFirstOperation >= 0) {
+            pendingFirstOperation += delta;
+        }
+    }
+
+    public boolean canUndo() {
+        return !undoStack.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return !redoStack.isEmpty();
+    }
+
+    /**
+     * Forgets all history
+     */
+    public void clear() {
+        undoStack.clear();
+        redoStack.clear();
+        usedBytes = 0;
+        pendingFirstOperation = -1;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Sets the memory budget in bytes, evicting old entries if needed
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        evict();
+    }
+
+    /**
+     * Gets the estimated memory held by the history, in bytes
+     */
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * One undoable gesture
+     */
+    private static class Entry {
+        private int firstOperation;
+        private final TileCache.Patch patch;
+        // The gesture's operations while it is undone
+        private OperationStore removed;
+        private long bytes;
+
+        Entry(int firstOperation, TileCache.Patch patch) {
+            this.firstOperation = firstOperation;
+            this.patch = patch;
+        }
+
+        long estimateMemoryBytes() {
+            long total = patch != null ? patch.estimateMemoryBytes() : 0;
+            if (removed != null) {
+                total += removed.estimateMemoryBytes();
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.mykhailozinenko.sketchpad;
+
+import javafx.geometry.Insets;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.layout.Background;
+import javafx.scene.layout.BackgroundFill;
+import javafx.scene.layout.CornerRadii;
+import javafx.scene.layout.Region;
+import javafx.scene.paint.Color;
+
+/**
+ * Scrollable page whose drawing surface only covers the visible part.
+ *
+ * The region is as large as the page at the current zoom, so a scroll pane
+ * around it scrolls as before, but its only child is a canvas the size of
+ * the viewport that is moved to wherever the viewport shows. Scrolling,
+ * zooming or resizing redraws that canvas from the cached tiles of
+ * {@link TileCache}, using the pyramid level that suits the zoom, so memory
+ * depends on the window size rather than the paper size and zoom. Redraws
+ * are done in the next layout pass, so several changes within one pulse
+ * cost one redraw.
+ */
+public final class ViewportCanvas extends Region {
+
+    private final Canvas surface = new Canvas();
+    private Project project;
+    private double zoom = 1.0;
+    private int detailLevel;
+
+    // Visible part of the zoomed page, as set by the scroll pane
+    private double hvalue;
+    private double vvalue;
+    private double viewportWidth;
+    private double viewportHeight;
+    private boolean redrawPending;
+
+    public ViewportCanvas(Project project) {
+        this.project = project;
+        setBackground(new Background(new BackgroundFill(Color.WHITE, CornerRadii.EMPTY, Insets.EMPTY)));
+        // Input is handled by the region, so it also works where the surface does not reach yet
+        surface.setMouseTransparent(true);
+        getChildren().add(surface);
+        updateSize();
+    }
+
+    /**
+     * Shows a different project
+     */
+    public void setProject(Project project) {
+        this.project = project;
+        updateSize();
+    }
+
+    /**
+     * Sets the zoom and the tile pyramid level drawn at it
+     */
+    public void setZoom(double zoom, int detailLevel) {
+        this.zoom = zoom;
+        this.detailLevel = detailLevel;
+        updateSize();
+    }
+
+    public double getZoom() {
+        return zoom;
+    }
+
+    /**
+     * Sets the part of the page the scroll pane shows, from its scroll values and viewport size
+     */
+    public void setVisibleArea(double hvalue, double vvalue, double viewportWidth, double viewportHeight) {
+        this.hvalue = hvalue;
+        this.vvalue = vvalue;
+        this.viewportWidth = viewportWidth;
+        this.viewportHeight = viewportHeight;
+        requestRedraw();
+    }
+
+    private void updateSize() {
+        PaperSize paperSize = project.getPaperSize();
+        double width = paperSize.getWidthInPixels() * zoom;
+        double height = paperSize.getHeightInPixels() * zoom;
+        setMinSize(width, height);
+        setPrefSize(width, height);
+        setMaxSize(width, height);
+        requestRedraw();
+    }
+
+    /**
+     * Redraws the surface in the next layout pass, e.g. after the content changed
+     */
+    public void requestRedraw() {
+        redrawPending = true;
+        requestLayout();
+    }
+
+    @Override
+    protected void layoutChildren() {
+        if (redrawPending) {
+            redrawPending = false;
+            redraw();
+        }
+    }
+
+    /**
+     * Moves and resizes the surface to the visible part of the page and draws it from the tiles
+     */
+    private void redraw() {
+        double width = getPrefWidth();
+        double height = getPrefHeight();
+        // Same offsets as the scroll pane, on whole pixels so tiles are not resampled
+        double windowX = Math.floor(hvalue * Math.max(0, width - viewportWidth));
+        double windowY = Math.floor(vvalue * Math.max(0, height - viewportHeight));
+        surface.setWidth(Math.max(0, Math.min(Math.ceil(viewportWidth) + 1, Math.ceil(width) - windowX)));
+        surface.setHeight(Math.max(0, Math.min(Math.ceil(viewportHeight) + 1, Math.ceil(height) - windowY)));
+        surface.relocate(windowX, windowY);
+
+        if (surface.getWidth() > 0 && surface.getHeight() > 0) {
+            project.getContent().render(surface, detailLevel, zoom, windowX, windowY);
+        }
+        // Strokes are painted over the tiles in page coordinates
+        surface.getGraphicsContext2D().setTransform(zoom, 0, 0, zoom, -windowX, -windowY);
+    }
+
+    /**
+     * Paints the gesture in progress from the given point on, over what the surface shows
+     */
+    public void paintStroke(DrawOperation.PolylineStrokeOperation stroke, int firstPoint) {
+        stroke.drawFrom(surface.getGraphicsContext2D(), firstPoint);
+    }
+
+    /**
+     * Converts a point of this region to page coordinates
+     */
+    public double toPageX(double x) {
+        return x / zoom;
+    }
+
+    public double toPageY(double y) {
+        return y / zoom;
+    }
+}
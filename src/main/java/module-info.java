@@ -1,6 +1,9 @@
 module com.mykhailozinenko.sketchpad {
     requires javafx.controls;
     requires javafx.fxml;
+    requires java.management;
+    requires jdk.jfr;
+    requires jdk.management;
 
     requires org.controlsfx.controls;
     requires org.kordamp.bootstrapfx.core;
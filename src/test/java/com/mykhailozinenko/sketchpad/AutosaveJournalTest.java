@@ -0,0 +1,161 @@
+package com.mykhailozinenko.sketchpad;
+
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AutosaveJournalTest {
+
+    private ProjectManager manager;
+    private AutosaveJournal journal;
+    private Project project;
+    private OperationStore live;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        manager = TestProjects.manager();
+        journal = manager.getAutosaveJournal();
+        Files.createDirectories(manager.getStorageDirectory());
+
+        // Two operations are saved, the rest only reach the journal
+        project = new Project("Journal", PaperSize.A4);
+        live = project.getContent().getOperations();
+        live.addDot(10, 10, Color.BLACK, 4);
+        live.addStroke(20, 20, 80, 40.5, Color.web("#007aff"), 3);
+        ProjectFile.save(project, manager.getProjectFile(project));
+
+        live.addStroke(5, 5, 50, 50, Color.rgb(255, 59, 48, 0.5), 6);
+        live.beginPolyline(100, 100, Color.BLACK, 4);
+        for (int p = 1; p < 40; p++) {
+            live.extendPolyline(100 + p * 3.3, 100 + Math.sin(p) * 20);
+        }
+        live.sealPolyline();
+        live.addDot(300, 300, Color.web("#34c759"), 12);
+        live.addStroke(0, 0, 200, 200, Color.BLACK, 2);
+        live.addStroke(1, 2, 3, 4, Color.BLACK, 2);
+    }
+
+    @Test
+    void recoversRecordsUpToATornTail() throws IOException {
+        ProjectFile.RecordBuffer records = new ProjectFile.RecordBuffer(256);
+        BrushPalette brushes = live.getBrushes();
+        for (int brush = live.getPersistedBrushCount(); brush < brushes.size(); brush++) {
+            records.putBrush(brushes.argb(brush), brushes.width(brush));
+        }
+        records.putOperation(live, 2);
+        records.putOperation(live, 3);
+        records.putOperation(live, 4);
+        // Undo of the dot, then another gesture
+        records.putTruncate(4);
+        records.putOperation(live, 5);
+        int complete = records.size();
+        // A crash tears the last record
+        records.putOperation(live, 6);
+        writeJournal(Files.size(manager.getProjectFile(project)),
+                Arrays.copyOf(records.toByteArray(), complete + ProjectFile.OPERATION_HEADER_SIZE + 1));
+
+        Project reopened = ProjectFile.load(manager.getProjectFile(project));
+        assertTrue(journal.recover(reopened));
+
+        int[] expected = {0, 1, 2, 3, 5};
+        assertOperations(expected, reopened.getContent().getOperations());
+        // Recovery saves the project, so the file alone now holds the changes
+        assertOperations(expected, ProjectFile.load(manager.getProjectFile(project)).getContent().getOperations());
+    }
+
+    @Test
+    void recoversAClear() throws IOException {
+        ProjectFile.RecordBuffer records = new ProjectFile.RecordBuffer(256);
+        records.putTruncate(0);
+        records.putOperation(live, 0);
+        writeJournal(Files.size(manager.getProjectFile(project)), records.toByteArray());
+
+        Project reopened = ProjectFile.load(manager.getProjectFile(project));
+        assertTrue(journal.recover(reopened));
+        assertOperations(new int[]{0}, reopened.getContent().getOperations());
+    }
+
+    @Test
+    void discardsJournalOfADifferentProjectFile() throws IOException {
+        ProjectFile.RecordBuffer records = new ProjectFile.RecordBuffer(256);
+        records.putOperation(live, 0);
+        // Written against a project file that was saved again since
+        writeJournal(Files.size(manager.getProjectFile(project)) + 64, records.toByteArray());
+
+        Project reopened = ProjectFile.load(manager.getProjectFile(project));
+        assertFalse(journal.recover(reopened));
+        assertFalse(Files.exists(journal.getJournalFile(reopened)));
+        assertOperations(new int[]{0, 1}, reopened.getContent().getOperations());
+    }
+
+    @Test
+    void recoversJournalOfASaveThatNeverCommitted() throws IOException {
+        Path projectFile = manager.getProjectFile(project);
+        long committed = ProjectFile.readLogEnd(projectFile);
+        ProjectFile.RecordBuffer records = new ProjectFile.RecordBuffer(256);
+        BrushPalette brushes = live.getBrushes();
+        for (int brush = live.getPersistedBrushCount(); brush < brushes.size(); brush++) {
+            records.putBrush(brushes.argb(brush), brushes.width(brush));
+        }
+        records.putOperation(live, 2);
+        records.putOperation(live, 3);
+        writeJournal(committed, records.toByteArray());
+
+        // A crash after a save appended its records, before it committed them
+        Files.write(projectFile, records.toByteArray(), StandardOpenOption.APPEND);
+        assertEquals(committed, ProjectFile.readLogEnd(projectFile));
+
+        Project reopened = ProjectFile.load(projectFile);
+        assertOperations(new int[]{0, 1}, reopened.getContent().getOperations());
+        assertTrue(journal.recover(reopened));
+        assertOperations(new int[]{0, 1, 2, 3}, reopened.getContent().getOperations());
+        assertOperations(new int[]{0, 1, 2, 3}, ProjectFile.load(projectFile).getContent().getOperations());
+    }
+
+    @Test
+    void changesMadeWhileASaveIsWrittenStayUnsaved() throws IOException {
+        Path projectFile = manager.getProjectFile(project);
+        ProjectFile.SaveSnapshot snapshot = ProjectFile.snapshot(project);
+        // Undone and drawn over on the FX thread while another thread writes the file
+        project.getContent().removeOperationsFrom(5, null);
+        live.addDot(40, 40, Color.BLACK, 8);
+        manager.completeSave(project, snapshot, ProjectFile.write(snapshot, projectFile));
+
+        assertFalse(project.getContent().isSaved());
+        assertEquals(5, live.getUnchangedPrefix());
+        assertEquals(7, ProjectFile.load(projectFile).getContent().getOperationCount());
+
+        assertTrue(manager.saveProject(project));
+        assertTrue(project.getContent().isSaved());
+        assertOperations(new int[]{0, 1, 2, 3, 4, 5}, ProjectFile.load(projectFile).getContent().getOperations());
+    }
+
+    private void writeJournal(long baseFileSize, byte[] records) throws IOException {
+        ByteBuffer file = ByteBuffer.allocate(AutosaveJournal.HEADER_SIZE + records.length).order(ByteOrder.LITTLE_ENDIAN);
+        file.putInt(AutosaveJournal.MAGIC).putInt(AutosaveJournal.VERSION).putLong(baseFileSize).put(records);
+        Path path = journal.getJournalFile(project);
+        Files.write(path, file.array());
+    }
+
+    /**
+     * Checks that the content holds the given operations of the live store, in order
+     */
+    private void assertOperations(int[] expected, OperationStore actual) {
+        assertEquals(expected.length, actual.size());
+        for (int i = 0; i < expected.length; i++) {
+            TestProjects.assertSameOperation(live, expected[i], actual, i);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.mykhailozinenko.sketchpad;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProjectIndexTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 3, 1, 9, 0);
+    private static final String[] WORDS = {"Sketch", "alpha", "Beta", "garden", "PORTRAIT", "study", "Alps", "tree"};
+
+    private static final String[] QUERIES = {"", "al", "alp"};
+
+    private final Random random = new Random(11);
+    private final List<Project> all = new ArrayList<>();
+    private int nextId;
+
+    @Test
+    void addRemoveAndUpdateReportPositionsInEverySort() {
+        for (ProjectIndex.Sort sort : ProjectIndex.Sort.values()) {
+            all.clear();
+            ProjectIndex index = new ProjectIndex();
+            index.setSort(sort);
+            // Positions are in the results, so each order also runs with a query
+            index.setQuery(QUERIES[sort.ordinal()]);
+            for (int i = 0; i < 30; i++) {
+                all.add(randomProject());
+            }
+            index.setAll(all);
+            assertResults(index);
+
+            for (int step = 0; step < 200; step++) {
+                switch (random.nextInt(3)) {
+                    case 0 -> {
+                        Project project = randomProject();
+                        all.add(project);
+                        int position = index.add(project);
+                        assertEquals(expected(index).indexOf(project), position);
+                    }
+                    case 1 -> {
+                        Project project = all.get(random.nextInt(all.size()));
+                        int position = expected(index).indexOf(project);
+                        all.remove(project);
+                        assertEquals(position, index.remove(project));
+                    }
+                    default -> {
+                        // An update is a remove and an add, as the list view does it
+                        Project project = all.get(random.nextInt(all.size()));
+                        int from = expected(index).indexOf(project);
+                        assertEquals(from, index.remove(project));
+                        project.setName(randomName());
+                        assertEquals(expected(index).indexOf(project), index.add(project));
+                    }
+                }
+                assertResults(index);
+            }
+        }
+    }
+
+    @Test
+    void switchingSortKeepsEveryOrderUpToDate() {
+        ProjectIndex index = new ProjectIndex();
+        for (int i = 0; i < 20; i++) {
+            all.add(randomProject());
+        }
+        index.setAll(all);
+        for (ProjectIndex.Sort sort : ProjectIndex.Sort.values()) {
+            index.setSort(sort);
+        }
+        for (int i = 0; i < 20; i++) {
+            Project project = randomProject();
+            all.add(project);
+            index.add(project);
+            index.remove(all.remove(random.nextInt(all.size())));
+        }
+        for (ProjectIndex.Sort sort : ProjectIndex.Sort.values()) {
+            index.setSort(sort);
+            assertResults(index);
+        }
+    }
+
+    @Test
+    void queriesShorterThanATrigramScanNames() {
+        ProjectIndex index = indexOf("Alpha", "alps trip", "Beta", "Palace");
+        index.setQuery("AL");
+        assertEquals(List.of("Alpha", "alps trip", "Palace"), names(index));
+        index.setQuery(" p ");
+        assertEquals(List.of("Alpha", "alps trip", "Palace"), names(index));
+        index.setQuery("zz");
+        assertTrue(names(index).isEmpty());
+    }
+
+    @Test
+    void queriesOfATrigramOrMoreUseThePostings() {
+        ProjectIndex index = indexOf("Alpha", "alps trip", "Beta", "Palace", "ALPHABET");
+        index.setQuery("alp");
+        assertEquals(List.of("Alpha", "alps trip", "ALPHABET"), names(index));
+        index.setQuery("Alphab");
+        assertEquals(List.of("ALPHABET"), names(index));
+        index.setQuery("pha");
+        assertEquals(List.of("Alpha", "ALPHABET"), names(index));
+        index.setQuery("phx");
+        assertTrue(names(index).isEmpty());
+
+        // Projects added while a query is set are matched the same way
+        assertEquals(-1, index.add(project("Xylophone", 10)));
+        index.setQuery("alp");
+        assertEquals(3, index.add(project("Alpine", 11)));
+        assertEquals(List.of("Alpha", "alps trip", "ALPHABET", "Alpine"), names(index));
+    }
+
+    @Test
+    void reusedSlotsDoNotMatchTheirFormerNames() {
+        ProjectIndex index = new ProjectIndex();
+        List<Project> projects = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            projects.add(project("Garden study " + i, i));
+        }
+        Project alpha = project("Alpha", 10);
+        projects.add(alpha);
+        index.setAll(projects);
+
+        // Few enough stale postings that they survive the removal
+        assertEquals(10, index.remove(alpha));
+        Project beta = project("Beta", 11);
+        index.add(beta);
+        assertEquals(11, index.size());
+        assertFalse(index.contains(alpha));
+
+        index.setQuery("alpha");
+        assertTrue(names(index).isEmpty());
+        index.setQuery("bet");
+        assertEquals(List.of("Beta"), names(index));
+        index.setQuery("al");
+        assertTrue(names(index).isEmpty());
+
+        // A renamed project leaves its old trigrams behind as well
+        Project renamed = projects.get(3);
+        index.setQuery("");
+        index.remove(renamed);
+        renamed.setName("Portrait");
+        index.add(renamed);
+        index.setQuery("study 3");
+        assertTrue(names(index).isEmpty());
+        index.setQuery("trai");
+        assertEquals(List.of("Portrait"), names(index));
+    }
+
+    private ProjectIndex indexOf(String... names) {
+        ProjectIndex index = new ProjectIndex();
+        List<Project> projects = new ArrayList<>();
+        for (int i = 0; i < names.length; i++) {
+            projects.add(project(names[i], i));
+        }
+        index.setAll(projects);
+        return index;
+    }
+
+    private Project randomProject() {
+        // Few distinct dates, so ties fall through to the next key
+        LocalDateTime created = START.plusMinutes(random.nextInt(8));
+        LocalDateTime modified = created.plusMinutes(random.nextInt(8));
+        return new Project("p" + nextId++, randomName(), PaperSize.A4, created, modified, null);
+    }
+
+    private String randomName() {
+        return WORDS[random.nextInt(WORDS.length)] + (random.nextBoolean() ? "" : " " + random.nextInt(3));
+    }
+
+    private Project project(String name, int minute) {
+        LocalDateTime date = START.plusMinutes(minute);
+        return new Project("p" + nextId++, name, PaperSize.A4, date, date, null);
+    }
+
+    private List<Project> expected(ProjectIndex index) {
+        List<Project> expected = new ArrayList<>();
+        for (Project project : all) {
+            if (project.getName().toLowerCase(Locale.ROOT).contains(index.getQuery())) {
+                expected.add(project);
+            }
+        }
+        expected.sort(order(index.getSort()));
+        return expected;
+    }
+
+    private void assertResults(ProjectIndex index) {
+        assertEquals(all.size(), index.size());
+        assertEquals(expected(index), index.getResults());
+    }
+
+    private static Comparator<Project> order(ProjectIndex.Sort sort) {
+        Comparator<Project> byId = Comparator.comparing(Project::getId);
+        Comparator<Project> byCreated = Comparator.comparing(Project::getCreatedDate);
+        return switch (sort) {
+            case CREATED -> byCreated.thenComparing(byId);
+            case LAST_MODIFIED -> Comparator.comparing(Project::getLastModifiedDate).reversed().thenComparing(byId);
+            case NAME -> Comparator.comparing((Project project) -> project.getName().toLowerCase(Locale.ROOT))
+                    .thenComparing(byCreated).thenComparing(byId);
+        };
+    }
+
+    private static List<String> names(ProjectIndex index) {
+        List<String> names = new ArrayList<>();
+        for (Project project : index.getResults()) {
+            names.add(project.getName());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,111 @@
+package com.mykhailozinenko.sketchpad;
+
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProjectManagerTest {
+
+    private static final int THREADS = 4;
+    private static final int PROJECTS_PER_THREAD = 40;
+
+    @Test
+    void concurrentCreatesAndDeletesKeepTheRegistryConsistent() throws Exception {
+        ProjectManager manager = TestProjects.manager();
+        Set<Project> kept = ConcurrentHashMap.newKeySet();
+        Set<Project> deleted = ConcurrentHashMap.newKeySet();
+        Set<String> added = ConcurrentHashMap.newKeySet();
+        ProjectManager.ProjectListener listener = changes -> {
+            for (ProjectManager.ProjectChange change : changes) {
+                if (change.type() == ProjectManager.ProjectChange.Type.ADDED) {
+                    added.add(change.project().getId());
+                }
+            }
+        };
+        manager.addProjectListener(listener);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        try {
+            List<Future<?>> writers = new ArrayList<>();
+            for (int thread = 0; thread < THREADS; thread++) {
+                int id = thread;
+                writers.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < PROJECTS_PER_THREAD; i++) {
+                        Project project = manager.createProject("Thread " + id + " #" + i, PaperSize.A5);
+                        project.addDrawOperation(new DrawOperation.DotOperation(10, 10, Color.BLACK, 4));
+                        manager.saveProject(project);
+                        if (i % 2 == 0) {
+                            assertTrue(manager.deleteProject(project));
+                            deleted.add(project);
+                        } else {
+                            kept.add(project);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            // Reads take no lock and must never see a broken list
+            Future<?> reader = executor.submit(() -> {
+                start.await();
+                while (writing.get()) {
+                    Set<String> ids = new HashSet<>();
+                    for (Project project : manager.getAllProjects()) {
+                        assertTrue(ids.add(project.getId()), "listed twice: " + project.getName());
+                        manager.getProject(project.getId());
+                    }
+                    manager.getContentCache().getResidentBytes();
+                }
+                return null;
+            });
+
+            start.countDown();
+            for (Future<?> writer : writers) {
+                writer.get(60, TimeUnit.SECONDS);
+            }
+            writing.set(false);
+            reader.get(60, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+            manager.removeProjectListener(listener);
+        }
+
+        assertEquals(THREADS * PROJECTS_PER_THREAD / 2, kept.size());
+        List<Project> all = manager.getAllProjects();
+        for (Project project : kept) {
+            assertSame(project, manager.getProject(project.getId()).orElseThrow());
+            assertTrue(all.contains(project));
+            assertTrue(Files.exists(manager.getProjectFile(project)));
+            assertTrue(added.contains(project.getId()));
+        }
+        for (Project project : deleted) {
+            assertFalse(manager.getProject(project.getId()).isPresent());
+            assertFalse(all.contains(project));
+            assertFalse(Files.exists(manager.getProjectFile(project)));
+        }
+        assertEquals(all.size(), new HashSet<>(all).size());
+
+        for (Project project : kept) {
+            manager.deleteProject(project);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.mykhailozinenko.sketchpad;
+
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SoftwareRasterizerTest {
+
+    private static final int SIZE = 64;
+    private static final int TRANSPARENT = 0;
+
+    private final SoftwareRasterizer rasterizer = new SoftwareRasterizer();
+
+    @Test
+    void dotCoverageFollowsDistanceFromCentre() {
+        OperationStore operations = new OperationStore();
+        operations.addDot(20.25, 30.5, Color.BLACK, 7);
+
+        int[] pixels = render(operations, TRANSPARENT);
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                double distance = Math.hypot(x + 0.5 - 20.25, y + 0.5 - 30.5);
+                assertCoverage(expectedCoverage(distance, 3.5), pixels[y * SIZE + x], x, y);
+            }
+        }
+    }
+
+    @Test
+    void segmentCoverageFollowsDistanceFromRoundCappedSegment() {
+        OperationStore operations = new OperationStore();
+        operations.addStroke(10, 12.5, 45.75, 40, Color.BLACK, 5);
+
+        int[] pixels = render(operations, TRANSPARENT);
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                double distance = distanceToSegment(x + 0.5, y + 0.5, 10, 12.5, 45.75, 40);
+                assertCoverage(expectedCoverage(distance, 2.5), pixels[y * SIZE + x], x, y);
+            }
+        }
+    }
+
+    @Test
+    void thinLinesAreFadedInsteadOfWidened() {
+        OperationStore operations = new OperationStore();
+        operations.addStroke(5, 20.5, 60, 20.5, Color.BLACK, 0.5);
+
+        int[] pixels = render(operations, TRANSPARENT);
+        // The row the line runs through gets at most half coverage
+        assertEquals(Math.round(0.5f * 255), pixels[20 * SIZE + 30] >>> 24);
+    }
+
+    @Test
+    void translucentPolylineIsCompositedOnceAtJoins() {
+        OperationStore operations = new OperationStore();
+        operations.beginPolyline(10, 10, Color.rgb(0, 0, 0, 0.5), 6);
+        operations.extendPolyline(40, 10);
+        operations.extendPolyline(40, 40);
+        operations.extendPolyline(12, 14);
+        operations.sealPolyline();
+
+        int[] pixels = render(operations, SoftwareRasterizer.WHITE);
+        int single = SoftwareRasterizer.blend(SoftwareRasterizer.WHITE, 0x80000000, 1);
+        // Inside one segment, at the corner join and where the last segment crosses the first
+        assertEquals(single, pixels[10 * SIZE + 25]);
+        assertEquals(single, pixels[10 * SIZE + 40]);
+        assertEquals(single, pixels[12 * SIZE + 13]);
+    }
+
+    @Test
+    void parallelOutputMatchesSingleThreadedOutput() {
+        OperationStore operations = new OperationStore();
+        Random random = new Random(7);
+        Color[] colors = {Color.BLACK, Color.web("#007aff"), Color.rgb(255, 59, 48, 0.5), Color.rgb(0, 0, 0, 0.2)};
+        for (int i = 0; i < 2000; i++) {
+            double x = random.nextDouble() * 600;
+            double y = random.nextDouble() * 800;
+            operations.beginPolyline(x, y, colors[random.nextInt(colors.length)], 0.5 + random.nextInt(20));
+            for (int p = 0; p < 8; p++) {
+                x += random.nextGaussian() * 10;
+                y += random.nextGaussian() * 10;
+                operations.extendPolyline(x, y);
+            }
+            operations.sealPolyline();
+        }
+
+        ForkJoinPool singleThread = new ForkJoinPool(1);
+        ForkJoinPool fourThreads = new ForkJoinPool(4);
+        try {
+            int[] sequential = new SoftwareRasterizer(singleThread)
+                    .render(operations, operations.size(), 0, 0, 1.3, 700, 900, SoftwareRasterizer.WHITE);
+            int[] parallel = new SoftwareRasterizer(fourThreads)
+                    .render(operations, operations.size(), 0, 0, 1.3, 700, 900, SoftwareRasterizer.WHITE);
+            assertArrayEquals(sequential, parallel);
+        } finally {
+            singleThread.shutdown();
+            fourThreads.shutdown();
+        }
+    }
+
+    private int[] render(OperationStore operations, int background) {
+        return rasterizer.render(operations, operations.size(), 0, 0, 1, SIZE, SIZE, background);
+    }
+
+    /**
+     * Coverage of a pixel centre at the given distance from a shape of the
+     * given radius: solid inside, with a one pixel ramp centred on the edge
+     */
+    private static double expectedCoverage(double distance, double radius) {
+        return Math.clamp(radius + 0.5 - distance, 0, 1);
+    }
+
+    private static double distanceToSegment(double x, double y, double x0, double y0, double x1, double y1) {
+        double dx = x1 - x0;
+        double dy = y1 - y0;
+        double t = Math.clamp(((x - x0) * dx + (y - y0) * dy) / (dx * dx + dy * dy), 0, 1);
+        return Math.hypot(x - x0 - t * dx, y - y0 - t * dy);
+    }
+
+    /**
+     * Checks the alpha of a black shape drawn over transparent pixels, which is its coverage
+     */
+    private static void assertCoverage(double expected, int pixel, int x, int y) {
+        int alpha = pixel >>> 24;
+        assertTrue(Math.abs(alpha - expected * 255) <= 1,
+                "coverage at " + x + ", " + y + " was " + alpha + ", expected " + expected * 255);
+    }
+}
@@ -0,0 +1,45 @@
+package com.mykhailozinenko.sketchpad;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Shared setup for tests that need the project manager or compare content
+ */
+final class TestProjects {
+
+    private TestProjects() {
+    }
+
+    /**
+     * Gets the project manager, storing its projects in a temporary directory
+     */
+    static synchronized ProjectManager manager() {
+        if (System.getProperty("sketchpad.home") == null) {
+            try {
+                System.setProperty("sketchpad.home", Files.createTempDirectory("sketchpad-test").toString());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return ProjectManager.getInstance();
+    }
+
+    /**
+     * Checks that an operation of one store is drawn the same as one of another
+     */
+    static void assertSameOperation(OperationStore expected, int expectedOp, OperationStore actual, int actualOp) {
+        assertEquals(expected.kind(expectedOp), actual.kind(actualOp));
+        assertEquals(expected.color(expectedOp), actual.color(actualOp));
+        assertEquals(expected.width(expectedOp), actual.width(actualOp));
+        assertEquals(expected.pointCount(expectedOp), actual.pointCount(actualOp));
+        int points = expected.pointCount(expectedOp) * 2;
+        assertArrayEquals(Arrays.copyOf(expected.points(expectedOp, new float[0]), points),
+                Arrays.copyOf(actual.points(actualOp, new float[0]), points));
+    }
+}